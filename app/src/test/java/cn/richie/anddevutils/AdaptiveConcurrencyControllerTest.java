@@ -0,0 +1,186 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.AdaptiveConcurrencyController;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 自适应并发，按网络类型初始化、出错时乘性减少、并发用满且延迟稳定时提高
+ * 控制器修改的是 Dispatcher 的全局并发数，除了重新 init 的测试，不用单例的 OkHttpUtils，每个测试用自己的 OkHttpClient
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class AdaptiveConcurrencyControllerTest {
+    private MockWebServer mServer;
+    private okhttp3.Dispatcher mDispatcher;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/error")) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                if (request.getPath().startsWith("/slow")) {
+                    return new MockResponse().setBody("ok").setHeadersDelay(500, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setBody("ok").setBodyDelay(20, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+        mDispatcher = new okhttp3.Dispatcher();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void initialLimitByNetwork() throws Exception {
+        AdaptiveConcurrencyController controller = newController(1, 6, "mobile");
+        assertEquals(3, controller.getLimit());
+        assertEquals(3, mDispatcher.getMaxRequestsPerHost());
+        assertEquals(12, mDispatcher.getMaxRequests());
+        // 超过上限时取上限
+        controller.reset("wifi");
+        assertEquals(6, controller.getLimit());
+        controller.reset(null);
+        assertEquals(5, controller.getLimit());
+        List<AdaptiveConcurrencyController.LimitRecord> history = controller.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(5, history.get(2).getLimit());
+    }
+
+    @Test
+    public void backoffOnError() throws Exception {
+        AdaptiveConcurrencyController controller = newController(1, 20, null);
+        OkHttpClient client = newClient(controller);
+        for (int i = 0; i < 3; i++) {
+            try (Response response = client.newCall(request("/error")).execute()) {
+                assertEquals(503, response.code());
+            }
+        }
+        // 5 * 0.9 * 0.9 * 0.9 = 3.6
+        assertEquals(4, controller.getLimit());
+        assertEquals(4, mDispatcher.getMaxRequestsPerHost());
+        assertEquals(0, controller.getInflight());
+    }
+
+    @Test
+    public void increaseWhenSaturated() throws Exception {
+        AdaptiveConcurrencyController controller = newController(1, 20, "mobile");
+        OkHttpClient client = newClient(controller);
+        for (int round = 0; round < 10; round++) {
+            // 同时发出比并发数多的请求，让并发用满
+            int count = controller.getLimit() * 2;
+            final CountDownLatch latch = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                client.newCall(request("/ok")).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        response.close();
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue("limit: " + controller.getLimit(), controller.getLimit() > 3);
+        assertEquals(controller.getLimit(), mDispatcher.getMaxRequestsPerHost());
+    }
+
+    @Test
+    public void reinstallAfterInit() throws Exception {
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enableAdaptiveConcurrency(1, 20);
+        AdaptiveConcurrencyController old = okHttpUtils.getConcurrencyController();
+        // 重新 init 后旧的控制器不在新的 client 上，要重新开启
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        assertNull(okHttpUtils.getConcurrencyController());
+        okHttpUtils.enableAdaptiveConcurrency(1, 20);
+        AdaptiveConcurrencyController controller = okHttpUtils.getConcurrencyController();
+        assertNotSame(old, controller);
+
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                queue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        okHttpUtils.getAsString(mServer.url("/slow").toString(), callback);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (controller.getInflight() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, controller.getInflight());
+        assertEquals(0, old.getInflight());
+        assertNotNull(queue.poll(10, TimeUnit.SECONDS));
+        // 其他测试共用单例，恢复成没有开启的 client
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+    }
+
+    private AdaptiveConcurrencyController newController(int minLimit, int maxLimit, String networkType) throws Exception {
+        // 构造方法是包内可见的，正常通过 OkHttpUtils#enableAdaptiveConcurrency 创建
+        Constructor<AdaptiveConcurrencyController> constructor = AdaptiveConcurrencyController.class
+                .getDeclaredConstructor(okhttp3.Dispatcher.class, int.class, int.class, String.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(mDispatcher, minLimit, maxLimit, networkType);
+    }
+
+    private OkHttpClient newClient(AdaptiveConcurrencyController controller) {
+        return new OkHttpClient.Builder()
+                .dispatcher(mDispatcher)
+                .addInterceptor(controller)
+                .build();
+    }
+
+    private Request request(String path) {
+        return new Request.Builder().url(mServer.url(path)).build();
+    }
+}
@@ -0,0 +1,190 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.AdaptiveTimeoutInterceptor;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 按接口的超时，样本足够后按 p99 学习，显式规则优先
+ * 除了重新 init 的测试，不用单例的 OkHttpUtils，每个测试用自己的 OkHttpClient，默认读取超时 5 秒
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class AdaptiveTimeoutInterceptorTest {
+    private static final int MIN_SAMPLES = 50;
+    private MockWebServer mServer;
+    private AdaptiveTimeoutInterceptor mInterceptor;
+    private OkHttpClient mClient;
+    private volatile long mDelayMillis;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("ok").setHeadersDelay(mDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+        // 构造方法是包内可见的，正常通过 OkHttpUtils#enableAdaptiveTimeouts 创建
+        Constructor<AdaptiveTimeoutInterceptor> constructor = AdaptiveTimeoutInterceptor.class
+                .getDeclaredConstructor(double.class, long.class, long.class);
+        constructor.setAccessible(true);
+        mInterceptor = constructor.newInstance(3, 200, 1000);
+        mClient = new OkHttpClient.Builder()
+                .readTimeout(5, TimeUnit.SECONDS)
+                .addInterceptor(mInterceptor)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void learnAfterMinSamples() throws Exception {
+        Request request = request("/fast");
+        for (int i = 0; i < MIN_SAMPLES - 1; i++) {
+            execute(request);
+        }
+        assertEquals(-1, mInterceptor.getLearnedTimeoutMillis(request));
+        execute(request);
+        // 本地请求很快，取下限
+        assertEquals(200, mInterceptor.getLearnedTimeoutMillis(request));
+        // 其他接口单独统计
+        assertEquals(-1, mInterceptor.getLearnedTimeoutMillis(request("/other")));
+    }
+
+    @Test
+    public void applyLearnedTimeout() throws Exception {
+        Request request = request("/fast");
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            execute(request);
+        }
+        mDelayMillis = 1500;
+        long start = System.nanoTime();
+        try {
+            execute(request);
+            fail();
+        } catch (SocketTimeoutException expected) {
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // 学到的 200 毫秒代替默认的 5 秒
+        assertTrue("elapsed: " + elapsedMillis, elapsedMillis < 1000);
+    }
+
+    @Test
+    public void policyOverridesDefault() throws Exception {
+        mInterceptor.setPolicy(mServer.getHostName() + "/export*", 0, 200, 0);
+        mDelayMillis = 600;
+        try {
+            execute(request("/export/all"));
+            fail();
+        } catch (SocketTimeoutException expected) {
+        }
+        // 没有规则、样本不够的接口使用默认超时
+        execute(request("/list"));
+        mInterceptor.clearPolicies();
+        execute(request("/export/all"));
+    }
+
+    @Test
+    public void replacePolicy() throws Exception {
+        String pattern = mServer.getHostName() + "/export*";
+        mInterceptor.setPolicy(pattern, 0, 200, 0);
+        // 同一个 pattern 再次设置时替换，不是追加到后面被前一个规则挡住
+        mInterceptor.setPolicy(pattern, 0, 2000, 0);
+        mDelayMillis = 600;
+        execute(request("/export/all"));
+    }
+
+    @Test
+    public void samplesBounded() throws Exception {
+        // 路径里带 id 的接口每个 url 单独统计，只保留最近使用的接口
+        for (int i = 0; i < 150; i++) {
+            execute(request("/item/" + i));
+        }
+        Field field = AdaptiveTimeoutInterceptor.class.getDeclaredField("mSamples");
+        field.setAccessible(true);
+        Map<?, ?> samples = (Map<?, ?>) field.get(mInterceptor);
+        synchronized (samples) {
+            assertEquals(100, samples.size());
+            assertTrue(samples.containsKey(mServer.getHostName() + "/item/149"));
+        }
+    }
+
+    @Test
+    public void reinstallAfterInit() throws Exception {
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        AdaptiveTimeoutInterceptor old = okHttpUtils.enableAdaptiveTimeouts(3, 200, 1000);
+        // 重新 init 后旧的拦截器不在新的 client 上，要重新开启
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        assertNull(okHttpUtils.getTimeoutInterceptor());
+        AdaptiveTimeoutInterceptor interceptor = okHttpUtils.enableAdaptiveTimeouts(3, 200, 1000);
+        assertNotSame(old, interceptor);
+
+        // 新拦截器上的规则生效
+        interceptor.setPolicy(mServer.getHostName() + "/export*", 0, 200, 0);
+        mDelayMillis = 600;
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                queue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        okHttpUtils.getAsString(mServer.url("/export/all").toString(), callback);
+        assertEquals("网络访问失败", queue.poll(10, TimeUnit.SECONDS));
+        // 其他测试共用单例，恢复成没有开启的 client
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+    }
+
+    private Request request(String path) {
+        return new Request.Builder().url(mServer.url(path)).build();
+    }
+
+    private void execute(Request request) throws IOException {
+        try (Response response = mClient.newCall(request).execute()) {
+            assertEquals("ok", response.body().string());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.BandwidthLimiter;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 后台下载限速，单个传输的限速生效，普通请求不受影响
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class BandwidthLimiterTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int SIZE = 64 * 1024;
+    private static final long RATE = 128 * 1024;
+    private MockWebServer mServer;
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("bandwidth", "dir");
+        mDir.delete();
+        mDir.mkdirs();
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        // 全局不限速，只测单个传输的限速
+        okHttpUtils.enableBandwidthLimit(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void throttleTransfer() throws Exception {
+        assertThrottled();
+    }
+
+    @Test
+    public void throttleAfterReinit() throws Exception {
+        BandwidthLimiter old = OkHttpUtils.getInstance().getBandwidthLimiter();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+        assertNull(OkHttpUtils.getInstance().getBandwidthLimiter());
+        // 新的 client 上重新安装限速器，不是只修改旧限速器的速率
+        OkHttpUtils.getInstance().enableBandwidthLimit(0);
+        assertNotSame(old, OkHttpUtils.getInstance().getBandwidthLimiter());
+        assertThrottled();
+    }
+
+    private void assertThrottled() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(newBody()));
+        BandwidthLimiter limiter = OkHttpUtils.getInstance().getBandwidthLimiter();
+        long transferredBytes = limiter.getTransferredBytes();
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        long start = System.nanoTime();
+        BandwidthLimiter.Transfer transfer = OkHttpUtils.getInstance().downloadFileInBackground(mServer.url("/a.bin").toString(),
+                mDir, RATE, newCallback(queue));
+        assertTrue(queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS) instanceof File);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        // 初始积累 250 毫秒的量即 32KB，剩下的 32KB 按 128KB/s 至少要 250 毫秒
+        assertTrue("elapsed: " + elapsedMillis, elapsedMillis >= 200);
+        assertEquals(SIZE, transfer.getTransferredBytes());
+        assertEquals(transferredBytes + SIZE, limiter.getTransferredBytes());
+        assertTrue(String.valueOf(transfer.getAverageBytesPerSecond()), transfer.getAverageBytesPerSecond() < RATE * 2);
+    }
+
+    @Test
+    public void foregroundUnaffected() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(newBody()));
+        BandwidthLimiter limiter = OkHttpUtils.getInstance().getBandwidthLimiter();
+        long transferredBytes = limiter.getTransferredBytes();
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.getInstance().downloadFile(mServer.url("/b.bin").toString(), mDir, newCallback(queue));
+        assertTrue(queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS) instanceof File);
+        assertEquals(transferredBytes, limiter.getTransferredBytes());
+    }
+
+    private static Buffer newBody() {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < SIZE; i++) {
+            buffer.writeByte(i);
+        }
+        return buffer;
+    }
+
+    private static OkHttpUtils.OkHttpCallback<File> newCallback(final BlockingQueue<Object> queue) {
+        OkHttpUtils.OkHttpCallback<File> callback = new OkHttpUtils.OkHttpCallback<File>() {
+            @Override
+            protected void onSuccess(File file) {
+                queue.add(file);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        return callback;
+    }
+}
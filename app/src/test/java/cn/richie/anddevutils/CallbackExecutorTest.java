@@ -0,0 +1,163 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回调线程，单个回调的设置优先于全局设置，同一个回调的方法按顺序执行，线程池拒绝时也不会卡住
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class CallbackExecutorTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int TASK_COUNT = 50;
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        OkHttpUtils.getInstance().setCallbackExecutor(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void selectExecutor() throws Exception {
+        CountingExecutor global = new CountingExecutor();
+        OkHttpUtils.getInstance().setCallbackExecutor(global);
+        mServer.enqueue(new MockResponse().setBody("a"));
+        assertEquals(Arrays.asList("start", "a", "finish"), get(null));
+        assertEquals(3, global.mCount.get());
+
+        // 单个回调设置的优先
+        CountingExecutor own = new CountingExecutor();
+        mServer.enqueue(new MockResponse().setBody("b"));
+        assertEquals(Arrays.asList("start", "b", "finish"), get(own));
+        assertEquals(3, own.mCount.get());
+        assertEquals(3, global.mCount.get());
+    }
+
+    @Test
+    public void serialOnPool() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            assertSerial(newSerialExecutor(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void serialWhenRejected() throws Exception {
+        // 线程池满了拒绝执行，后面的任务也要按顺序执行
+        assertSerial(newSerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        }));
+    }
+
+    private List<String> get(Executor executor) throws InterruptedException {
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onStart() {
+                queue.add("start");
+            }
+
+            @Override
+            protected void onSuccess(String body) {
+                queue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+
+            @Override
+            protected void onFinish() {
+                queue.add("finish");
+            }
+        };
+        callback.setCallbackExecutor(executor);
+        OkHttpUtils.getInstance().getAsString(mServer.url("/").toString(), callback);
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            events.add(queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        return events;
+    }
+
+    private static Executor newSerialExecutor(Executor executor) throws Exception {
+        // 包内可见的类，正常由 OkHttpCallback 创建
+        Constructor<?> constructor = Class.forName("com.richie.utils.okhttp.OkHttpUtils$SerialExecutor")
+                .getDeclaredConstructor(Executor.class);
+        constructor.setAccessible(true);
+        return (Executor) constructor.newInstance(executor);
+    }
+
+    private static void assertSerial(Executor executor) throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < TASK_COUNT; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    private static final class CountingExecutor implements Executor {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable command) {
+            mCount.incrementAndGet();
+            command.run();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.CircuitBreakerInterceptor;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 按主机熔断，MockWebServer 按路径返回成功、失败和慢响应
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class CircuitBreakerInterceptorTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long OPEN_MILLIS = 200;
+    private static final String CIRCUIT_OPEN_MESSAGE = "服务暂时不可用";
+    private MockWebServer mServer;
+    private String mHost;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                if (path.startsWith("/fail")) {
+                    return new MockResponse().setResponseCode(500);
+                } else if (path.startsWith("/slowOk")) {
+                    return new MockResponse().setBody("ok").setHeadersDelay(1000, TimeUnit.MILLISECONDS);
+                } else if (path.startsWith("/slowFail")) {
+                    return new MockResponse().setResponseCode(500).setHeadersDelay(2000, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setBody("ok");
+            }
+        });
+        mServer.start();
+        mHost = mServer.getHostName();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enableCircuitBreaker(4, 0.5, 0, OPEN_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void openHalfOpenAndClose() throws Exception {
+        CircuitBreakerInterceptor circuitBreaker = OkHttpUtils.getInstance().getCircuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            get("/fail").take();
+        }
+        assertEquals(CircuitBreakerInterceptor.STATE_OPEN, circuitBreaker.getState(mHost));
+        int requestCount = mServer.getRequestCount();
+        assertEquals(CIRCUIT_OPEN_MESSAGE, get("/ok").take());
+        // 打开时请求不会发到服务端
+        assertEquals(requestCount, mServer.getRequestCount());
+
+        Thread.sleep(OPEN_MILLIS);
+        assertEquals("ok", get("/ok").take());
+        assertEquals(CircuitBreakerInterceptor.STATE_CLOSED, circuitBreaker.getState(mHost));
+    }
+
+    @Test
+    public void ignoreStragglerDuringHalfOpen() throws Exception {
+        CircuitBreakerInterceptor circuitBreaker = OkHttpUtils.getInstance().getCircuitBreaker();
+        // 关闭状态下发出的慢请求，在半开期间成功返回
+        Result straggler = get("/slowOk");
+        Thread.sleep(100);
+        for (int i = 0; i < 4; i++) {
+            get("/fail").take();
+        }
+        assertEquals(CircuitBreakerInterceptor.STATE_OPEN, circuitBreaker.getState(mHost));
+        Thread.sleep(OPEN_MILLIS);
+        Result probe = get("/slowFail");
+        assertEquals("ok", straggler.take());
+        // 探测请求还没有返回，慢请求的成功不能关闭熔断
+        assertEquals(CircuitBreakerInterceptor.STATE_HALF_OPEN, circuitBreaker.getState(mHost));
+        assertEquals(CIRCUIT_OPEN_MESSAGE, get("/ok").take());
+        probe.take();
+        assertEquals(CircuitBreakerInterceptor.STATE_OPEN, circuitBreaker.getState(mHost));
+    }
+
+    private Result get(String path) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.ConditionalCache;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 条件请求，服务端按 If-None-Match 返回 304
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class ConditionalCacheTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private MockWebServer mServer;
+    private ConditionalCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                String etag = "\"" + path + "\"";
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    MockResponse response = new MockResponse().setResponseCode(304).setHeader("ETag", etag);
+                    if (path.startsWith("/slow")) {
+                        response.setHeadersDelay(500, TimeUnit.MILLISECONDS);
+                    }
+                    return response;
+                }
+                return new MockResponse().setHeader("ETag", etag).setBody("body of " + path);
+            }
+        });
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enableConditionalGet(1, 1024 * 1024);
+        mCache = okHttpUtils.getConditionalCache();
+        mCache.clear();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void reuseOnNotModified() throws Exception {
+        long requestCount = mCache.getRequestCount();
+        long hitCount = mCache.getHitCount();
+        assertEquals("body of /a", get("/a").take());
+        assertEquals("body of /a", get("/a").take());
+        assertEquals("body of /a", get("/a").take());
+        assertEquals(3, mCache.getRequestCount() - requestCount);
+        assertEquals(2, mCache.getHitCount() - hitCount);
+        assertEquals(1, mCache.size());
+    }
+
+    @Test
+    public void notModifiedAfterEviction() throws Exception {
+        assertEquals("body of /slow", get("/slow").take());
+        // 304 返回之前，缓存被另一个 url 淘汰
+        Result slow = get("/slow");
+        Thread.sleep(100);
+        assertEquals("body of /b", get("/b").take());
+        assertEquals("body of /slow", slow.take());
+    }
+
+    private Result get(String path) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.common.ThreadHelper;
+import com.richie.utils.okhttp.ContentStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 按内容寻址的存储，去重、引用计数和按大小淘汰
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class ContentStoreTest {
+    private File mDir;
+    private ContentStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("store", "dir");
+        mDir.delete();
+        mStore = new ContentStore(mDir, 10);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.clear();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void dedupSameContent() throws IOException {
+        File a = put("a", "same");
+        File b = put("b", "same");
+        assertEquals(a, b);
+        assertEquals(1, mStore.size());
+        assertEquals(4, mStore.getBytes());
+        assertEquals(1, mStore.getDedupCount());
+        assertEquals(2, mStore.getRefCount(sha256("same")));
+        assertEquals("same", read(mStore.get("a")));
+        // 已知摘要的内容直接引用，不用下载
+        assertEquals(a, mStore.link("c", sha256("same").toUpperCase()));
+        assertEquals(3, mStore.getRefCount(sha256("same")));
+        assertNull(mStore.link("d", sha256("other")));
+    }
+
+    @Test
+    public void refCount() throws IOException {
+        File file = put("a", "one");
+        put("b", "one");
+        mStore.remove("a");
+        assertTrue(file.exists());
+        assertEquals(1, mStore.getRefCount(sha256("one")));
+        // url 的内容变化，旧内容少一个引用，没有引用时删除
+        put("b", "two");
+        assertFalse(file.exists());
+        assertEquals(0, mStore.getRefCount(sha256("one")));
+        assertEquals("two", read(mStore.get("b")));
+        mStore.remove("b");
+        assertEquals(0, mStore.size());
+        assertEquals(0, mStore.getBytes());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        File a = put("a", "aaaa");
+        File b = put("b", "bbbb");
+        // 访问 a，b 变成最近最少使用的
+        assertNotNull(mStore.get("a"));
+        File c = put("c", "cccc");
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertTrue(c.exists());
+        assertNull(mStore.get("b"));
+        assertEquals(8, mStore.getBytes());
+        // 比上限还大的文件自己保留，其他都淘汰
+        put("d", "dddddddddddd");
+        assertEquals(1, mStore.size());
+        assertNull(mStore.get("a"));
+    }
+
+    @Test
+    public void rejectDigestMismatch() throws IOException {
+        try {
+            mStore.put("a", new Buffer().writeUtf8("data"), sha256("other"));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, mStore.size());
+        assertNull(mStore.get("a"));
+        String[] names = mDir.list();
+        // 临时文件已经删除
+        for (String name : names != null ? names : new String[0]) {
+            assertFalse(name, name.endsWith(".tmp") && name.startsWith("download"));
+        }
+    }
+
+    @Test
+    public void loadWhenPoolFull() throws Exception {
+        // 共用的线程池占满后，加载和写入索引仍然执行
+        final CountDownLatch latch = new CountDownLatch(1);
+        File dir = new File(mDir.getParentFile(), mDir.getName() + "-full");
+        try {
+            try {
+                for (int i = 0; i < 10000; i++) {
+                    ThreadHelper.getInstance().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                latch.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+                }
+                fail();
+            } catch (RejectedExecutionException expected) {
+            }
+            ContentStore store = new ContentStore(dir, 10);
+            store.put("a", new Buffer().writeUtf8("a"), null);
+            assertEquals(1, store.size());
+            store.clear();
+        } finally {
+            latch.countDown();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private File put(String url, String content) throws IOException {
+        return mStore.put(url, new Buffer().writeUtf8(content), sha256(content));
+    }
+
+    private static String sha256(String content) {
+        return ByteString.encodeUtf8(content).sha256().hex();
+    }
+
+    private static String read(File file) throws IOException {
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            return source.readUtf8();
+        }
+    }
+}
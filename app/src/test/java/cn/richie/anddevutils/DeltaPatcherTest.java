@@ -0,0 +1,228 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.DeltaPatcher;
+import com.richie.utils.okhttp.DigestMismatchException;
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.PatchFormatException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 增量更新，本地生成旧文件、新文件和补丁，不需要外网
+ * 新文件在旧文件的基础上修改少量字节、中间插入一段新数据
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class DeltaPatcherTest {
+    private static final int OLD_SIZE = 256 * 1024;
+    private static final int INSERT_OFFSET = 100 * 1024;
+    private static final int INSERT_SIZE = 4 * 1024;
+
+    private File mDir;
+    private byte[] mOld;
+    private byte[] mNew;
+    private File mOldFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("delta", "dir");
+        mDir.delete();
+        mDir.mkdirs();
+        Random random = new Random(44);
+        mOld = new byte[OLD_SIZE];
+        random.nextBytes(mOld);
+        byte[] insert = new byte[INSERT_SIZE];
+        random.nextBytes(insert);
+        mNew = new byte[OLD_SIZE + INSERT_SIZE];
+        System.arraycopy(mOld, 0, mNew, 0, INSERT_OFFSET);
+        System.arraycopy(insert, 0, mNew, INSERT_OFFSET, INSERT_SIZE);
+        System.arraycopy(mOld, INSERT_OFFSET, mNew, INSERT_OFFSET + INSERT_SIZE, OLD_SIZE - INSERT_OFFSET);
+        // 大约 2% 的字节被修改
+        for (int i = 0; i < mNew.length / 50; i++) {
+            mNew[random.nextInt(mNew.length)] ^= 0x5A;
+        }
+        mOldFile = new File(mDir, "app.bin");
+        write(mOldFile, mOld);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void applyPatch() throws IOException {
+        Buffer patch = buildPatch();
+        long patchSize = patch.size();
+        File newFile = new File(mDir, "app-new.bin");
+        String digest = ByteString.of(mNew).sha256().hex();
+        DeltaPatcher.Result result = DeltaPatcher.applyPatch(mOldFile, patch, newFile, OkHttpUtils.DIGEST_SHA256, digest);
+        assertArrayEquals(mNew, read(newFile));
+        assertEquals(mNew.length, result.getNewSize());
+        assertEquals(patchSize, result.getPatchSize());
+        assertTrue(result.getBytesSaved() > 0);
+        assertFalse(new File(mDir, "app-new.bin.patching").exists());
+    }
+
+    @Test
+    public void applyPatchInPlace() throws IOException {
+        String digest = ByteString.of(mNew).md5().hex();
+        DeltaPatcher.applyPatch(mOldFile, buildPatch(), mOldFile, OkHttpUtils.DIGEST_MD5, digest);
+        assertArrayEquals(mNew, read(mOldFile));
+    }
+
+    @Test
+    public void digestMismatchKeepsOldFile() throws IOException {
+        String digest = ByteString.of(mOld).sha256().hex();
+        try {
+            DeltaPatcher.applyPatch(mOldFile, buildPatch(), mOldFile, OkHttpUtils.DIGEST_SHA256, digest);
+            fail();
+        } catch (DigestMismatchException expected) {
+        }
+        assertArrayEquals(mOld, read(mOldFile));
+        assertFalse(new File(mDir, "app.bin.patching").exists());
+    }
+
+    @Test
+    public void truncatedPatchKeepsOldFile() throws IOException {
+        Buffer patch = buildPatch();
+        Buffer truncated = new Buffer();
+        patch.copyTo(truncated, 0, patch.size() / 2);
+        try {
+            DeltaPatcher.applyPatch(mOldFile, truncated, mOldFile, null, null);
+            fail();
+        } catch (PatchFormatException expected) {
+        }
+        assertArrayEquals(mOld, read(mOldFile));
+        assertFalse(new File(mDir, "app.bin.patching").exists());
+    }
+
+    @Test
+    public void corruptCrcKeepsOldFile() throws IOException {
+        // gzip 结尾 8 个字节是 CRC 和长度，不校验摘要时也要读到结尾校验 CRC
+        byte[] patch = buildPatch().readByteArray();
+        patch[patch.length - 8] ^= 0x01;
+        try {
+            DeltaPatcher.applyPatch(mOldFile, new Buffer().write(patch), mOldFile, null, null);
+            fail();
+        } catch (PatchFormatException expected) {
+        }
+        assertArrayEquals(mOld, read(mOldFile));
+        assertFalse(new File(mDir, "app.bin.patching").exists());
+    }
+
+    @Test
+    public void downloadPatchFailureMessage() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+            String digest = ByteString.of(mNew).sha256().hex();
+            server.enqueue(new MockResponse().setBody(buildPatch()));
+            assertEquals("文件校验失败", downloadPatch(server, ByteString.of(mOld).sha256().hex()));
+            server.enqueue(new MockResponse().setBody(new Buffer().writeUtf8("not a patch")));
+            assertEquals("增量更新失败", downloadPatch(server, digest));
+            server.enqueue(new MockResponse().setBody(buildPatch()));
+            assertEquals("ok", downloadPatch(server, digest));
+            assertArrayEquals(mNew, read(mOldFile));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private String downloadPatch(MockWebServer server, String digest) throws InterruptedException {
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<DeltaPatcher.Result> callback = new OkHttpUtils.OkHttpCallback<DeltaPatcher.Result>() {
+            @Override
+            protected void onSuccess(DeltaPatcher.Result result) {
+                queue.add("ok");
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().downloadPatch(server.url("/patch").toString(), mOldFile, mOldFile,
+                OkHttpUtils.DIGEST_SHA256, digest, callback);
+        String value = queue.poll(10, TimeUnit.SECONDS);
+        assertNotNull(value);
+        return value;
+    }
+
+    /**
+     * 三个控制块：插入点之前做 diff，插入的数据作为 extra，剩余部分做 diff
+     */
+    private Buffer buildPatch() throws IOException {
+        Buffer patch = new Buffer();
+        patch.write(DeltaPatcher.MAGIC);
+        patch.writeLong(mNew.length);
+        try (BufferedSink body = Okio.buffer(new GzipSink(patch))) {
+            body.writeLong(INSERT_OFFSET);
+            body.writeLong(INSERT_SIZE);
+            body.writeLong(0);
+            body.write(diff(0, 0, INSERT_OFFSET));
+            body.write(mNew, INSERT_OFFSET, INSERT_SIZE);
+            int restSize = OLD_SIZE - INSERT_OFFSET;
+            body.writeLong(restSize);
+            body.writeLong(0);
+            body.writeLong(0);
+            body.write(diff(INSERT_OFFSET, INSERT_OFFSET + INSERT_SIZE, restSize));
+        }
+        return patch;
+    }
+
+    private byte[] diff(int oldOffset, int newOffset, int length) {
+        byte[] diff = Arrays.copyOfRange(mNew, newOffset, newOffset + length);
+        for (int i = 0; i < length; i++) {
+            diff[i] -= mOld[oldOffset + i];
+        }
+        return diff;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            sink.write(bytes);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Okio.buffer(Okio.source(file)).readByteArray();
+    }
+}
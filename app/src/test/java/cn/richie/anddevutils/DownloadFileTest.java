@@ -0,0 +1,128 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 下载文件的摘要校验和临时文件
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class DownloadFileTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String BODY = "0123456789abcdef";
+    private MockWebServer mServer;
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("download", "dir");
+        mDir.delete();
+        mDir.mkdirs();
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void redownloadPartialFile() throws Exception {
+        File partial = new File(mDir, "app.bin");
+        write(partial, BODY.substring(0, 5));
+        mServer.enqueue(new MockResponse().setBody(BODY));
+        Object result = download(OkHttpUtils.DIGEST_SHA256, ByteString.encodeUtf8(BODY).sha256().hex());
+        assertEquals(partial, result);
+        assertEquals(BODY, read(partial));
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mDir.listFiles().length);
+
+        // 校验通过的已有文件不再下载
+        assertEquals(partial, download(OkHttpUtils.DIGEST_SHA256, ByteString.encodeUtf8(BODY).sha256().hex()));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void digestMismatchLeavesNoFile() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(BODY));
+        Object result = download(OkHttpUtils.DIGEST_MD5, ByteString.encodeUtf8("other").md5().hex());
+        assertTrue(result instanceof String);
+        assertEquals(0, mDir.listFiles().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnsupportedAlgorithm() throws Exception {
+        download("SHA-1", "abc");
+    }
+
+    /**
+     * @return 成功时为文件，失败时为错误信息
+     */
+    private Object download(String algorithm, String digest) throws InterruptedException {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<File> callback = new OkHttpUtils.OkHttpCallback<File>() {
+            @Override
+            protected void onSuccess(File result) {
+                results.add(result);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                results.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().downloadFile(mServer.url("/app.bin").toString(), mDir, algorithm, digest, callback);
+        Object result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertFalse(new File(mDir, "app.bin.tmp").exists());
+        return result;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            sink.writeUtf8(content);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            return source.readUtf8();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.EndpointRateLimiter;
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.TokenBucket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 客户端限流，排队、拒绝、排队超时和取消排队中的请求
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class EndpointRateLimiterTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String RATE_LIMITED_MESSAGE = "请求过于频繁";
+    private MockWebServer mServer;
+    private EndpointRateLimiter mRateLimiter;
+    private String mPattern;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        mRateLimiter = okHttpUtils.enableRateLimit();
+        mPattern = mServer.getHostName() + "/limited*";
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (EndpointRateLimiter.Rule rule : mRateLimiter.getRules()) {
+            mRateLimiter.removeRule(rule);
+        }
+        mServer.shutdown();
+    }
+
+    @Test
+    public void queueUntilTokenAvailable() throws Exception {
+        EndpointRateLimiter.Rule rule = mRateLimiter.addRule(mPattern, new TokenBucket(5, 1), EndpointRateLimiter.POLICY_QUEUE);
+        long startNanos = System.nanoTime();
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok"));
+            results.add(get("/limited"));
+        }
+        for (Result result : results) {
+            assertEquals("ok", result.take());
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 350);
+        assertEquals(3, rule.getRequestCount());
+        assertEquals(2, rule.getQueuedCount());
+        assertEquals(0, rule.getRejectedCount());
+    }
+
+    @Test
+    public void rejectWhenWaitTooLong() throws Exception {
+        EndpointRateLimiter.Rule rule = mRateLimiter.addRule(mPattern, new TokenBucket(1, 1), EndpointRateLimiter.POLICY_QUEUE, 500);
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        assertEquals("ok", get("/limited").take());
+        assertEquals(RATE_LIMITED_MESSAGE, get("/limited").take());
+        assertEquals(1, rule.getRejectedCount());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void rejectPolicy() throws Exception {
+        mRateLimiter.addRule(mPattern, new TokenBucket(1, 1), EndpointRateLimiter.POLICY_REJECT);
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.enqueue(new MockResponse().setBody("other"));
+        assertEquals("ok", get("/limited").take());
+        assertEquals(RATE_LIMITED_MESSAGE, get("/limited").take());
+        // 不匹配规则的请求不受限制
+        assertEquals("other", get("/other").take());
+    }
+
+    @Test
+    public void cancelParkedCall() throws Exception {
+        mRateLimiter.addRule(mPattern, new TokenBucket(1, 1), EndpointRateLimiter.POLICY_QUEUE);
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.enqueue(new MockResponse().setBody("late"));
+        assertEquals("ok", get("/limited").take());
+        Result parked = get("/limited");
+        OkHttpUtils.getInstance().cancelAll();
+        assertNotEquals("late", parked.take());
+        Thread.sleep(1500);
+        // 取消后不会再发出
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    private Result get(String path) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package cn.richie.anddevutils;
+
+import android.util.Base64;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 证书配置按内容缓存，读取失败的证书不能被跳过，统计完整握手和复用会话的握手
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class HttpsUtilsTest {
+    /**
+     * 自签名的 localhost 证书，只用于测试
+     */
+    static final String CERTIFICATE = "-----BEGIN CERTIFICATE-----\n"
+            + "MIIBmzCCAUGgAwIBAgIUPkTgVWwvvB8Oaa9yVBZSj0XiTnMwCgYIKoZIzj0EAwIw\n"
+            + "FDESMBAGA1UEAwwJbG9jYWxob3N0MCAXDTI2MTAxOTE5NDQyMVoYDzIxMjYwOTI1\n"
+            + "MTk0NDIxWjAUMRIwEAYDVQQDDAlsb2NhbGhvc3QwWTATBgcqhkjOPQIBBggqhkjO\n"
+            + "PQMBBwNCAAQL0DH/LOJwN7fUAZu6m/TtuifyIZN4VbKFyMZFsVjo/ZF2qZkTVky5\n"
+            + "nkZqZvB/KkHwcgGuM7v1Gui3x/MoXI12o28wbTAdBgNVHQ4EFgQUltnQq+jdMO9d\n"
+            + "ajaEG2dxUKOp9RcwHwYDVR0jBBgwFoAUltnQq+jdMO9dajaEG2dxUKOp9RcwDwYD\n"
+            + "VR0TAQH/BAUwAwEB/zAaBgNVHREEEzARgglsb2NhbGhvc3SHBH8AAAEwCgYIKoZI\n"
+            + "zj0EAwIDSAAwRQIgL4/9BIZhlFswONLYVsoaosJSgLl9L1miHKdm3/62jUECIQC1\n"
+            + "qPgcotNM/BCqfFN2XuwEwC6PKBeWsQ20A524XRoHbA==\n"
+            + "-----END CERTIFICATE-----\n";
+    /**
+     * 证书对应的 PKCS#8 私钥
+     */
+    private static final String PRIVATE_KEY = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQgh94+WaCS1hRwKX8lhwmft9ie8soPcszgI4BAqj3Nkie"
+            + "hRANCAAQL0DH/LOJwN7fUAZu6m/TtuifyIZN4VbKFyMZFsVjo/ZF2qZkTVky5nkZqZvB/KkHwcgGuM7v1Gui3x/MoXI12";
+
+    @Test
+    public void cacheByContent() throws Exception {
+        Object first = sslParams(certificate());
+        // 不同的流对象，内容相同时复用同一个配置
+        assertSame(first, sslParams(certificate()));
+    }
+
+    @Test
+    public void unreadableCertificateNotDropped() throws Exception {
+        Object trusted = sslParams(certificate());
+        Object withUnreadable = sslParams(certificate(), new UnreadableStream());
+        // 不能当作只传了可以读取的证书，失败的配置也不缓存
+        assertNotSame(trusted, withUnreadable);
+        assertNotSame(withUnreadable, sslParams(certificate(), new UnreadableStream()));
+    }
+
+    @Test
+    public void countResumedHandshake() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.useHttps(serverContext().getSocketFactory(), false);
+        server.start();
+        try {
+            OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+            okHttpUtils.init(RuntimeEnvironment.application, false);
+            long fullCount = okHttpUtils.getFullHandshakeCount();
+            long resumedCount = okHttpUtils.getResumedHandshakeCount();
+            // 每次响应后关闭连接，第二次请求重新握手，复用第一次的会话
+            server.enqueue(new MockResponse().setBody("a").setHeader("Connection", "close"));
+            server.enqueue(new MockResponse().setBody("b").setHeader("Connection", "close"));
+            assertEquals("a", get(server));
+            Thread.sleep(20);
+            assertEquals("b", get(server));
+            assertEquals(fullCount + 1, okHttpUtils.getFullHandshakeCount());
+            assertEquals(resumedCount + 1, okHttpUtils.getResumedHandshakeCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static String get(MockWebServer server) throws InterruptedException {
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                queue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(server.url("/").toString(), callback);
+        String value = queue.poll(10, TimeUnit.SECONDS);
+        assertNotNull(value);
+        return value;
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        Certificate certificate = CertificateFactory.getInstance("X.509").generateCertificate(certificate());
+        PrivateKey privateKey = KeyFactory.getInstance("EC")
+                .generatePrivate(new PKCS8EncodedKeySpec(Base64.decode(PRIVATE_KEY, Base64.DEFAULT)));
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null);
+        char[] password = "password".toCharArray();
+        keyStore.setKeyEntry("localhost", privateKey, password, new Certificate[]{certificate});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * HttpsUtils 是包内可见的，通过反射调用 getSslSocketFactory(InputStream...)
+     */
+    private static Object sslParams(InputStream... certificates) throws Exception {
+        Method method = Class.forName("com.richie.utils.okhttp.HttpsUtils")
+                .getDeclaredMethod("getSslSocketFactory", InputStream[].class);
+        method.setAccessible(true);
+        return method.invoke(null, (Object) certificates);
+    }
+
+    private static InputStream certificate() {
+        return new ByteArrayInputStream(CERTIFICATE.getBytes(Charset.forName("US-ASCII")));
+    }
+
+    private static final class UnreadableStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            throw new IOException("unreadable");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throw new IOException("unreadable");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cn.richie.anddevutils;
+
+import com.google.gson.JsonSyntaxException;
+import com.richie.utils.okhttp.GsonConverter;
+import com.richie.utils.okhttp.JsonArrayIterator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JSON 数组的流式解析
+ */
+public class JsonArrayIteratorTest {
+
+    @Test
+    public void iterateArray() throws IOException {
+        try (JsonArrayIterator<Item> iterator = GsonConverter.jsonToIterator(
+                new StringReader("[{\"id\":1},{\"id\":2},{\"id\":3}]"), Item.class)) {
+            List<Integer> ids = new ArrayList<>();
+            while (iterator.hasNext()) {
+                // 重复调用 hasNext 不会跳过元素
+                assertTrue(iterator.hasNext());
+                ids.add(iterator.next().id);
+            }
+            assertEquals(Arrays.asList(1, 2, 3), ids);
+            assertFalse(iterator.hasNext());
+            try {
+                iterator.next();
+                fail();
+            } catch (NoSuchElementException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void listAndEach() {
+        assertEquals(Collections.emptyList(), GsonConverter.jsonToList("[]", Item.class));
+        assertEquals(2, GsonConverter.jsonToList("[{\"id\":1},{\"id\":2}]", Item.class).size());
+        final List<Integer> indexes = new ArrayList<>();
+        int count = GsonConverter.jsonToEach(new StringReader("[{\"id\":5},{\"id\":6}]"), Item.class,
+                new GsonConverter.OnElementListener<Item>() {
+                    @Override
+                    public void onElement(int index, Item element) {
+                        indexes.add(index);
+                    }
+                });
+        assertEquals(2, count);
+        assertEquals(Arrays.asList(0, 1), indexes);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void rejectTrailingContent() {
+        GsonConverter.jsonToList("[{\"id\":1}] {\"id\":2}", Item.class);
+    }
+
+    @Test
+    public void lenientList() {
+        // jsonToList 和之前的 JsonParser 一样宽松，接受防 XSSI 的前缀和分号分隔
+        String json = ")]}'\n[{\"id\":1};{\"id\":2}]";
+        List<Item> items = GsonConverter.jsonToList(json, Item.class);
+        assertEquals(2, items.size());
+        assertEquals(2, items.get(1).id);
+        try {
+            GsonConverter.jsonToIterator(new StringReader(json), Item.class).hasNext();
+            fail();
+        } catch (JsonSyntaxException expected) {
+        }
+    }
+
+    @Test
+    public void failAgainAfterFailure() {
+        JsonArrayIterator<Item> iterator = GsonConverter.jsonToIterator(new StringReader("{\"id\":1}"), Item.class);
+        for (int i = 0; i < 2; i++) {
+            // 第二次调用不能跳过 beginArray 把对象当成数组元素
+            try {
+                iterator.hasNext();
+                fail();
+            } catch (RuntimeException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void iterateSequence() throws IOException {
+        try (JsonArrayIterator<Item> iterator = GsonConverter.jsonStreamToIterator(
+                new StringReader("{\"id\":1}\n{\"id\":2}\n"), Item.class)) {
+            assertEquals(1, iterator.next().id);
+            assertEquals(2, iterator.next().id);
+            assertFalse(iterator.hasNext());
+        }
+        try (JsonArrayIterator<Item> iterator = GsonConverter.jsonStreamToIterator(
+                new StringReader("[{\"id\":3}]"), Item.class)) {
+            assertEquals(3, iterator.next().id);
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void emptySequence() throws IOException {
+        // 空的 NDJSON 按没有数据处理，不是读取失败
+        try (JsonArrayIterator<Item> iterator = GsonConverter.jsonStreamToIterator(
+                new StringReader(""), Item.class)) {
+            assertFalse(iterator.hasNext());
+            assertFalse(iterator.hasNext());
+        }
+        try (JsonArrayIterator<Item> iterator = GsonConverter.jsonStreamToIterator(
+                new StringReader("\n  \n"), Item.class)) {
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    private static class Item {
+        private int id;
+    }
+}
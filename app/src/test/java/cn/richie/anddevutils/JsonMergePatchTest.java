@@ -0,0 +1,137 @@
+package cn.richie.anddevutils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.richie.utils.okhttp.JsonMergePatch;
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JSON Merge Patch，用 RFC 7396 的示例和实体对象验证
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class JsonMergePatchTest {
+
+    @Test
+    public void diffAndApply() {
+        JsonElement original = parse("{\"title\":\"Goodbye!\",\"author\":{\"givenName\":\"John\",\"familyName\":\"Doe\"},"
+                + "\"tags\":[\"example\",\"sample\"],\"content\":\"This will be unchanged\"}");
+        JsonElement modified = parse("{\"title\":\"Hello!\",\"author\":{\"givenName\":\"John\"},"
+                + "\"tags\":[\"example\"],\"content\":\"This will be unchanged\",\"phoneNumber\":\"+01-123-456-7890\"}");
+        JsonMergePatch.Result result = JsonMergePatch.diff(original, modified);
+        assertEquals(parse("{\"title\":\"Hello!\",\"author\":{\"familyName\":null},\"tags\":[\"example\"],"
+                + "\"phoneNumber\":\"+01-123-456-7890\"}"), parse(result.toJson()));
+        assertEquals(modified, JsonMergePatch.apply(original, result.getPatch()));
+        assertTrue(result.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void diffBeanSnapshot() {
+        User user = new User();
+        user.mName = "richie";
+        user.mNickname = "r";
+        user.mTags = new ArrayList<>(Arrays.asList("a", "b"));
+        JsonElement snapshot = JsonMergePatch.snapshot(user);
+        assertTrue(JsonMergePatch.diff(snapshot, user).isEmpty());
+
+        user.mAge = 18;
+        user.mNickname = null;
+        user.mTags.add("c");
+        JsonMergePatch.Result result = JsonMergePatch.diff(snapshot, user);
+        assertEquals(parse("{\"mAge\":18,\"mNickname\":null,\"mTags\":[\"a\",\"b\",\"c\"]}"), parse(result.toJson()));
+        assertEquals(result.getFullSize(), JsonMergePatch.apply(snapshot, result.getPatch()).toString().length());
+    }
+
+    @Test
+    public void noPatchForEqualValues() {
+        // 数组和其他值没有变化时不能用空对象表示，应用后会变成 {}
+        JsonMergePatch.Result result = JsonMergePatch.diff(parse("[1,2]"), parse("[1,2]"));
+        assertTrue(result.isEmpty());
+        assertNull(result.getPatch());
+        assertNull(result.toJson());
+        assertEquals(0, result.getPatchSize());
+        assertTrue(JsonMergePatch.diff(parse("\"a\""), parse("\"a\"")).isEmpty());
+        assertEquals(parse("[1]"), JsonMergePatch.diff(parse("[1,2]"), parse("[1]")).getPatch());
+    }
+
+    @Test
+    public void skipRequestWhenUnchanged() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+            User user = new User();
+            user.mName = "richie";
+            JsonElement snapshot = JsonMergePatch.snapshot(user);
+            long bytesSaved = OkHttpUtils.getInstance().getMergePatchBytesSaved();
+            User unchanged = patch(server, snapshot, user);
+            assertEquals("richie", unchanged.mName);
+            assertEquals(0, server.getRequestCount());
+            // 没有发送的补丁不算节省
+            assertEquals(bytesSaved, OkHttpUtils.getInstance().getMergePatchBytesSaved());
+
+            user.mAge = 18;
+            server.enqueue(new MockResponse().setBody("{\"mName\":\"richie\",\"mAge\":18}"));
+            assertEquals(18, patch(server, snapshot, user).mAge);
+            RecordedRequest request = server.takeRequest();
+            assertEquals("PATCH", request.getMethod());
+            assertEquals("{\"mAge\":18}", request.getBody().readUtf8());
+            assertTrue(OkHttpUtils.getInstance().getMergePatchBytesSaved() > bytesSaved);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static User patch(MockWebServer server, JsonElement snapshot, User user) throws InterruptedException {
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<User> callback = new OkHttpUtils.OkHttpCallback<User>() {
+            @Override
+            protected void onSuccess(User user) {
+                queue.add(user);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                queue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().patchJsonAsEntity(server.url("/user").toString(), snapshot, user, callback);
+        Object value = queue.poll(10, TimeUnit.SECONDS);
+        assertNotNull(value);
+        return (User) value;
+    }
+
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+
+    private static class User {
+        private String mName;
+        private String mNickname;
+        private int mAge;
+        private List<String> mTags;
+    }
+}
@@ -0,0 +1,181 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 响应体大小上限，按 Content-Length 或分块读取判断，超过时普通回调失败、SpillOkHttpCallback 收到临时文件
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class MaxBodySizeTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int MAX_BODY_SIZE = 100;
+    private static final String OVERSIZE_FAILURE_MESSAGE = "响应数据过大";
+    private static final String NETWORK_FAILURE_MESSAGE = "网络访问失败";
+    private static final String FINISH = "finish";
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.setMaxBodySize(MAX_BODY_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        OkHttpUtils.getInstance().setMaxBodySize(0);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void withinCap() throws Exception {
+        // 分块传输没有 Content-Length，正好等于上限时不算超过
+        String body = newBody(MAX_BODY_SIZE);
+        mServer.enqueue(new MockResponse().setChunkedBody(body, 16));
+        assertEquals(body, get("/exact", false));
+    }
+
+    @Test
+    public void contentLengthOverCap() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(newBody(MAX_BODY_SIZE + 1)));
+        long count = oversizeCount("/big");
+        assertEquals(OVERSIZE_FAILURE_MESSAGE, get("/big", false));
+        assertEquals(count + 1, oversizeCount("/big"));
+    }
+
+    @Test
+    public void chunkedOverCap() throws Exception {
+        mServer.enqueue(new MockResponse().setChunkedBody(newBody(MAX_BODY_SIZE * 3), 16));
+        long count = oversizeCount("/chunked");
+        assertEquals(OVERSIZE_FAILURE_MESSAGE, get("/chunked", false));
+        assertEquals(count + 1, oversizeCount("/chunked"));
+    }
+
+    @Test
+    public void spillToFile() throws Exception {
+        String body = newBody(MAX_BODY_SIZE * 3);
+        mServer.enqueue(new MockResponse().setChunkedBody(body, 16));
+        Object result = get("/spill", true);
+        assertTrue(String.valueOf(result), result instanceof File);
+        File file = (File) result;
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            assertEquals(body, source.readUtf8());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void spillReadFailure() throws Exception {
+        // 写入临时文件时连接断开，按网络失败回调，不是解析失败
+        mServer.enqueue(new MockResponse().setBody(newBody(MAX_BODY_SIZE * 100))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        File[] before = RuntimeEnvironment.application.getCacheDir().listFiles();
+        assertEquals(NETWORK_FAILURE_MESSAGE, get("/broken", true));
+        // 写了一半的临时文件被删除
+        File[] after = RuntimeEnvironment.application.getCacheDir().listFiles();
+        assertEquals(before == null ? 0 : before.length, after == null ? 0 : after.length);
+    }
+
+    @Test
+    public void readFailureWithinCap() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(newBody(MAX_BODY_SIZE))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        assertEquals(NETWORK_FAILURE_MESSAGE, get("/broken", false));
+    }
+
+    private Object get(String path, boolean spill) throws InterruptedException {
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback;
+        if (spill) {
+            callback = new OkHttpUtils.SpillOkHttpCallback() {
+                @Override
+                protected void onSpilled(File file) {
+                    queue.add(file);
+                }
+
+                @Override
+                protected void onSuccess(String body) {
+                    queue.add(body);
+                }
+
+                @Override
+                protected void onFailure(String errorMsg) {
+                    queue.add(errorMsg);
+                }
+
+                @Override
+                protected void onFinish() {
+                    queue.add(FINISH);
+                }
+            };
+        } else {
+            callback = new OkHttpUtils.OkHttpCallback<String>() {
+                @Override
+                protected void onSuccess(String body) {
+                    queue.add(body);
+                }
+
+                @Override
+                protected void onFailure(String errorMsg) {
+                    queue.add(errorMsg);
+                }
+
+                @Override
+                protected void onFinish() {
+                    queue.add(FINISH);
+                }
+            };
+        }
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        Object result = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // 结果只回调一次，之后回调 onFinish
+        assertEquals(FINISH, queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    private long oversizeCount(String path) {
+        Map<String, Long> counts = OkHttpUtils.getInstance().getOversizeCounts();
+        Long count = counts.get(mServer.getHostName() + path);
+        return count != null ? count : 0;
+    }
+
+    private static String newBody(int size) {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < size; i++) {
+            buffer.writeByte('a' + i % 26);
+        }
+        return buffer.readUtf8();
+    }
+}
@@ -0,0 +1,187 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OfflineOutbox;
+import com.richie.utils.okhttp.EndpointRateLimiter;
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.TokenBucket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 离线发件箱，按顺序重放、合并、遇到 5xx 或限流暂停、重新创建后恢复
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class OfflineOutboxTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    private MockWebServer mServer;
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+        mDir = new File(RuntimeEnvironment.application.getFilesDir(), "okhttp_outbox");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void replayInOrderAndCoalesce() throws Exception {
+        OfflineOutbox outbox = newOutbox();
+        outbox.enqueueJson(url("/a"), "{\"v\":1}", "profile");
+        outbox.enqueueForm(url("/b"), "k=v", null);
+        // 同一个合并键只保留最新的
+        outbox.enqueueJson(url("/a"), "{\"v\":2}", "profile");
+        assertEquals(2, outbox.size());
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse());
+        outbox.replay();
+
+        RecordedRequest first = takeRequest();
+        assertEquals("/b", first.getPath());
+        assertEquals("k=v", first.getBody().readUtf8());
+        RecordedRequest second = takeRequest();
+        assertEquals("/a", second.getPath());
+        assertEquals("{\"v\":2}", second.getBody().readUtf8());
+        Set<String> keys = new HashSet<>();
+        keys.add(first.getHeader(OfflineOutbox.HEAD_KEY_IDEMPOTENCY_KEY));
+        keys.add(second.getHeader(OfflineOutbox.HEAD_KEY_IDEMPOTENCY_KEY));
+        assertEquals(2, keys.size());
+        awaitSize(outbox, 0);
+        awaitFileCount(0);
+    }
+
+    @Test
+    public void pauseOnServerError() throws Exception {
+        OfflineOutbox outbox = newOutbox();
+        outbox.enqueueJson(url("/a"), "{}", null);
+        outbox.enqueueJson(url("/b"), "{}", null);
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        outbox.replay();
+        assertEquals("/a", takeRequest().getPath());
+        Thread.sleep(300);
+        assertNull(mServer.takeRequest(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, outbox.size());
+
+        // 4xx 不能重试，直接丢弃
+        mServer.enqueue(new MockResponse().setResponseCode(400));
+        mServer.enqueue(new MockResponse());
+        outbox.replay();
+        assertEquals("/a", takeRequest().getPath());
+        assertEquals("/b", takeRequest().getPath());
+        awaitSize(outbox, 0);
+    }
+
+    @Test
+    public void pauseOnRateLimit() throws Exception {
+        EndpointRateLimiter rateLimiter = OkHttpUtils.getInstance().enableRateLimit();
+        // 只有一个令牌，第二个请求被拒绝
+        EndpointRateLimiter.Rule rule = rateLimiter.addRule(mServer.getHostName(), new TokenBucket(1, 1),
+                EndpointRateLimiter.POLICY_REJECT);
+        try {
+            OfflineOutbox outbox = newOutbox();
+            outbox.enqueueJson(url("/a"), "{}", null);
+            outbox.enqueueJson(url("/b"), "{}", null);
+            mServer.enqueue(new MockResponse());
+            mServer.enqueue(new MockResponse());
+            outbox.replay();
+            assertEquals("/a", takeRequest().getPath());
+            awaitSize(outbox, 1);
+            assertNull(mServer.takeRequest(300, TimeUnit.MILLISECONDS));
+            assertEquals(1, rule.getRejectedCount());
+        } finally {
+            rateLimiter.removeRule(rule);
+        }
+    }
+
+    @Test
+    public void restoreAfterRestart() throws Exception {
+        OfflineOutbox outbox = newOutbox();
+        outbox.enqueueJson(url("/a"), "{\"v\":1}", "profile");
+        outbox.enqueueJson(url("/b"), "{}", null);
+        awaitFileCount(2);
+
+        OfflineOutbox restored = newOutbox();
+        // 加载完成前保存的同一个合并键的请求代替旧的
+        restored.enqueueJson(url("/a"), "{\"v\":2}", "profile");
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse());
+        restored.replay();
+        assertEquals("/b", takeRequest().getPath());
+        RecordedRequest request = takeRequest();
+        assertEquals("/a", request.getPath());
+        assertEquals("{\"v\":2}", request.getBody().readUtf8());
+        awaitSize(restored, 0);
+        awaitFileCount(0);
+    }
+
+    private OfflineOutbox newOutbox() {
+        OfflineOutbox outbox = new OfflineOutbox(RuntimeEnvironment.application);
+        outbox.setMinIntervalMillis(0);
+        return outbox;
+    }
+
+    private String url(String path) {
+        return mServer.url(path).toString();
+    }
+
+    private RecordedRequest takeRequest() throws InterruptedException {
+        RecordedRequest request = mServer.takeRequest(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(request);
+        return request;
+    }
+
+    private void awaitSize(OfflineOutbox outbox, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (outbox.size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(size, outbox.size());
+    }
+
+    private void awaitFileCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (fileCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, fileCount());
+        assertTrue(mDir.isDirectory());
+    }
+
+    private int fileCount() {
+        String[] names = mDir.list();
+        return names != null ? names.length : 0;
+    }
+}
@@ -0,0 +1,247 @@
+package cn.richie.anddevutils;
+
+import android.os.Looper;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * OkHttpUtils 本地压测，MockWebServer 模拟延迟、带宽和错误，不需要外网
+ * 耗时较长，默认跳过，通过系统属性配置：
+ * load.enabled 为 true 时才运行，例如 ./gradlew :app:testDebugUnitTest -Dload.enabled=true
+ * load.requests 每个场景的请求数，默认 2000
+ * load.latencyMs 服务端响应延迟，默认 20
+ * load.bytesPerSecond 服务端带宽，默认 0 不限速
+ * load.errorRate 错误比例 0~1，一半返回 500，一半直接断开，默认 0.01
+ * load.downloadBytes 下载文件大小，默认 64 KB
+ * load.timeoutSeconds 每个场景最长等待时间，默认 300
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class OkHttpLoadTest {
+    private static final int REQUESTS = Integer.getInteger("load.requests", 2000);
+    private static final long LATENCY_MS = Long.getLong("load.latencyMs", 20);
+    private static final long BYTES_PER_SECOND = Long.getLong("load.bytesPerSecond", 0);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("load.errorRate", "0.01"));
+    private static final int DOWNLOAD_BYTES = Integer.getInteger("load.downloadBytes", 64 * 1024);
+    private static final long TIMEOUT_SECONDS = Long.getLong("load.timeoutSeconds", 300);
+    /**
+     * 持有引用，避免日志配置被回收
+     */
+    private static final Logger SERVER_LOGGER = Logger.getLogger(MockWebServer.class.getName());
+    private static final String ENTITY_JSON = "{\"id\":1,\"name\":\"richie\",\"tags\":[\"a\",\"b\",\"c\"],\"score\":99.5}";
+
+    private MockWebServer mServer;
+    private File mDownloadDir;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("load test disabled, run with -Dload.enabled=true", Boolean.getBoolean("load.enabled"));
+        SERVER_LOGGER.setLevel(Level.WARNING);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new LoadDispatcher());
+        mServer.start();
+        mDownloadDir = new File(RuntimeEnvironment.application.getCacheDir(), "load-test");
+        mDownloadDir.mkdirs();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mServer == null) {
+            // 没有开启时跳过
+            return;
+        }
+        mServer.shutdown();
+        File[] files = mDownloadDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void getAsEntity() {
+        final LoadReport report = new LoadReport("getAsEntity");
+        for (int i = 0; i < REQUESTS; i++) {
+            OkHttpUtils.getInstance().getAsEntity(mServer.url("/entity/" + i).toString(), new ReportCallback<Entity>(report) {
+            });
+        }
+        report.await();
+    }
+
+    @Test
+    public void postJsonAsEntity() {
+        final LoadReport report = new LoadReport("postJsonAsEntity");
+        for (int i = 0; i < REQUESTS; i++) {
+            OkHttpUtils.getInstance().postJsonAsEntity(mServer.url("/entity/" + i).toString(), ENTITY_JSON, new ReportCallback<Entity>(report) {
+            });
+        }
+        report.await();
+    }
+
+    @Test
+    public void downloadFile() {
+        final LoadReport report = new LoadReport("downloadFile");
+        for (int i = 0; i < REQUESTS; i++) {
+            OkHttpUtils.getInstance().downloadFile(mServer.url("/download/file-" + i + ".bin").toString(), mDownloadDir, new ReportCallback<File>(report) {
+            });
+        }
+        report.await();
+    }
+
+    public static class Entity {
+        long id;
+        String name;
+        List<String> tags;
+        double score;
+    }
+
+    /**
+     * 按配置的延迟、带宽和错误比例响应
+     */
+    private static class LoadDispatcher extends Dispatcher {
+        private final Random mRandom = new Random(0);
+        private final Buffer mDownloadBody = new Buffer().write(new byte[DOWNLOAD_BYTES]);
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            double dice;
+            synchronized (mRandom) {
+                dice = mRandom.nextDouble();
+            }
+            MockResponse response = new MockResponse();
+            if (dice < ERROR_RATE / 2) {
+                return response.setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+            } else if (dice < ERROR_RATE) {
+                response.setResponseCode(500);
+            } else if (request.getPath().startsWith("/download/")) {
+                response.setHeader("Content-Type", "application/octet-stream").setBody(mDownloadBody.clone());
+            } else {
+                response.setHeader("Content-Type", "application/json").setBody(ENTITY_JSON);
+            }
+            response.setHeadersDelay(LATENCY_MS, TimeUnit.MILLISECONDS);
+            if (BYTES_PER_SECOND > 0) {
+                // 每 100 毫秒发送十分之一
+                response.throttleBody(Math.max(1, BYTES_PER_SECOND / 10), 100, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * OkHttpUtils 通过泛型父类解析实体类型，所以要以匿名子类的形式创建
+     */
+    private abstract static class ReportCallback<T> extends OkHttpUtils.OkHttpCallback<T> {
+        private final LoadReport mReport;
+        private long mCallStartNanos;
+
+        ReportCallback(LoadReport report) {
+            mReport = report;
+            report.mIssued++;
+        }
+
+        @Override
+        protected void onStart() {
+            mCallStartNanos = System.nanoTime();
+        }
+
+        @Override
+        protected void onSuccess(T result) {
+            mReport.mSucceeded++;
+        }
+
+        @Override
+        protected void onFailure(String errorMsg) {
+            mReport.mFailed++;
+        }
+
+        @Override
+        protected void onFinish() {
+            mReport.mLatencies.add(System.nanoTime() - mCallStartNanos);
+            mReport.mFinished++;
+        }
+    }
+
+    /**
+     * 统计吞吐量和延迟分位数，回调在主线程执行，所以不需要同步
+     */
+    private static class LoadReport {
+        private final String mName;
+        private final List<Long> mLatencies = new ArrayList<>();
+        private final long mStartNanos = System.nanoTime();
+        private int mIssued;
+        private int mFinished;
+        private int mSucceeded;
+        private int mFailed;
+
+        LoadReport(String name) {
+            mName = name;
+        }
+
+        /**
+         * 测试线程就是主线程，循环执行主线程消息直到所有请求结束
+         */
+        void await() {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (mFinished < mIssued && System.nanoTime() < deadline) {
+                shadowOf(Looper.getMainLooper()).idle();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            print();
+            assertEquals(mName + " unfinished calls", mIssued, mFinished);
+        }
+
+        private void print() {
+            double seconds = (System.nanoTime() - mStartNanos) / 1e9;
+            List<Long> sorted = new ArrayList<>(mLatencies);
+            Collections.sort(sorted);
+            System.out.println(String.format(Locale.US,
+                    "%s: requests=%d, success=%d, failure=%d, time=%.2fs, throughput=%.1f req/s, p50=%.1fms, p95=%.1fms, p99=%.1fms",
+                    mName, mIssued, mSucceeded, mFailed, seconds, mFinished / seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99)));
+        }
+
+        private static double percentile(List<Long> sorted, double percent) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percent * sorted.size()) - 1;
+            return sorted.get(Math.max(0, index)) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package cn.richie.anddevutils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import com.richie.utils.okhttp.EndpointRateLimiter;
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.PrefetchScheduler;
+import com.richie.utils.okhttp.TokenBucket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 空闲时预取，前台请求期间不预取、前台请求打断预取、命中率、按 Cache-Control 保存、计流量的网络不预取
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class PrefetchSchedulerTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static List<MessageQueue.IdleHandler> sIdleHandlers = new ArrayList<>();
+    private MockWebServer mServer;
+    private PrefetchScheduler mScheduler;
+    private EndpointRateLimiter mRateLimiter;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                MockResponse response = new MockResponse().setBody("body of " + path);
+                if (path.startsWith("/slow")) {
+                    response.setHeadersDelay(2000, TimeUnit.MILLISECONDS);
+                } else if (path.startsWith("/no-store")) {
+                    response.setHeader("Cache-Control", "no-store");
+                } else if (path.startsWith("/max-age")) {
+                    response.setHeader("Cache-Control", "max-age=" + path.substring(path.lastIndexOf('/') + 1));
+                }
+                return response;
+            }
+        });
+        mServer.start();
+        setNetworkType(ConnectivityManager.TYPE_WIFI);
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enablePrefetch(60000, 10);
+        mScheduler = okHttpUtils.getPrefetchScheduler();
+        mScheduler.clear();
+        mRateLimiter = okHttpUtils.enableRateLimit();
+        idle();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (EndpointRateLimiter.Rule rule : mRateLimiter.getRules()) {
+            mRateLimiter.removeRule(rule);
+        }
+        mServer.shutdown();
+    }
+
+    @Test
+    public void waitForParkedForegroundCall() throws Exception {
+        mRateLimiter.addRule(mServer.getHostName() + "/limited*", new TokenBucket(1, 1), EndpointRateLimiter.POLICY_QUEUE);
+        assertEquals("body of /limited", get("/limited").take());
+        // 第二个请求在限流中排队，Dispatcher 里没有请求，也不能预取
+        Result parked = get("/limited");
+        mScheduler.prefetch(mServer.url("/idle-a").toString(), 0, "idle");
+        for (int i = 0; i < 5; i++) {
+            idle();
+            Thread.sleep(50);
+        }
+        assertEquals(1, mScheduler.getPendingCount());
+        assertEquals("body of /limited", parked.take());
+        awaitPrefetched("idle", 1);
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void cancelOnInteractiveRequest() throws Exception {
+        mScheduler.prefetch(mServer.url("/slow").toString(), 0, "cancel");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mScheduler.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            idle();
+            Thread.sleep(20);
+        }
+        assertEquals(0, mScheduler.getPendingCount());
+        Thread.sleep(200);
+        // 前台请求打断正在进行的预取，预取重新排队
+        assertEquals("body of /fast", get("/fast").take());
+        Thread.sleep(200);
+        PrefetchScheduler.Stats stats = mScheduler.getStats("cancel");
+        assertNotNull(stats);
+        assertEquals(1, stats.getCancelCount());
+        assertEquals(0, stats.getPrefetchCount());
+        assertEquals(1, mScheduler.getPendingCount());
+        mScheduler.clear();
+    }
+
+    @Test
+    public void hitRate() throws Exception {
+        mScheduler.prefetch(mServer.url("/hit-a").toString(), 1, "hit");
+        mScheduler.prefetch(mServer.url("/hit-b").toString(), 0, "hit");
+        awaitPrefetched("hit", 2);
+        int requestCount = mServer.getRequestCount();
+        // 预取的结果只用一次
+        assertEquals("body of /hit-a", get("/hit-a").take());
+        assertEquals(requestCount, mServer.getRequestCount());
+        assertEquals("body of /hit-a", get("/hit-a").take());
+        assertEquals(requestCount + 1, mServer.getRequestCount());
+        PrefetchScheduler.Stats stats = mScheduler.getStats("hit");
+        assertEquals(2, stats.getPrefetchCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(0.5, stats.getHitRate(), 0.001);
+        assertNull(mScheduler.getStats("missing"));
+    }
+
+    @Test
+    public void honorCacheControl() throws Exception {
+        mScheduler.prefetch(mServer.url("/no-store").toString(), 3, "cache");
+        mScheduler.prefetch(mServer.url("/max-age/0").toString(), 2, "cache");
+        mScheduler.prefetch(mServer.url("/max-age/60").toString(), 1, "cache");
+        awaitPrefetched("cache", 1);
+        assertEquals(0, mScheduler.getPendingCount());
+        int requestCount = mServer.getRequestCount();
+        // 不能保存的响应重新请求
+        assertEquals("body of /no-store", get("/no-store").take());
+        assertEquals("body of /max-age/0", get("/max-age/0").take());
+        assertEquals(requestCount + 2, mServer.getRequestCount());
+        assertEquals("body of /max-age/60", get("/max-age/60").take());
+        assertEquals(requestCount + 2, mServer.getRequestCount());
+        assertEquals(1, mScheduler.getStats("cache").getHitCount());
+    }
+
+    @Test
+    public void waitForUnmeteredNetwork() throws Exception {
+        setNetworkType(ConnectivityManager.TYPE_MOBILE);
+        mScheduler.prefetch(mServer.url("/metered").toString(), 0, "metered");
+        shadowOf(Looper.getMainLooper()).idle();
+        // 计流量的网络检查一次后不再注册空闲回调
+        List<MessageQueue.IdleHandler> idleHandlers = idleHandlers();
+        assertEquals(1, idleHandlers.size());
+        assertFalse(idleHandlers.get(0).queueIdle());
+        assertEquals(1, mScheduler.getPendingCount());
+
+        // 网络变化时重新注册
+        setNetworkType(ConnectivityManager.TYPE_WIFI);
+        mScheduler.onNetChanged(true);
+        awaitPrefetched("metered", 1);
+    }
+
+    private static void setNetworkType(int type) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) RuntimeEnvironment.application
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        shadowOf(connectivityManager).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                type, 0, true, NetworkInfo.State.CONNECTED));
+    }
+
+    private void awaitPrefetched(String group, long count) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            idle();
+            PrefetchScheduler.Stats stats = mScheduler.getStats(group);
+            if (stats != null && stats.getPrefetchCount() >= count) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("prefetch timeout");
+    }
+
+    /**
+     * 执行主线程的消息后模拟进入空闲，Robolectric 的 idle() 不会调用 IdleHandler，返回 false 的 IdleHandler 和系统一样移除
+     * 每个测试之间主线程的 IdleHandler 会被清空，而 OkHttpUtils 是单例，预取的调度器只有一个，所以记下注册过的
+     */
+    private static void idle() throws Exception {
+        shadowOf(Looper.getMainLooper()).idle();
+        List<MessageQueue.IdleHandler> idleHandlers = idleHandlers();
+        if (idleHandlers.isEmpty()) {
+            idleHandlers = sIdleHandlers;
+        } else {
+            sIdleHandlers = idleHandlers;
+        }
+        for (MessageQueue.IdleHandler idleHandler : idleHandlers) {
+            if (!idleHandler.queueIdle()) {
+                Looper.getMainLooper().getQueue().removeIdleHandler(idleHandler);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<MessageQueue.IdleHandler> idleHandlers() throws Exception {
+        Field field = MessageQueue.class.getDeclaredField("mIdleHandlers");
+        field.setAccessible(true);
+        MessageQueue queue = Looper.getMainLooper().getQueue();
+        synchronized (queue) {
+            return new ArrayList<>((List<MessageQueue.IdleHandler>) field.get(queue));
+        }
+    }
+
+    private Result get(String path) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.RecordReplayInterceptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.BufferedSink;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 录制和回放，先从 MockWebServer 录制，关闭服务端后回放
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class RecordReplayTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long LATENCY_MS = 300;
+    private MockWebServer mServer;
+    private File mDir;
+    private String mBaseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("replay", "dir");
+        mDir.delete();
+        mServer = new MockWebServer();
+        mServer.start();
+        mBaseUrl = mServer.url("/").toString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void replayInOrderWithTiming() throws Exception {
+        mServer.enqueue(newResponse("first"));
+        mServer.enqueue(newResponse("second"));
+        mServer.enqueue(newResponse("other"));
+        RecordReplayInterceptor recorder = init(RecordReplayInterceptor.MODE_RECORD, 1);
+        recorder.ignoreQueryParameters("ts");
+        assertEquals("first", get("list?b=2&a=1&ts=1"));
+        assertEquals("second", get("list?a=1&b=2&ts=2"));
+        assertEquals("other", get("list?a=1&b=3"));
+        assertEquals(3, recorder.getRecordCount());
+        mServer.shutdown();
+
+        RecordReplayInterceptor player = init(RecordReplayInterceptor.MODE_REPLAY, 1);
+        player.ignoreQueryParameters("ts");
+        long startNanos = System.nanoTime();
+        assertEquals("first", get("list?a=1&b=2&ts=3"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= LATENCY_MS);
+        assertEquals("second", get("list?a=1&b=2"));
+        // 录制的响应用完后一直返回最后一次
+        assertEquals("second", get("list?a=1&b=2"));
+        assertEquals("other", get("list?b=3&a=1"));
+        assertEquals(4, player.getReplayCount());
+        assertEquals(0, player.getMissCount());
+    }
+
+    @Test
+    public void replayWithoutDelayAndMiss() throws Exception {
+        mServer.enqueue(newResponse("body"));
+        init(RecordReplayInterceptor.MODE_RECORD, 1);
+        assertEquals("body", get("item"));
+        mServer.shutdown();
+
+        RecordReplayInterceptor player = init(RecordReplayInterceptor.MODE_REPLAY, 0);
+        long startNanos = System.nanoTime();
+        assertEquals("body", get("item"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis < LATENCY_MS);
+        assertEquals(null, get("missing"));
+        assertTrue(player.getMissCount() > 0);
+    }
+
+    @Test
+    public void rerecordReplacesOldResponses() throws Exception {
+        mServer.enqueue(newResponse("old1"));
+        mServer.enqueue(newResponse("old2"));
+        mServer.enqueue(newResponse("new"));
+        init(RecordReplayInterceptor.MODE_RECORD, 0);
+        assertEquals("old1", get("item"));
+        assertEquals("old2", get("item"));
+        // 重新录制只录了一次，上次录制的第二个响应不能混进回放
+        init(RecordReplayInterceptor.MODE_RECORD, 0);
+        assertEquals("new", get("item"));
+        mServer.shutdown();
+
+        init(RecordReplayInterceptor.MODE_REPLAY, 0);
+        assertEquals("new", get("item"));
+        assertEquals("new", get("item"));
+    }
+
+    @Test
+    public void replayMultipartUpload() throws Exception {
+        File file = new File(mDir.getParentFile(), mDir.getName() + ".jpg");
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            sink.writeUtf8("image");
+        }
+        try {
+            mServer.enqueue(newResponse("uploaded"));
+            init(RecordReplayInterceptor.MODE_RECORD, 0);
+            assertEquals("uploaded", upload(file));
+            mServer.shutdown();
+
+            // 分隔符和文件名里的时间戳不同，仍然能回放
+            RecordReplayInterceptor player = init(RecordReplayInterceptor.MODE_REPLAY, 0);
+            Thread.sleep(5);
+            assertEquals("uploaded", upload(file));
+            assertEquals(1, player.getReplayCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private RecordReplayInterceptor init(int mode, double timeScale) {
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enableRecordReplay(mode, mDir, timeScale);
+        return okHttpUtils.getRecordReplayInterceptor();
+    }
+
+    private String upload(File file) throws InterruptedException {
+        final BlockingQueue<String[]> results = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String result) {
+                results.add(new String[]{result});
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                results.add(new String[]{null});
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().uploadFile(mBaseUrl + "upload", "file", file, Collections.singletonMap("id", "1"), callback);
+        String[] result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        return result[0];
+    }
+
+    private MockResponse newResponse(String body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "text/plain")
+                .setBody(body)
+                .setHeadersDelay(LATENCY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 同步等待结果，失败返回 null
+     */
+    private String get(String path) throws InterruptedException {
+        final BlockingQueue<String[]> results = new LinkedBlockingQueue<>();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String result) {
+                results.add(new String[]{result});
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                results.add(new String[]{null});
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mBaseUrl + path, callback);
+        String[] result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result);
+        return result[0];
+    }
+}
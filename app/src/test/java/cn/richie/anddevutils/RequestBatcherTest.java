@@ -0,0 +1,126 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.RequestBatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 批量发送，条数达到上限立即发送、等待超时发送、响应数量不匹配时全部失败
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class RequestBatcherTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        // 批次内部的回调使用全局的回调线程
+        okHttpUtils.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        OkHttpUtils.getInstance().setCallbackExecutor(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void flushOnSize() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(mServer.url("/batch").toString(), 3, 10000);
+        mServer.enqueue(new MockResponse().setBody("[\"r1\",{\"k\":1},2]"));
+        Result result = new Result();
+        batcher.postJson("{\"a\":1}", result.callback());
+        batcher.postJson("{\"b\":2}", result.callback());
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+        batcher.postJson("\"x\"", result.callback());
+
+        RecordedRequest request = mServer.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("[{\"a\":1},{\"b\":2},\"x\"]", request.getBody().readUtf8());
+        // 按顺序分别回调，字符串回调字符串的值
+        assertEquals("r1", result.take());
+        assertEquals("{\"k\":1}", result.take());
+        assertEquals("2", result.take());
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(1, batcher.getSizeFlushCount());
+        assertEquals(3.0, batcher.getAverageBatchSize(), 0.001);
+    }
+
+    @Test
+    public void flushOnDelay() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(mServer.url("/batch").toString(), 10, 100);
+        mServer.enqueue(new MockResponse().setBody("[1,2]"));
+        Result result = new Result();
+        batcher.postJson("1", result.callback());
+        batcher.postJson("2", result.callback());
+        RecordedRequest request = mServer.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("[1,2]", request.getBody().readUtf8());
+        assertEquals("1", result.take());
+        assertEquals("2", result.take());
+        assertEquals(0, batcher.getSizeFlushCount());
+        assertEquals(2, batcher.getItemCount());
+    }
+
+    @Test
+    public void failAllOnSizeMismatch() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(mServer.url("/batch").toString(), 10, 10000);
+        mServer.enqueue(new MockResponse().setBody("[1]"));
+        Result result = new Result();
+        batcher.postJson("1", result.callback());
+        batcher.postJson("2", result.callback());
+        batcher.flush();
+        assertEquals("批量响应数量不匹配", result.take());
+        assertEquals("批量响应数量不匹配", result.take());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        OkHttpUtils.OkHttpCallback<String> callback() {
+            return new OkHttpUtils.OkHttpCallback<String>() {
+                @Override
+                protected void onSuccess(String body) {
+                    mQueue.add(body);
+                }
+
+                @Override
+                protected void onFailure(String errorMsg) {
+                    mQueue.add(errorMsg);
+                }
+            };
+        }
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
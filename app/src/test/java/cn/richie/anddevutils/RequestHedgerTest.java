@@ -0,0 +1,149 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.RequestHedger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 请求对冲，固定阈值 100 毫秒，每个请求积累 0.1 个对冲额度
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class RequestHedgerTest {
+    private static final long TIMEOUT_SECONDS = 20;
+    private static final long THRESHOLD_MILLIS = 100;
+    private static final double BUDGET_RATIO = 0.1;
+    private MockWebServer mServer;
+    private RequestHedger mHedger;
+
+    @Before
+    public void setUp() throws IOException {
+        final AtomicInteger raceCount = new AtomicInteger();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                MockResponse response = new MockResponse().setBody(path);
+                if (path.startsWith("/race") && raceCount.getAndIncrement() == 0) {
+                    // 第一个请求很慢，对冲请求正常返回
+                    response.setHeadersDelay(3000, TimeUnit.MILLISECONDS);
+                } else if (path.startsWith("/slow")) {
+                    response.setHeadersDelay(300, TimeUnit.MILLISECONDS);
+                }
+                return response;
+            }
+        });
+        mServer.start();
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        okHttpUtils.init(RuntimeEnvironment.application, false);
+        okHttpUtils.enableRequestHedging(THRESHOLD_MILLIS, BUDGET_RATIO);
+        mHedger = okHttpUtils.getRequestHedger();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void hedgeWinsAgainstSlowPrimary() throws Exception {
+        for (int i = 0; i < 1 / BUDGET_RATIO; i++) {
+            get("/warm").take();
+        }
+        long hedgeWinCount = mHedger.getHedgeWinCount();
+        long startNanos = System.nanoTime();
+        assertEquals("/race", get("/race").take());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis < 2000);
+        assertEquals(1, mHedger.getHedgeWinCount() - hedgeWinCount);
+    }
+
+    @Test
+    public void budgetIsCapped() throws Exception {
+        // 正常时积累的额度有上限，不会按历史请求总数的比例计算
+        for (int i = 0; i < 200; i++) {
+            get("/warm").take();
+        }
+        long hedgeCount = mHedger.getHedgeCount();
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(get("/slow"));
+        }
+        for (Result result : results) {
+            assertEquals("/slow", result.take());
+        }
+        long hedged = mHedger.getHedgeCount() - hedgeCount;
+        // 最多 10 个积累的额度加上这 20 个请求积累的 2 个
+        assertTrue("hedged " + hedged, hedged > 0 && hedged <= 12);
+    }
+
+    @Test
+    public void samplesBounded() throws Exception {
+        // 路径里带 id 的接口每个 url 单独统计，只保留最近使用的接口
+        for (int i = 0; i < 150; i++) {
+            get("/item/" + i).take();
+        }
+        Field field = RequestHedger.class.getDeclaredField("mSamples");
+        field.setAccessible(true);
+        Map<?, ?> samples = (Map<?, ?>) field.get(mHedger);
+        synchronized (samples) {
+            assertTrue("size " + samples.size(), samples.size() <= 100);
+            assertTrue(samples.containsKey(mServer.getHostName() + "/item/149"));
+        }
+    }
+
+    private Result get(String path) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<String> callback = new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().getAsString(mServer.url(path).toString(), callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
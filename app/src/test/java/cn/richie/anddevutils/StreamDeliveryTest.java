@@ -0,0 +1,144 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 流式响应的分批回调，JSON 数组、NDJSON 和空响应
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class StreamDeliveryTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private MockWebServer mServer;
+    private ExecutorService mCallbackExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mCallbackExecutor = Executors.newSingleThreadExecutor();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mCallbackExecutor.shutdownNow();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void emptyStream() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(""));
+        Result result = get(10, 0);
+        assertEquals("0", result.take());
+        assertTrue(result.mItems.isEmpty());
+    }
+
+    @Test
+    public void ndjsonInOrder() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"id\":1}\n{\"id\":2}\n{\"id\":3}\n"));
+        Result result = get(10, 0);
+        assertEquals("3", result.take());
+        assertEquals(3, result.mItems.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, result.mItems.get(i).id);
+        }
+    }
+
+    @Test
+    public void batchWhileCallbackBusy() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append('}');
+        }
+        mServer.enqueue(new MockResponse().setBody(body.append(']').toString()));
+        // 回调慢，解析出来的数据攒成批，每批不超过 batchSize
+        Result result = get(8, 5);
+        assertEquals("100", result.take());
+        assertEquals(100, result.mItems.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, result.mItems.get(i).id);
+        }
+        assertTrue(result.mBatchSizes.size() < 100);
+        for (int size : result.mBatchSizes) {
+            assertTrue("batch " + size, size > 0 && size <= 8);
+        }
+    }
+
+    @Test
+    public void parseFailure() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"id\":1}\n{\"id\":"));
+        assertEquals("数据解析失败", get(10, 0).take());
+    }
+
+    private Result get(int batchSize, final long delayMillis) {
+        final Result result = new Result();
+        OkHttpUtils.StreamOkHttpCallback<Item> callback = new OkHttpUtils.StreamOkHttpCallback<Item>() {
+            @Override
+            protected void onItems(List<Item> items) {
+                result.mBatchSizes.add(items.size());
+                result.mItems.addAll(items);
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            protected void onSuccess(Integer count) {
+                result.mQueue.add(String.valueOf(count));
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(mCallbackExecutor);
+        OkHttpUtils.getInstance().getAsStream(mServer.url("/stream").toString(), batchSize, callback);
+        return result;
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+        private final List<Item> mItems = new ArrayList<>();
+        private final List<Integer> mBatchSizes = new ArrayList<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+
+    private static class Item {
+        private int id;
+    }
+}
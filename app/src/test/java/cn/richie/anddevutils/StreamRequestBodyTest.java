@@ -0,0 +1,152 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从数据源直接上传，长度已知和未知，上传前失败时关闭数据源
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class StreamRequestBodyTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int SIZE = 100 * 1024;
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void uploadWithLength() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        ClosingSource source = new ClosingSource(newData());
+        Result result = upload(source, SIZE);
+        assertEquals("ok", result.take());
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals(String.valueOf(SIZE), request.getHeader("Content-Length"));
+        assertEquals(SIZE, request.getBodySize());
+        assertTrue(source.mClosed.get());
+        // 最后一次进度是总长度
+        assertEquals(Long.valueOf(SIZE), result.mProgress.get(result.mProgress.size() - 1));
+    }
+
+    @Test
+    public void uploadChunked() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        ClosingSource source = new ClosingSource(newData());
+        Result result = upload(source, -1);
+        assertEquals("ok", result.take());
+        RecordedRequest request = mServer.takeRequest();
+        assertNull(request.getHeader("Content-Length"));
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        assertEquals(SIZE, request.getBodySize());
+        assertTrue(source.mClosed.get());
+    }
+
+    @Test
+    public void closeWhenFailBeforeWrite() throws Exception {
+        String url = mServer.url("/upload").toString();
+        mServer.shutdown();
+        ClosingSource source = new ClosingSource(newData());
+        Result result = upload(url, source, SIZE);
+        result.take();
+        // 连接失败，writeTo 没有执行，数据源也要关闭
+        assertTrue(source.mClosed.get());
+    }
+
+    private Buffer newData() {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < SIZE; i++) {
+            buffer.writeByte(i);
+        }
+        return buffer;
+    }
+
+    private Result upload(Source source, long contentLength) {
+        return upload(mServer.url("/upload").toString(), source, contentLength);
+    }
+
+    private Result upload(String url, Source source, long contentLength) {
+        final Result result = new Result();
+        OkHttpUtils.UploadProgressOkHttpCallback callback = new OkHttpUtils.UploadProgressOkHttpCallback() {
+            @Override
+            protected void onProgress(long current, long total) {
+                result.mProgress.add(current);
+            }
+
+            @Override
+            protected void onSuccess(String body) {
+                result.mQueue.add(body);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        OkHttpUtils.getInstance().uploadStream(url, source, contentLength, callback);
+        return result;
+    }
+
+    private static final class ClosingSource extends ForwardingSource {
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+
+        ClosingSource(Source delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mClosed.set(true);
+            super.close();
+        }
+    }
+
+    private static final class Result {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<>();
+        private final List<Long> mProgress = new ArrayList<>();
+
+        String take() throws InterruptedException {
+            String value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+    }
+}
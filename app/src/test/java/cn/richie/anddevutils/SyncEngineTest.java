@@ -0,0 +1,182 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.greendao.User;
+import com.richie.utils.greendao.generated.DaoMaster;
+import com.richie.utils.greendao.generated.DaoSession;
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.SyncEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * 增量同步，分页、令牌不前进时停止、失败时回滚、取消
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class SyncEngineTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private MockWebServer mServer;
+    private DaoSession mDaoSession;
+    private SyncEngine mSyncEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String since = request.getRequestUrl().queryParameter(SyncEngine.PARAM_SINCE);
+                String path = request.getRequestUrl().encodedPath();
+                if (path.equals("/repeat")) {
+                    // 令牌一直不变，hasMore 一直为 true
+                    return page("[]", "[]", "same", true);
+                }
+                if (path.equals("/slow")) {
+                    return page("[]", "[]", "t1", false).setHeadersDelay(3000, TimeUnit.MILLISECONDS);
+                }
+                if (since == null) {
+                    return page("[" + user(1, "a") + "," + user(2, "b") + "]", "[]", "t1", true);
+                }
+                if (since.equals("t1")) {
+                    return page("[" + user(3, "c") + "]", "[1]", "t2", false);
+                }
+                // 写入一条后响应中断
+                return new MockResponse().setBody("{\"changed\":[" + user(4, "d") + ",{\"id\":");
+            }
+        });
+        mServer.start();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+        mDaoSession = DaoMaster.newDevSession(RuntimeEnvironment.application, null);
+        mSyncEngine = new SyncEngine(RuntimeEnvironment.application, mDaoSession);
+        mSyncEngine.register("users", mServer.url("/users").toString(), User.class, Long.class);
+        mSyncEngine.register("repeat", mServer.url("/repeat").toString(), User.class, Long.class);
+        mSyncEngine.register("slow", mServer.url("/slow").toString(), User.class, Long.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        mDaoSession.getDatabase().close();
+    }
+
+    @Test
+    public void syncPages() throws Exception {
+        SyncEngine.Result result = sync("users").takeResult();
+        assertEquals(2, result.getPageCount());
+        assertEquals(3, result.getChangedCount());
+        assertEquals(1, result.getDeletedCount());
+        assertEquals("t2", result.getSinceToken());
+        assertEquals("t2", mSyncEngine.getSinceToken("users"));
+        assertEquals(2, mDaoSession.getUserDao().count());
+        assertNull(mDaoSession.getUserDao().load(1L));
+        assertEquals("c", mDaoSession.getUserDao().load(3L).getName());
+    }
+
+    @Test
+    public void stopWhenTokenRepeats() throws Exception {
+        SyncEngine.Result result = sync("repeat").takeResult();
+        assertEquals(2, result.getPageCount());
+        assertEquals("same", mSyncEngine.getSinceToken("repeat"));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void rollbackOnBrokenPage() throws Exception {
+        sync("users").takeResult();
+        // t2 之后的页不完整，这一页写入的数据回滚，令牌不变
+        assertEquals("同步失败", sync("users").take());
+        assertEquals("t2", mSyncEngine.getSinceToken("users"));
+        assertEquals(2, mDaoSession.getUserDao().count());
+        assertNull(mDaoSession.getUserDao().load(4L));
+    }
+
+    @Test
+    public void cancelSync() throws Exception {
+        Result result = sync("slow");
+        Thread.sleep(200);
+        mSyncEngine.cancel("slow");
+        assertEquals("同步失败", result.take());
+        assertNull(mSyncEngine.getSinceToken("slow"));
+        // 上一次同步结束后才能再次同步
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return page("[]", "[]", "t1", false);
+            }
+        });
+        assertEquals("t1", sync("slow").takeResult().getSinceToken());
+    }
+
+    @Test
+    public void rejectInvalidUrl() {
+        // 地址不合法时注册失败，不会在同步时抛出异常
+        try {
+            mSyncEngine.register("invalid", "not a url", User.class, Long.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(mSyncEngine.getDao("invalid"));
+    }
+
+    private Result sync(String collection) {
+        final Result result = new Result();
+        OkHttpUtils.OkHttpCallback<SyncEngine.Result> callback = new OkHttpUtils.OkHttpCallback<SyncEngine.Result>() {
+            @Override
+            protected void onSuccess(SyncEngine.Result syncResult) {
+                result.mQueue.add(syncResult);
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                result.mQueue.add(errorMsg);
+            }
+        };
+        callback.setCallbackExecutor(OkHttpUtils.DIRECT_EXECUTOR);
+        mSyncEngine.sync(collection, callback);
+        return result;
+    }
+
+    private static MockResponse page(String changed, String deleted, String next, boolean hasMore) {
+        return new MockResponse().setBody("{\"changed\":" + changed + ",\"deleted\":" + deleted
+                + ",\"next\":\"" + next + "\",\"hasMore\":" + hasMore + "}");
+    }
+
+    private static String user(long id, String name) {
+        return "{\"id\":" + id + ",\"name\":\"" + name + "\",\"age\":20}";
+    }
+
+    private static final class Result {
+        private final BlockingQueue<Object> mQueue = new LinkedBlockingQueue<>();
+
+        Object take() throws InterruptedException {
+            Object value = mQueue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(value);
+            return value;
+        }
+
+        SyncEngine.Result takeResult() throws InterruptedException {
+            return (SyncEngine.Result) take();
+        }
+    }
+}
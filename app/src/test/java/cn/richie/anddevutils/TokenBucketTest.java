@@ -0,0 +1,65 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.TokenBucket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 令牌桶，初始是满的，不够时先欠着按返回的时间等待，速率可以随时修改
+ */
+public class TokenBucketTest {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    @Test
+    public void unlimited() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+        assertTrue(bucket.tryAcquire(1000000));
+        assertEquals(0, bucket.tryReserve(1000000, 0));
+    }
+
+    @Test
+    public void burstThenWait() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        assertTrue(bucket.tryAcquire(5));
+        // 一个令牌要 100 毫秒
+        assertFalse(bucket.tryAcquire(1));
+        // 欠 10 个令牌，要等大约 1 秒
+        long waitNanos = bucket.reserve(10);
+        assertTrue(String.valueOf(waitNanos), waitNanos > NANOS_PER_SECOND * 9 / 10 && waitNanos <= NANOS_PER_SECOND);
+        // 等待时间超过上限时不拿走令牌
+        assertEquals(-1, bucket.tryReserve(1, NANOS_PER_SECOND / 2));
+        long nextWait = bucket.reserve(1);
+        assertTrue(String.valueOf(nextWait), nextWait > waitNanos && nextWait <= NANOS_PER_SECOND * 11 / 10);
+    }
+
+    @Test
+    public void changeRate() {
+        // 默认最多积累 250 毫秒的量
+        TokenBucket bucket = new TokenBucket(1000);
+        assertTrue(bucket.tryAcquire(250));
+        assertFalse(bucket.tryAcquire(10));
+        bucket.setRate(0);
+        assertTrue(bucket.tryAcquire(10));
+        // 降低速率时积累的令牌不超过新的容量
+        bucket = new TokenBucket(1000);
+        bucket.setRate(100);
+        assertEquals(100, bucket.getRate());
+        assertTrue(bucket.tryAcquire(25));
+        assertFalse(bucket.tryAcquire(5));
+    }
+
+    @Test
+    public void acquireBlocks() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        bucket.acquire(1);
+        long start = System.nanoTime();
+        bucket.acquire(10);
+        long elapsed = System.nanoTime() - start;
+        assertTrue(String.valueOf(elapsed), elapsed >= NANOS_PER_SECOND / 10 * 9 / 10);
+    }
+}
@@ -0,0 +1,295 @@
+package cn.richie.anddevutils;
+
+import com.richie.utils.okhttp.OkHttpUtils;
+import com.richie.utils.okhttp.WebSocketClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WebSocket 长连接，MockWebServer 作为服务端，不需要外网
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class WebSocketClientTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private MockWebServer mServer;
+    private ExecutorService mExecutor;
+    private WebSocketClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mExecutor = Executors.newSingleThreadExecutor();
+        OkHttpUtils.getInstance().init(RuntimeEnvironment.application, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mClient != null) {
+            mClient.close();
+        }
+        mExecutor.shutdownNow();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void coalesceOutbound() throws Exception {
+        ServerSocket server = new ServerSocket();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        RecordingListener listener = new RecordingListener();
+        mClient = newClient(listener);
+        mClient.setFlushIntervalMillis(200);
+        mClient.connect();
+        assertTrue(listener.mOpened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        mClient.send("a");
+        mClient.send("progress", "1");
+        mClient.send("b");
+        mClient.send("progress", "2");
+        mClient.send("progress", "3");
+        assertEquals(Arrays.asList("a", "b", "3"), server.take(3));
+        assertEquals(3, mClient.getSentMessageCount());
+    }
+
+    @Test
+    public void reconnectAfterServerClose() throws Exception {
+        ServerSocket first = new ServerSocket();
+        ServerSocket second = new ServerSocket();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(first));
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(second));
+        RecordingListener listener = new RecordingListener();
+        mClient = newClient(listener);
+        mClient.setFlushIntervalMillis(0);
+        mClient.setReconnectBackoff(50, 200);
+        mClient.connect();
+        assertTrue(listener.mOpened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        first.awaitOpen().close(1001, "going away");
+        assertNotNull(listener.mDisconnects.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // 断开期间发送的消息在重连后发出
+        mClient.send("after reconnect");
+        assertEquals(Collections.singletonList("after reconnect"), second.take(1));
+        assertEquals(1, mClient.getReconnectCount());
+        assertEquals(WebSocketClient.STATE_OPEN, mClient.getState());
+    }
+
+    @Test
+    public void dropOldestWhenInboundFull() throws Exception {
+        ServerSocket server = new ServerSocket();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        RecordingListener listener = new RecordingListener();
+        listener.mGate = new CountDownLatch(1);
+        mClient = newClient(listener);
+        mClient.setInboundCapacity(10, WebSocketClient.OVERFLOW_DROP_OLDEST);
+        mClient.connect();
+        WebSocket webSocket = server.awaitOpen();
+        webSocket.send("0");
+        listener.awaitCount(1);
+        for (int i = 1; i < 100; i++) {
+            webSocket.send(String.valueOf(i));
+        }
+        webSocket.send("end");
+        waitForDropped(90);
+        listener.mGate.countDown();
+        assertEquals("end", listener.awaitLast());
+        List<String> messages = listener.messages();
+        // 第一条在回调里等待，之后的 100 条只保留最新的 10 条
+        assertEquals(11, messages.size());
+        assertEquals("0", messages.get(0));
+        assertEquals("91", messages.get(1));
+        assertEquals(90, mClient.getDroppedCount());
+    }
+
+    @Test
+    public void blockWhenInboundFull() throws Exception {
+        ServerSocket server = new ServerSocket();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        RecordingListener listener = new RecordingListener();
+        listener.mGate = new CountDownLatch(1);
+        mClient = newClient(listener);
+        mClient.setInboundCapacity(10, WebSocketClient.OVERFLOW_BLOCK);
+        mClient.connect();
+        WebSocket webSocket = server.awaitOpen();
+        // 每条 64KB，一共约 12MB，超过两端 socket 缓冲区，又没有超过 OkHttp 16MB 的发送队列上限
+        char[] padding = new char[64 * 1024];
+        Arrays.fill(padding, 'x');
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String message = i + ":" + new String(padding);
+            assertTrue(webSocket.send(message));
+            expected.add(message);
+        }
+        webSocket.send("end");
+        expected.add("end");
+        // 客户端停止读取后，服务端的数据发不出去，堆积在发送队列里
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        long queueSize = 0;
+        while (System.currentTimeMillis() < deadline) {
+            long size = webSocket.queueSize();
+            Thread.sleep(100);
+            if (size > 0 && webSocket.queueSize() == size) {
+                queueSize = size;
+                break;
+            }
+        }
+        assertTrue("server queue " + queueSize, queueSize > 0);
+        listener.mGate.countDown();
+        assertEquals("end", listener.awaitLast());
+        assertEquals(expected, listener.messages());
+        assertEquals(0, mClient.getDroppedCount());
+        assertEquals(0, webSocket.queueSize());
+    }
+
+    @Test
+    public void binaryMessage() throws Exception {
+        ServerSocket server = new ServerSocket();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        RecordingListener listener = new RecordingListener();
+        mClient = newClient(listener);
+        mClient.connect();
+        WebSocket webSocket = server.awaitOpen();
+        // 不是合法 UTF-8 的二进制数据原样回调，和文本消息保持顺序
+        ByteString bytes = ByteString.of((byte) 0xff, (byte) 0x00, (byte) 0xfe);
+        webSocket.send("text");
+        webSocket.send(bytes);
+        webSocket.send("end");
+        assertEquals("end", listener.awaitLast());
+        assertEquals(Arrays.asList("text", "binary:" + bytes.hex(), "end"), listener.messages());
+    }
+
+    private WebSocketClient newClient(RecordingListener listener) {
+        WebSocketClient client = OkHttpUtils.getInstance().newWebSocketClient(mServer.url("/ws").toString(), listener);
+        client.setCallbackExecutor(mExecutor);
+        return client;
+    }
+
+    private void waitForDropped(long dropped) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (mClient.getDroppedCount() < dropped && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class ServerSocket extends WebSocketListener {
+        private final BlockingQueue<String> mMessages = new LinkedBlockingQueue<>();
+        private final CountDownLatch mOpened = new CountDownLatch(1);
+        private volatile WebSocket mWebSocket;
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            mWebSocket = webSocket;
+            mOpened.countDown();
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            mMessages.add(text);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(code, null);
+        }
+
+        WebSocket awaitOpen() throws InterruptedException {
+            assertTrue(mOpened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return mWebSocket;
+        }
+
+        List<String> take(int count) throws InterruptedException {
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String message = mMessages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertNotNull(message);
+                messages.add(message);
+            }
+            return messages;
+        }
+    }
+
+    private static final class RecordingListener implements WebSocketClient.Listener {
+        private final CountDownLatch mOpened = new CountDownLatch(1);
+        private final BlockingQueue<String> mDisconnects = new LinkedBlockingQueue<>();
+        private final List<String> mMessages = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch mEnd = new CountDownLatch(1);
+        private volatile CountDownLatch mGate;
+
+        @Override
+        public void onOpen() {
+            mOpened.countDown();
+        }
+
+        @Override
+        public void onMessage(String text) {
+            mMessages.add(text);
+            CountDownLatch gate = mGate;
+            if (gate != null) {
+                try {
+                    gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ("end".equals(text)) {
+                mEnd.countDown();
+            }
+        }
+
+        @Override
+        public void onMessage(ByteString bytes) {
+            mMessages.add("binary:" + bytes.hex());
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            mDisconnects.add(reason);
+        }
+
+        void awaitCount(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            while (mMessages.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        String awaitLast() throws InterruptedException {
+            assertTrue(mEnd.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return mMessages.get(mMessages.size() - 1);
+        }
+
+        List<String> messages() {
+            synchronized (mMessages) {
+                return new ArrayList<>(mMessages);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.richie.utils.benchmark;
+
+import com.richie.utils.okhttp.GsonConverter;
+import com.richie.utils.okhttp.JsonArrayIterator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GsonConverter 解析和序列化的基准测试，按负载大小和数据形状组合
+ * 运行：./gradlew :benchmark:jmh，吞吐量看 Score，分配速率看 gc.alloc.rate.norm
+ *
+ * @author Richie on 2026.10.19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GsonConverterBenchmark {
+    /**
+     * 1 KB, 100 KB, 10 MB
+     */
+    @Param({"1024", "102400", "10485760"})
+    public int payloadBytes;
+    /**
+     * flat: 扁平对象数组，nested: 嵌套列表，map: 键值对数组
+     */
+    @Param({"flat", "nested", "map"})
+    public String shape;
+
+    private String mArrayJson;
+    private String mObjectJson;
+    private Class<?> mElementClass;
+    private Class<?> mPageClass;
+    private Object mPage;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(payloadBytes);
+        List<Object> elements = new ArrayList<>();
+        // 逐个生成，数组序列化后的长度是每个元素的长度加上括号和逗号，达到目标负载时停止，超出不到一个元素
+        int length = 1;
+        while (length < payloadBytes) {
+            Object element = newElement(random, elements.size());
+            elements.add(element);
+            length += GsonConverter.objectToJson(element).length() + 1;
+        }
+        String arrayJson = GsonConverter.objectToJson(elements);
+
+        switch (shape) {
+            case "flat":
+                mElementClass = FlatBean.class;
+                mPageClass = FlatPage.class;
+                break;
+            case "nested":
+                mElementClass = NestedBean.class;
+                mPageClass = NestedPage.class;
+                break;
+            case "map":
+                mElementClass = Map.class;
+                mPageClass = MapPage.class;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+        mArrayJson = arrayJson;
+        mObjectJson = "{\"total\":" + elements.size() + ",\"data\":" + arrayJson + "}";
+        mPage = GsonConverter.jsonToBean(mObjectJson, mPageClass);
+    }
+
+    @Benchmark
+    public Object jsonToBean() {
+        return GsonConverter.jsonToBean(mObjectJson, mPageClass);
+    }
+
+    @Benchmark
+    public Object jsonToList() {
+        return GsonConverter.jsonToList(mArrayJson, mElementClass);
+    }
+
+    @Benchmark
+    public Object jsonToMap() {
+        return GsonConverter.jsonToMap(mObjectJson);
+    }
+
+    @Benchmark
+    public void jsonToIterator(Blackhole blackhole) {
+        JsonArrayIterator<?> iterator = GsonConverter.jsonToIterator(new StringReader(mArrayJson), mElementClass);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public String objectToJson() {
+        return GsonConverter.objectToJson(mPage);
+    }
+
+    private Object newElement(Random random, int index) {
+        switch (shape) {
+            case "nested":
+                NestedBean nestedBean = new NestedBean();
+                nestedBean.id = index;
+                nestedBean.title = "title-" + random.nextInt(100000);
+                nestedBean.tags = Arrays.asList("tag" + random.nextInt(10), "tag" + random.nextInt(10));
+                nestedBean.items = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    nestedBean.items.add(newFlatBean(random, i));
+                }
+                return nestedBean;
+            case "map":
+                Map<String, Object> map = new LinkedHashMap<>();
+                map.put("id", index);
+                map.put("key", "key-" + random.nextInt(100000));
+                map.put("value", random.nextDouble());
+                map.put("enabled", random.nextBoolean());
+                map.put("extra", newFlatBean(random, index));
+                return map;
+            default:
+                return newFlatBean(random, index);
+        }
+    }
+
+    private static FlatBean newFlatBean(Random random, int index) {
+        FlatBean flatBean = new FlatBean();
+        flatBean.id = index;
+        flatBean.name = "user-" + random.nextInt(100000);
+        flatBean.email = flatBean.name + "@example.com";
+        flatBean.age = random.nextInt(100);
+        flatBean.score = random.nextDouble() * 100;
+        flatBean.active = random.nextBoolean();
+        return flatBean;
+    }
+
+    public static class FlatBean {
+        long id;
+        String name;
+        String email;
+        int age;
+        double score;
+        boolean active;
+    }
+
+    public static class NestedBean {
+        long id;
+        String title;
+        List<String> tags;
+        List<FlatBean> items;
+    }
+
+    public static class FlatPage {
+        int total;
+        List<FlatBean> data;
+    }
+
+    public static class NestedPage {
+        int total;
+        List<NestedBean> data;
+    }
+
+    public static class MapPage {
+        int total;
+        List<Map<String, Object>> data;
+    }
+}
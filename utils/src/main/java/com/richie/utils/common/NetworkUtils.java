@@ -29,6 +29,20 @@ public final class NetworkUtils {
         return false;
     }
 
+    /**
+     * 判断当前网络是否不按流量计费，例如 Wi-Fi，需要添加权限 ACCESS_NETWORK_STATE
+     *
+     * @return unmetered
+     */
+    public static boolean isUnmetered(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+            return activeNetworkInfo != null && activeNetworkInfo.isConnected() && !connectivityManager.isActiveNetworkMetered();
+        }
+        return false;
+    }
+
     /**
      * 判wifi连接是否可用
      */
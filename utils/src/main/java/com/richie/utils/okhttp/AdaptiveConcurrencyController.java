@@ -0,0 +1,203 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * 自适应并发控制，根据请求延迟和错误调整 Dispatcher 的并发数，参考 Netflix concurrency-limits 的 Gradient 算法
+ * 短期平均延迟明显高于最小延迟时降低并发，延迟稳定且并发用满时逐步提高，请求出错时乘性减少
+ * 最小延迟按窗口统计，每 {@link #MIN_RTT_WINDOW} 个样本更新一次，避免网络变化后一直用旧的基准
+ * 控制的是 maxRequestsPerHost，maxRequests 按 {@link #MAX_REQUESTS_FACTOR} 倍同步调整
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class AdaptiveConcurrencyController implements Interceptor {
+    private static final int MAX_REQUESTS_FACTOR = 4;
+    private static final int MAX_HISTORY_SIZE = 100;
+    private static final int SHORT_WINDOW = 10;
+    private static final int MIN_RTT_WINDOW = 500;
+    private static final double RTT_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double SMOOTHING = 0.2;
+    private final Dispatcher mDispatcher;
+    private final int mMinLimit;
+    private final int mMaxLimit;
+    private final AtomicInteger mInflight = new AtomicInteger();
+    private final LinkedList<LimitRecord> mHistory = new LinkedList<>();
+    private double mLimit;
+    private double mShortRtt;
+    private long mMinRtt;
+    private long mWindowMinRtt;
+    private int mWindowSamples;
+    private int mAppliedLimit;
+
+    AdaptiveConcurrencyController(@NonNull Dispatcher dispatcher, int minLimit, int maxLimit, String networkType) {
+        mDispatcher = dispatcher;
+        mMinLimit = Math.max(1, minLimit);
+        mMaxLimit = Math.max(mMinLimit, maxLimit);
+        reset(networkType);
+    }
+
+    /**
+     * 网络类型对应的初始并发数
+     *
+     * @param networkType {@link com.richie.utils.common.NetworkUtils#getNetworkType}
+     * @return
+     */
+    private static int initialLimit(String networkType) {
+        if ("wifi".equals(networkType) || "ethernet".equals(networkType)) {
+            return 8;
+        } else if ("mobile".equals(networkType)) {
+            return 3;
+        } else {
+            // OkHttp 默认值
+            return 5;
+        }
+    }
+
+    /**
+     * 网络切换后重新开始，延迟统计全部丢弃
+     *
+     * @param networkType {@link com.richie.utils.common.NetworkUtils#getNetworkType}
+     */
+    public synchronized void reset(String networkType) {
+        mLimit = clamp(initialLimit(networkType));
+        mShortRtt = 0;
+        mMinRtt = Long.MAX_VALUE;
+        mWindowMinRtt = Long.MAX_VALUE;
+        mWindowSamples = 0;
+        applyLimit();
+    }
+
+    /**
+     * 当前并发数，即每个主机的最大请求数
+     *
+     * @return
+     */
+    public synchronized int getLimit() {
+        return mAppliedLimit;
+    }
+
+    /**
+     * 正在执行的请求数
+     *
+     * @return
+     */
+    public int getInflight() {
+        return mInflight.get();
+    }
+
+    /**
+     * 并发数变化记录，最多保留 {@link #MAX_HISTORY_SIZE} 条
+     *
+     * @return
+     */
+    public synchronized List<LimitRecord> getHistory() {
+        return new ArrayList<>(mHistory);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        int inflight = mInflight.incrementAndGet();
+        long startNanos = System.nanoTime();
+        boolean dropped = false;
+        try {
+            Response response = chain.proceed(chain.request());
+            int code = response.code();
+            dropped = code == 429 || code >= 500;
+            return response;
+        } catch (IOException e) {
+            // 主动取消的请求不算错误
+            dropped = !chain.call().isCanceled();
+            throw e;
+        } finally {
+            mInflight.decrementAndGet();
+            onSample(System.nanoTime() - startNanos, inflight, dropped);
+        }
+    }
+
+    private synchronized void onSample(long rttNanos, int inflight, boolean dropped) {
+        if (dropped) {
+            mLimit = clamp(mLimit * BACKOFF_RATIO);
+            applyLimit();
+            return;
+        }
+        if (mShortRtt == 0) {
+            mShortRtt = rttNanos;
+        } else {
+            mShortRtt += (rttNanos - mShortRtt) * 2 / (SHORT_WINDOW + 1);
+        }
+        mMinRtt = Math.min(mMinRtt, rttNanos);
+        mWindowMinRtt = Math.min(mWindowMinRtt, rttNanos);
+        if (++mWindowSamples >= MIN_RTT_WINDOW) {
+            mMinRtt = mWindowMinRtt;
+            mWindowMinRtt = Long.MAX_VALUE;
+            mWindowSamples = 0;
+        }
+        // 并发没有用到一半，说明不是瓶颈，延迟数据不能说明问题
+        if (inflight * 2 < mLimit) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * mMinRtt / mShortRtt));
+        double newLimit = mLimit * gradient + Math.sqrt(mLimit);
+        mLimit = clamp(mLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        applyLimit();
+    }
+
+    private double clamp(double limit) {
+        return Math.max(mMinLimit, Math.min(mMaxLimit, limit));
+    }
+
+    private void applyLimit() {
+        int limit = (int) Math.round(mLimit);
+        if (limit == mAppliedLimit) {
+            return;
+        }
+        mAppliedLimit = limit;
+        mDispatcher.setMaxRequestsPerHost(limit);
+        mDispatcher.setMaxRequests(limit * MAX_REQUESTS_FACTOR);
+        mHistory.addLast(new LimitRecord(System.currentTimeMillis(), limit));
+        if (mHistory.size() > MAX_HISTORY_SIZE) {
+            mHistory.removeFirst();
+        }
+        OkLogger.d("concurrency limit: " + limit);
+    }
+
+    /**
+     * 并发数的变化记录
+     */
+    public static final class LimitRecord {
+        private final long mTimeMillis;
+        private final int mLimit;
+
+        LimitRecord(long timeMillis, int limit) {
+            mTimeMillis = timeMillis;
+            mLimit = limit;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public int getLimit() {
+            return mLimit;
+        }
+
+        @Override
+        public String toString() {
+            return "LimitRecord{" +
+                    "timeMillis=" + mTimeMillis +
+                    ", limit=" + mLimit +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 按接口设置超时，代替所有请求共用的固定超时
+ * 有显式规则的接口使用规则里的超时，其他接口按最近 {@link #SAMPLE_SIZE} 次延迟的 p99 乘以系数，限制在下限和上限之间
+ * 样本不够时使用 client 的默认超时；超时的请求按已经等待的时间记为样本，慢接口的超时会逐步放宽
+ * 学到的超时用于连接和读取，写入超时只由显式规则修改
+ * 最多统计最近使用的 {@link #MAX_ENDPOINTS} 个接口
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class AdaptiveTimeoutInterceptor implements Interceptor {
+    private static final int SAMPLE_SIZE = 200;
+    private static final int MIN_SAMPLES = 50;
+    private static final double PERCENTILE = 0.99;
+    /**
+     * 最多统计的接口数，路径里带 id 的接口每个 url 都算一个接口
+     */
+    private static final int MAX_ENDPOINTS = 100;
+    private final double mFactor;
+    private final long mFloorMillis;
+    private final long mCeilingMillis;
+    private final CopyOnWriteArrayList<Policy> mPolicies = new CopyOnWriteArrayList<>();
+    private final Map<String, LatencySamples> mSamples = LatencySamples.newEndpointMap(MAX_ENDPOINTS);
+
+    /**
+     * @param factor        p99 的倍数，例如 3
+     * @param floorMillis   学到的超时下限
+     * @param ceilingMillis 学到的超时上限
+     */
+    AdaptiveTimeoutInterceptor(double factor, long floorMillis, long ceilingMillis) {
+        mFactor = factor;
+        mFloorMillis = floorMillis;
+        mCeilingMillis = Math.max(floorMillis, ceilingMillis);
+    }
+
+    /**
+     * 为接口设置固定超时，例如导出这类慢接口，先添加的规则优先，同一个 pattern 再次设置时替换原来的超时
+     *
+     * @param pattern       主机名，例如 api.example.com；主机名加路径，例如 api.example.com/v1/export；以 * 结尾时按前缀匹配
+     * @param connectMillis 小于等于 0 时不修改
+     * @param readMillis    小于等于 0 时不修改
+     * @param writeMillis   小于等于 0 时不修改
+     */
+    public synchronized void setPolicy(@NonNull String pattern, long connectMillis, long readMillis, long writeMillis) {
+        Policy policy = new Policy(pattern, connectMillis, readMillis, writeMillis);
+        for (int i = 0; i < mPolicies.size(); i++) {
+            if (mPolicies.get(i).mPattern.equals(pattern)) {
+                mPolicies.set(i, policy);
+                return;
+            }
+        }
+        mPolicies.add(policy);
+    }
+
+    public void clearPolicies() {
+        mPolicies.clear();
+    }
+
+    /**
+     * 接口当前学到的超时
+     *
+     * @param request
+     * @return 毫秒，样本不够时返回 -1
+     */
+    public long getLearnedTimeoutMillis(@NonNull Request request) {
+        LatencySamples samples;
+        synchronized (mSamples) {
+            samples = mSamples.get(HttpUtils.getEndpoint(request.url()));
+        }
+        long p99 = samples != null ? samples.percentile(PERCENTILE) : -1;
+        if (p99 < 0) {
+            return -1;
+        }
+        return Math.max(mFloorMillis, Math.min(mCeilingMillis, (long) (p99 * mFactor)));
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Policy policy = findPolicy(request);
+        if (policy != null) {
+            return chain.withConnectTimeout(policy.connectMillis(chain.connectTimeoutMillis()), TimeUnit.MILLISECONDS)
+                    .withReadTimeout(policy.readMillis(chain.readTimeoutMillis()), TimeUnit.MILLISECONDS)
+                    .withWriteTimeout(policy.writeMillis(chain.writeTimeoutMillis()), TimeUnit.MILLISECONDS)
+                    .proceed(request);
+        }
+        long timeoutMillis = getLearnedTimeoutMillis(request);
+        Chain timeoutChain = chain;
+        if (timeoutMillis > 0) {
+            timeoutChain = chain.withConnectTimeout((int) Math.min(timeoutMillis, chain.connectTimeoutMillis()), TimeUnit.MILLISECONDS)
+                    .withReadTimeout((int) timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        long startNanos = System.nanoTime();
+        try {
+            Response response = timeoutChain.proceed(request);
+            record(request, startNanos);
+            return response;
+        } catch (SocketTimeoutException e) {
+            record(request, startNanos);
+            throw e;
+        }
+    }
+
+    private Policy findPolicy(Request request) {
+        for (Policy policy : mPolicies) {
+            if (HttpUtils.matchesEndpoint(policy.mPattern, request.url())) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    private void record(Request request, long startNanos) {
+        String endpoint = HttpUtils.getEndpoint(request.url());
+        LatencySamples samples;
+        synchronized (mSamples) {
+            samples = mSamples.get(endpoint);
+            if (samples == null) {
+                samples = new LatencySamples(SAMPLE_SIZE, MIN_SAMPLES);
+                mSamples.put(endpoint, samples);
+            }
+        }
+        samples.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private static final class Policy {
+        private final String mPattern;
+        private final long mConnectMillis;
+        private final long mReadMillis;
+        private final long mWriteMillis;
+
+        Policy(String pattern, long connectMillis, long readMillis, long writeMillis) {
+            mPattern = pattern;
+            mConnectMillis = connectMillis;
+            mReadMillis = readMillis;
+            mWriteMillis = writeMillis;
+        }
+
+        int connectMillis(int defaultMillis) {
+            return mConnectMillis > 0 ? (int) mConnectMillis : defaultMillis;
+        }
+
+        int readMillis(int defaultMillis) {
+            return mReadMillis > 0 ? (int) mReadMillis : defaultMillis;
+        }
+
+        int writeMillis(int defaultMillis) {
+            return mWriteMillis > 0 ? (int) mWriteMillis : defaultMillis;
+        }
+    }
+}
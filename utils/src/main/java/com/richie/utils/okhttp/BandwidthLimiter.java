@@ -0,0 +1,222 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * 后台传输限速，只处理带有 {@link Transfer} 标签的请求，普通请求不受影响
+ * 请求体和响应体按 {@link #CHUNK_SIZE} 分块读写，每块同时从全局和单个传输的令牌桶里取令牌，两个限速都可以随时修改
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class BandwidthLimiter implements Interceptor {
+    private static final long CHUNK_SIZE = 8192;
+    private static final long RATE_WINDOW_NANOS = 1000000000L;
+    private final TokenBucket mGlobalBucket;
+    private final AtomicLong mTransferredBytes = new AtomicLong();
+    private long mWindowStartNanos = System.nanoTime();
+    private long mWindowBytes;
+    private double mCurrentRate;
+
+    /**
+     * @param maxBytesPerSecond 所有后台传输加起来的速率上限，小于等于 0 不限制
+     */
+    BandwidthLimiter(long maxBytesPerSecond) {
+        mGlobalBucket = new TokenBucket(maxBytesPerSecond);
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        mGlobalBucket.setRate(maxBytesPerSecond);
+    }
+
+    public long getMaxBytesPerSecond() {
+        return mGlobalBucket.getRate();
+    }
+
+    /**
+     * 创建一个传输，作为请求的标签
+     *
+     * @param maxBytesPerSecond 单个传输的速率上限，小于等于 0 只受全局限制
+     * @return
+     */
+    public Transfer newTransfer(long maxBytesPerSecond) {
+        return new Transfer(this, maxBytesPerSecond);
+    }
+
+    /**
+     * 后台传输的总字节数
+     *
+     * @return
+     */
+    public long getTransferredBytes() {
+        return mTransferredBytes.get();
+    }
+
+    /**
+     * 最近一秒所有后台传输的实际速率
+     *
+     * @return 字节每秒
+     */
+    public synchronized double getCurrentBytesPerSecond() {
+        // 超过两个窗口没有数据说明已经空闲
+        return System.nanoTime() - mWindowStartNanos > RATE_WINDOW_NANOS * 2 ? 0 : mCurrentRate;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        final Transfer transfer = request.tag(Transfer.class);
+        if (transfer == null) {
+            return chain.proceed(request);
+        }
+        final RequestBody requestBody = request.body();
+        if (requestBody != null) {
+            request = request.newBuilder()
+                    .method(request.method(), new RequestBody() {
+                        @Override
+                        public MediaType contentType() {
+                            return requestBody.contentType();
+                        }
+
+                        @Override
+                        public long contentLength() throws IOException {
+                            return requestBody.contentLength();
+                        }
+
+                        @Override
+                        public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                            BufferedSink throttledSink = Okio.buffer(new ThrottledSink(sink, transfer));
+                            requestBody.writeTo(throttledSink);
+                            throttledSink.emit();
+                        }
+                    })
+                    .build();
+        }
+        Response response = chain.proceed(request);
+        ResponseBody responseBody = response.body();
+        if (responseBody == null) {
+            return response;
+        }
+        Source throttledSource = new ThrottledSource(responseBody.source(), transfer);
+        return response.newBuilder()
+                .body(ResponseBody.create(responseBody.contentType(), responseBody.contentLength(), Okio.buffer(throttledSource)))
+                .build();
+    }
+
+    private synchronized void onTransferred(long bytes) {
+        mTransferredBytes.addAndGet(bytes);
+        long now = System.nanoTime();
+        long elapsed = now - mWindowStartNanos;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            mCurrentRate = mWindowBytes * 1e9 / elapsed;
+            mWindowStartNanos = now;
+            mWindowBytes = 0;
+        }
+        mWindowBytes += bytes;
+    }
+
+    /**
+     * 一个后台传输，可以单独限速并查看实际速率
+     */
+    public static final class Transfer {
+        private final BandwidthLimiter mLimiter;
+        private final TokenBucket mBucket;
+        private final AtomicLong mTransferredBytes = new AtomicLong();
+        private volatile long mStartNanos;
+        private volatile long mEndNanos;
+
+        Transfer(BandwidthLimiter limiter, long maxBytesPerSecond) {
+            mLimiter = limiter;
+            mBucket = new TokenBucket(maxBytesPerSecond);
+        }
+
+        public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+            mBucket.setRate(maxBytesPerSecond);
+        }
+
+        public long getMaxBytesPerSecond() {
+            return mBucket.getRate();
+        }
+
+        public long getTransferredBytes() {
+            return mTransferredBytes.get();
+        }
+
+        /**
+         * 从第一块数据到最后一块数据的平均速率
+         *
+         * @return 字节每秒
+         */
+        public double getAverageBytesPerSecond() {
+            long startNanos = mStartNanos;
+            if (startNanos == 0) {
+                return 0;
+            }
+            long endNanos = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+            return endNanos == startNanos ? 0 : mTransferredBytes.get() * 1e9 / (endNanos - startNanos);
+        }
+
+        private void acquire(long bytes) throws IOException {
+            if (mStartNanos == 0) {
+                mStartNanos = System.nanoTime();
+            }
+            TokenBucket.sleep(Math.max(mLimiter.mGlobalBucket.reserve(bytes), mBucket.reserve(bytes)));
+            mTransferredBytes.addAndGet(bytes);
+            mLimiter.onTransferred(bytes);
+            mEndNanos = System.nanoTime();
+        }
+    }
+
+    private static final class ThrottledSource extends ForwardingSource {
+        private final Transfer mTransfer;
+
+        ThrottledSource(Source delegate, Transfer transfer) {
+            super(delegate);
+            mTransfer = transfer;
+        }
+
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, Math.min(byteCount, CHUNK_SIZE));
+            if (read > 0) {
+                mTransfer.acquire(read);
+            }
+            return read;
+        }
+    }
+
+    private static final class ThrottledSink extends ForwardingSink {
+        private final Transfer mTransfer;
+
+        ThrottledSink(Sink delegate, Transfer transfer) {
+            super(delegate);
+            mTransfer = transfer;
+        }
+
+        @Override
+        public void write(@NonNull Buffer source, long byteCount) throws IOException {
+            while (byteCount > 0) {
+                long chunk = Math.min(byteCount, CHUNK_SIZE);
+                mTransfer.acquire(chunk);
+                super.write(source, chunk);
+                byteCount -= chunk;
+            }
+        }
+    }
+}
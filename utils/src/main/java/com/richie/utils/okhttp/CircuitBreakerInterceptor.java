@@ -0,0 +1,230 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.IntDef;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * 按主机熔断，最近 windowSize 个请求里失败比例超过阈值时打开，之后的请求直接抛出 {@link CircuitOpenException}
+ * 网络错误、5xx 和超过 slowCallMillis 的慢请求都算失败，主动取消的请求不计入
+ * 打开 openMillis 后进入半开状态，放行一个探测请求，成功则关闭，失败则重新打开
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class CircuitBreakerInterceptor implements Interceptor {
+    /**
+     * 关闭，正常放行
+     */
+    public static final int STATE_CLOSED = 0;
+    /**
+     * 打开，直接失败
+     */
+    public static final int STATE_OPEN = 1;
+    /**
+     * 半开，只放行一个探测请求
+     */
+    public static final int STATE_HALF_OPEN = 2;
+    /**
+     * 普通请求的许可，探测请求每次使用新的对象，用来区分结果是不是探测请求的
+     */
+    private static final Object PERMIT = new Object();
+    private final int mWindowSize;
+    private final double mFailureRateThreshold;
+    private final long mSlowCallMillis;
+    private final long mOpenMillis;
+    private final Map<String, HostCircuit> mCircuits = new HashMap<>();
+    private volatile OnStateChangedListener mOnStateChangedListener;
+
+    /**
+     * @param windowSize           统计最近多少个请求，至少有一半的样本才会打开
+     * @param failureRateThreshold 失败比例阈值，例如 0.5
+     * @param slowCallMillis       超过这个时间的请求算失败，小于等于 0 不统计慢请求
+     * @param openMillis           打开后多久进入半开状态
+     */
+    CircuitBreakerInterceptor(int windowSize, double failureRateThreshold, long slowCallMillis, long openMillis) {
+        mWindowSize = Math.max(2, windowSize);
+        mFailureRateThreshold = failureRateThreshold;
+        mSlowCallMillis = slowCallMillis;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * 状态变化监听，在发起请求的工作线程回调
+     *
+     * @param onStateChangedListener
+     */
+    public void setOnStateChangedListener(OnStateChangedListener onStateChangedListener) {
+        mOnStateChangedListener = onStateChangedListener;
+    }
+
+    /**
+     * 主机当前的状态
+     *
+     * @param host
+     * @return
+     */
+    @State
+    public synchronized int getState(String host) {
+        HostCircuit circuit = mCircuits.get(host);
+        return circuit != null ? circuit.mState : STATE_CLOSED;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String host = chain.request().url().host();
+        Object permit = tryAcquire(host);
+        if (permit == null) {
+            throw new CircuitOpenException(host);
+        }
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        boolean canceled = false;
+        try {
+            Response response = chain.proceed(chain.request());
+            failed = response.code() >= 500;
+            return response;
+        } catch (IOException e) {
+            canceled = chain.call().isCanceled();
+            throw e;
+        } finally {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            boolean slow = mSlowCallMillis > 0 && elapsedMillis > mSlowCallMillis;
+            onResult(host, permit, canceled, failed || slow);
+        }
+    }
+
+    /**
+     * @return 拒绝时为 null，探测请求返回新的许可
+     */
+    private Object tryAcquire(String host) {
+        Object permit;
+        int oldState;
+        int newState;
+        synchronized (this) {
+            HostCircuit circuit = mCircuits.get(host);
+            if (circuit == null) {
+                circuit = new HostCircuit(mWindowSize);
+                mCircuits.put(host, circuit);
+            }
+            oldState = circuit.mState;
+            if (circuit.mState == STATE_OPEN && System.currentTimeMillis() - circuit.mOpenedAt >= mOpenMillis) {
+                circuit.mState = STATE_HALF_OPEN;
+            }
+            if (circuit.mState == STATE_CLOSED) {
+                permit = PERMIT;
+            } else if (circuit.mState == STATE_HALF_OPEN && circuit.mProbe == null) {
+                circuit.mProbe = new Object();
+                permit = circuit.mProbe;
+            } else {
+                permit = null;
+            }
+            newState = circuit.mState;
+        }
+        notifyStateChanged(host, oldState, newState);
+        return permit;
+    }
+
+    private void onResult(String host, Object permit, boolean canceled, boolean failed) {
+        int oldState;
+        int newState;
+        synchronized (this) {
+            HostCircuit circuit = mCircuits.get(host);
+            oldState = circuit.mState;
+            if (permit == circuit.mProbe) {
+                // 只有探测请求能改变半开状态，取消时由下一个请求重新探测
+                circuit.mProbe = null;
+                if (!canceled) {
+                    if (failed) {
+                        circuit.open();
+                    } else {
+                        circuit.close();
+                    }
+                }
+            } else if (circuit.mState == STATE_CLOSED && !canceled) {
+                circuit.record(failed);
+                if (circuit.mCount * 2 >= mWindowSize && circuit.mFailures >= circuit.mCount * mFailureRateThreshold) {
+                    circuit.open();
+                }
+            }
+            // 其他状态下返回的是打开之前发出的请求，忽略
+            newState = circuit.mState;
+        }
+        notifyStateChanged(host, oldState, newState);
+    }
+
+    private void notifyStateChanged(String host, int oldState, int newState) {
+        if (oldState == newState) {
+            return;
+        }
+        OkLogger.w("circuit " + host + ": " + oldState + " -> " + newState);
+        OnStateChangedListener listener = mOnStateChangedListener;
+        if (listener != null) {
+            listener.onStateChanged(host, oldState, newState);
+        }
+    }
+
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {
+    }
+
+    /**
+     * 熔断状态变化监听
+     */
+    public interface OnStateChangedListener {
+        /**
+         * 状态变化
+         *
+         * @param host
+         * @param oldState
+         * @param newState
+         */
+        void onStateChanged(String host, @State int oldState, @State int newState);
+    }
+
+    private static final class HostCircuit {
+        private final boolean[] mOutcomes;
+        private int mIndex;
+        private int mCount;
+        private int mFailures;
+        private int mState = STATE_CLOSED;
+        private long mOpenedAt;
+        private Object mProbe;
+
+        HostCircuit(int windowSize) {
+            mOutcomes = new boolean[windowSize];
+        }
+
+        void record(boolean failed) {
+            if (mCount == mOutcomes.length) {
+                if (mOutcomes[mIndex]) {
+                    mFailures--;
+                }
+            } else {
+                mCount++;
+            }
+            mOutcomes[mIndex] = failed;
+            if (failed) {
+                mFailures++;
+            }
+            mIndex = (mIndex + 1) % mOutcomes.length;
+        }
+
+        void open() {
+            mState = STATE_OPEN;
+            mOpenedAt = System.currentTimeMillis();
+        }
+
+        void close() {
+            mState = STATE_CLOSED;
+            mIndex = 0;
+            mCount = 0;
+            mFailures = 0;
+        }
+    }
+}
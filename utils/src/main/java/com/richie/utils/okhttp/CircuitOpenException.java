@@ -0,0 +1,22 @@
+package com.richie.utils.okhttp;
+
+import java.io.IOException;
+
+/**
+ * 熔断打开时请求直接失败，不会发到服务端
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final String mHost;
+
+    CircuitOpenException(String host) {
+        super("circuit open for host: " + host);
+        mHost = host;
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+}
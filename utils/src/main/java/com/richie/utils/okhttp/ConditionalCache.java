@@ -0,0 +1,189 @@
+package com.richie.utils.okhttp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 条件请求的缓存，按 url 保存 ETag、Last-Modified 和响应体，最近最少使用的先淘汰
+ * 再次 GET 时带上 If-None-Match、If-Modified-Since，服务端返回 304 时直接使用保存的结果，不用下载和解析
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class ConditionalCache {
+    static final String HEAD_KEY_ETAG = "ETag";
+    static final String HEAD_KEY_LAST_MODIFIED = "Last-Modified";
+    static final String HEAD_KEY_IF_NONE_MATCH = "If-None-Match";
+    static final String HEAD_KEY_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mRevalidateCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private long mBytes;
+
+    /**
+     * @param maxEntries 最多保存的 url 数
+     * @param maxBytes   响应体占用的最大内存，按字符数 * 2 估算
+     */
+    ConditionalCache(int maxEntries, long maxBytes) {
+        mMaxEntries = Math.max(1, maxEntries);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 经过缓存的 GET 请求数
+     *
+     * @return
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 带上校验头的请求数
+     *
+     * @return
+     */
+    public long getRevalidateCount() {
+        return mRevalidateCount.get();
+    }
+
+    /**
+     * 返回 304 复用缓存的次数
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 复用率，命中次数 / 带校验头的请求数
+     *
+     * @return
+     */
+    public double getHitRate() {
+        long revalidateCount = mRevalidateCount.get();
+        return revalidateCount == 0 ? 0 : (double) mHitCount.get() / revalidateCount;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * 给请求加上校验头，使用的缓存作为 tag 附在请求上，304 返回之前被淘汰也能使用
+     *
+     * @param request
+     * @return
+     */
+    Request conditional(Request request) {
+        mRequestCount.incrementAndGet();
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(request.url().toString());
+        }
+        if (entry == null) {
+            return request;
+        }
+        mRevalidateCount.incrementAndGet();
+        Request.Builder builder = request.newBuilder().tag(Entry.class, entry);
+        if (entry.mEtag != null) {
+            builder.header(HEAD_KEY_IF_NONE_MATCH, entry.mEtag);
+        }
+        if (entry.mLastModified != null) {
+            builder.header(HEAD_KEY_IF_MODIFIED_SINCE, entry.mLastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 304 响应对应的缓存，也就是发出请求时附上的缓存，没有时返回 null
+     *
+     * @param response
+     * @return
+     */
+    Entry notModified(Response response) {
+        if (response.code() != 304) {
+            return null;
+        }
+        Entry entry = response.request().tag(Entry.class);
+        if (entry != null) {
+            mHitCount.incrementAndGet();
+            response.close();
+        }
+        return entry;
+    }
+
+    /**
+     * 保存带校验头的响应，没有 ETag 和 Last-Modified 的不保存
+     *
+     * @param response
+     * @param body
+     * @param parsed     解析后的实体，没有时为 null
+     * @param parsedType 实体类型
+     */
+    void put(Response response, String body, Object parsed, Class<?> parsedType) {
+        String etag = response.header(HEAD_KEY_ETAG);
+        String lastModified = response.header(HEAD_KEY_LAST_MODIFIED);
+        if (!"GET".equals(response.request().method()) || (etag == null && lastModified == null)) {
+            return;
+        }
+        Entry entry = new Entry(etag, lastModified, body, parsed, parsedType);
+        long size = (long) body.length() * 2;
+        if (size > mMaxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Entry old = mEntries.put(response.request().url().toString(), entry);
+            if (old != null) {
+                mBytes -= (long) old.mBody.length() * 2;
+            }
+            mBytes += size;
+            Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+            while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                mBytes -= (long) eldest.mBody.length() * 2;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 缓存的一条响应，解析结果按类型复用，类型不同时重新解析 body
+     */
+    static final class Entry {
+        final String mEtag;
+        final String mLastModified;
+        final String mBody;
+        private final Object mParsed;
+        private final Class<?> mParsedType;
+
+        Entry(String etag, String lastModified, String body, Object parsed, Class<?> parsedType) {
+            mEtag = etag;
+            mLastModified = lastModified;
+            mBody = body;
+            mParsed = parsed;
+            mParsedType = parsedType;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T parsed(Class<T> type) {
+            if (mParsed != null && type == mParsedType) {
+                return (T) mParsed;
+            }
+            return GsonConverter.jsonToBean(mBody, type);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.richie.utils.okhttp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 按内容寻址的下载存储，文件以 SHA-256 命名，内容相同的文件只保存一份，不同路径的同名文件也不会互相覆盖
+ * 索引记录 url 到摘要的对应关系，已知内容的 url 直接返回本地文件；一个文件被多少个 url 引用就是它的引用计数，
+ * 计数为 0 时删除文件；总大小超过上限时淘汰最近最少使用的文件和引用它的 url
+ * 索引保存在 {@link #INDEX_FILE_NAME}，创建时在自己的后台线程加载，每次修改后在同一个线程写入；
+ * 加载完成之前调用的方法会等待加载，不要在主线程调用
+ * <p>
+ * 返回的文件只在下一次修改之前有效，之后可能因为引用删除、内容变化或者淘汰被删除；
+ * 需要一直保留时复制出去，已经打开的流不受删除影响，可以继续读完
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class ContentStore {
+    private static final String DIR_NAME = "okhttp_store";
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String TMP_FILE_PREFIX = "download";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+    private final File mDir;
+    private final long mMaxBytes;
+    private final Map<String, String> mUrls = new HashMap<>();
+    private final LinkedHashMap<String, Blob> mBlobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mDedupCount = new AtomicLong();
+    private final Object mSaveLock = new Object();
+    /**
+     * 加载和写入索引的线程，队列不限长度，不会像共用的线程池那样拒绝任务
+     */
+    private final ThreadPoolExecutor mIoExecutor;
+    private long mBytes;
+    private boolean mLoaded;
+    private boolean mSavePending;
+
+    /**
+     * @param context
+     * @param maxBytes 文件总大小的上限
+     */
+    public ContentStore(@NonNull Context context, long maxBytes) {
+        this(new File(context.getFilesDir(), DIR_NAME), maxBytes);
+    }
+
+    /**
+     * @param dir      存储目录，只能给一个 ContentStore 使用
+     * @param maxBytes 文件总大小的上限
+     */
+    public ContentStore(@NonNull File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        mIoExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ContentStore IO");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mIoExecutor.allowCoreThreadTimeOut(true);
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * url 对应的本地文件，会等待加载，不要在主线程调用
+     *
+     * @param url
+     * @return 内容未知时返回 null
+     */
+    public synchronized File get(@NonNull String url) {
+        awaitLoaded();
+        String digest = mUrls.get(url);
+        File file = digest != null ? getByDigest(digest) : null;
+        if (file != null) {
+            mHitCount.incrementAndGet();
+        }
+        return file;
+    }
+
+    /**
+     * 摘要对应的本地文件，会等待加载，不要在主线程调用
+     *
+     * @param digest 十六进制的 SHA-256，不区分大小写
+     * @return 没有时返回 null
+     */
+    public synchronized File getByDigest(@NonNull String digest) {
+        awaitLoaded();
+        Blob blob = mBlobs.get(digest.toLowerCase());
+        if (blob == null) {
+            return null;
+        }
+        File file = fileOf(blob.digest);
+        if (!file.exists()) {
+            // 文件被外部删除
+            removeBlob(blob);
+            save();
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * 让 url 引用已经保存的内容，不用再下载
+     *
+     * @param url
+     * @param digest 十六进制的 SHA-256，不区分大小写
+     * @return 内容不存在时返回 null
+     */
+    public synchronized File link(@NonNull String url, @NonNull String digest) {
+        awaitLoaded();
+        File file = getByDigest(digest);
+        if (file != null) {
+            mHitCount.incrementAndGet();
+            addUrl(url, mBlobs.get(digest.toLowerCase()));
+            save();
+        }
+        return file;
+    }
+
+    /**
+     * 保存 url 的内容，边写入边计算摘要，内容已经存在时不重复保存
+     *
+     * @param url
+     * @param source         读完后关闭
+     * @param expectedDigest 期望的 SHA-256，为 null 不校验
+     * @return 本地文件
+     * @throws IOException 读写失败或者摘要不一致
+     */
+    public File put(@NonNull String url, @NonNull Source source, String expectedDigest) throws IOException {
+        synchronized (this) {
+            // 加载时会删除索引之外的文件，临时文件要在加载之后创建
+            awaitLoaded();
+        }
+        File tmpFile = File.createTempFile(TMP_FILE_PREFIX, TMP_FILE_SUFFIX, mDir);
+        HashingSink hashingSink = HashingSink.sha256(Okio.sink(tmpFile));
+        long size;
+        String digest;
+        try {
+            try (BufferedSource bufferedSource = Okio.buffer(source);
+                 BufferedSink sink = Okio.buffer(hashingSink)) {
+                size = sink.writeAll(bufferedSource);
+            }
+            digest = hashingSink.hash().hex();
+            if (expectedDigest != null && !OkHttpUtils.digestEquals(digest, expectedDigest)) {
+                throw new IOException("digest mismatch, expected: " + expectedDigest + ", actual: " + digest);
+            }
+        } catch (IOException | RuntimeException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        synchronized (this) {
+            Blob blob = mBlobs.get(digest);
+            File file = fileOf(digest);
+            if (blob != null && file.exists()) {
+                mDedupCount.incrementAndGet();
+                tmpFile.delete();
+            } else {
+                if (blob != null) {
+                    removeBlob(blob);
+                }
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                    throw new IOException("rename failed: " + file);
+                }
+                blob = new Blob(digest, size);
+                mBlobs.put(digest, blob);
+                mBytes += size;
+            }
+            addUrl(url, blob);
+            trimToSize(blob);
+            save();
+            return file;
+        }
+    }
+
+    /**
+     * 删除 url 的引用，文件没有其他引用时一起删除
+     *
+     * @param url
+     */
+    public synchronized void remove(@NonNull String url) {
+        awaitLoaded();
+        String digest = mUrls.remove(url);
+        Blob blob = digest != null ? mBlobs.get(digest) : null;
+        if (blob == null) {
+            return;
+        }
+        blob.urls.remove(url);
+        if (blob.urls.isEmpty()) {
+            removeBlob(blob);
+        }
+        save();
+    }
+
+    public synchronized void clear() {
+        awaitLoaded();
+        for (Blob blob : mBlobs.values()) {
+            fileOf(blob.digest).delete();
+        }
+        mBlobs.clear();
+        mUrls.clear();
+        mBytes = 0;
+        save();
+    }
+
+    /**
+     * 文件被多少个 url 引用
+     *
+     * @param digest
+     * @return
+     */
+    public synchronized int getRefCount(@NonNull String digest) {
+        awaitLoaded();
+        Blob blob = mBlobs.get(digest.toLowerCase());
+        return blob != null ? blob.urls.size() : 0;
+    }
+
+    /**
+     * 保存的文件数
+     *
+     * @return
+     */
+    public synchronized int size() {
+        awaitLoaded();
+        return mBlobs.size();
+    }
+
+    /**
+     * 文件总大小
+     *
+     * @return
+     */
+    public synchronized long getBytes() {
+        awaitLoaded();
+        return mBytes;
+    }
+
+    /**
+     * 不用下载直接返回本地文件的次数
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 下载后发现内容已经存在、没有重复保存的次数
+     *
+     * @return
+     */
+    public long getDedupCount() {
+        return mDedupCount.get();
+    }
+
+    private void addUrl(String url, Blob blob) {
+        String oldDigest = mUrls.put(url, blob.digest);
+        if (oldDigest != null && !oldDigest.equals(blob.digest)) {
+            // url 的内容变了，旧文件少一个引用
+            Blob oldBlob = mBlobs.get(oldDigest);
+            if (oldBlob != null) {
+                oldBlob.urls.remove(url);
+                if (oldBlob.urls.isEmpty()) {
+                    removeBlob(oldBlob);
+                }
+            }
+        }
+        if (!blob.urls.contains(url)) {
+            blob.urls.add(url);
+        }
+    }
+
+    private void removeBlob(Blob blob) {
+        mBlobs.remove(blob.digest);
+        mBytes -= blob.size;
+        for (String url : blob.urls) {
+            mUrls.remove(url);
+        }
+        fileOf(blob.digest).delete();
+    }
+
+    /**
+     * 淘汰最近最少使用的文件，刚保存的文件除外
+     */
+    private void trimToSize(Blob keep) {
+        Iterator<Blob> iterator = new ArrayList<>(mBlobs.values()).iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            Blob eldest = iterator.next();
+            if (eldest != keep) {
+                removeBlob(eldest);
+            }
+        }
+    }
+
+    private File fileOf(String digest) {
+        return new File(mDir, digest);
+    }
+
+    /**
+     * 在 {@link #load()} 完成之前等待，调用时持有锁
+     */
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (!mLoaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在 IO 线程读取索引，读文件时不持有锁
+     */
+    private void load() {
+        List<Blob> blobs = new ArrayList<>();
+        try {
+            if (!mDir.exists()) {
+                mDir.mkdirs();
+            }
+            File indexFile = new File(mDir, INDEX_FILE_NAME);
+            Index index = null;
+            if (indexFile.exists()) {
+                try (BufferedSource source = Okio.buffer(Okio.source(indexFile))) {
+                    index = GsonConverter.jsonToBean(source.readUtf8(), Index.class);
+                } catch (Exception e) {
+                    OkLogger.printStackTrace(e);
+                }
+            }
+            if (index != null && index.blobs != null) {
+                for (Blob blob : index.blobs) {
+                    if (blob.digest == null || !fileOf(blob.digest).exists()) {
+                        continue;
+                    }
+                    if (blob.urls == null) {
+                        blob.urls = new ArrayList<>();
+                    }
+                    blobs.add(blob);
+                }
+            }
+            // 删除写入一半的临时文件和索引之外的文件
+            Set<String> names = new HashSet<>();
+            for (Blob blob : blobs) {
+                names.add(blob.digest);
+            }
+            names.add(INDEX_FILE_NAME);
+            File[] files = mDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!names.contains(file.getName())) {
+                        file.delete();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            OkLogger.printStackTrace(e);
+        } finally {
+            synchronized (this) {
+                // 按最近使用的顺序保存，依次放入即可恢复顺序
+                for (Blob blob : blobs) {
+                    mBlobs.put(blob.digest, blob);
+                    mBytes += blob.size;
+                    for (String url : blob.urls) {
+                        mUrls.put(url, blob.digest);
+                    }
+                }
+                mLoaded = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 在 IO 线程写入索引，连续修改只写一次，调用时持有锁
+     */
+    private void save() {
+        if (mSavePending) {
+            return;
+        }
+        mSavePending = true;
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        });
+    }
+
+    /**
+     * 先写临时文件再重命名，保证索引要么完整要么是旧的
+     * 在 mSaveLock 里取快照，后取的快照一定后写入
+     */
+    private void writeIndex() {
+        synchronized (mSaveLock) {
+            String json;
+            synchronized (this) {
+                mSavePending = false;
+                Index index = new Index();
+                index.blobs = new ArrayList<>(mBlobs.values());
+                json = GsonConverter.objectToJson(index);
+            }
+            writeIndex(json);
+        }
+    }
+
+    private void writeIndex(String json) {
+        File indexFile = new File(mDir, INDEX_FILE_NAME);
+        File tmpFile = new File(mDir, INDEX_FILE_NAME + TMP_FILE_SUFFIX);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(tmpFile))) {
+            sink.writeUtf8(json);
+        } catch (IOException e) {
+            OkLogger.printStackTrace(e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            OkLogger.w("save content store index failed");
+        }
+    }
+
+    static final class Index {
+        List<Blob> blobs;
+    }
+
+    static final class Blob {
+        String digest;
+        long size;
+        List<String> urls = new ArrayList<>();
+
+        Blob(String digest, long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * 统计读取字节数的 Source
+ *
+ * @author Richie on 2026.10.19
+ */
+final class CountingSource extends ForwardingSource {
+    private long mCount;
+
+    CountingSource(Source delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+        long read = super.read(sink, byteCount);
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    /**
+     * 已经读取的字节数
+     *
+     * @return
+     */
+    long getCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,240 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.GzipSource;
+import okio.HashingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * 二进制增量更新，用本地旧文件和服务端的补丁流式生成新文件，校验后原子替换
+ * 补丁格式参考 bsdiff，压缩改用 gzip：
+ * <pre>
+ * magic "ODPATCH1" | 新文件长度 long | gzip(控制块 | diff 段 | extra 段 | 控制块 | ...)
+ * 控制块是三个 long：diff 长度、extra 长度、旧文件读取位置的偏移
+ * diff 段的每个字节加上旧文件对应位置的字节得到新文件，extra 段直接写入新文件
+ * </pre>
+ * 所有 long 都是大端序
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class DeltaPatcher {
+    public static final ByteString MAGIC = ByteString.encodeUtf8("ODPATCH1");
+    private static final int BUFFER_SIZE = 8192;
+
+    private DeltaPatcher() {
+    }
+
+    /**
+     * 应用补丁，先写临时文件，校验通过后重命名为 newFile，newFile 可以和 oldFile 相同
+     *
+     * @param oldFile        本地旧文件
+     * @param patch          补丁数据，读完后关闭
+     * @param newFile        新文件
+     * @param algorithm      {@link OkHttpUtils#DIGEST_MD5} 或 {@link OkHttpUtils#DIGEST_SHA256}，为 null 不校验
+     * @param expectedDigest 新文件的十六进制摘要，不区分大小写
+     * @return
+     * @throws PatchFormatException    补丁格式错误
+     * @throws DigestMismatchException 新文件校验失败
+     * @throws IOException             读取补丁或者读写文件失败；失败时临时文件已删除，旧文件不受影响
+     */
+    public static Result applyPatch(@NonNull File oldFile, @NonNull Source patch, @NonNull File newFile,
+                                    String algorithm, String expectedDigest) throws IOException {
+        File tmpFile = new File(newFile.getParentFile(), newFile.getName() + ".patching");
+        UpstreamSource upstream = new UpstreamSource(patch);
+        CountingSource countingSource = new CountingSource(upstream);
+        long newSize;
+        try {
+            newSize = apply(oldFile, countingSource, tmpFile, algorithm, expectedDigest);
+        } catch (PatchFormatException | DigestMismatchException | RuntimeException e) {
+            tmpFile.delete();
+            throw e;
+        } catch (IOException e) {
+            tmpFile.delete();
+            if (upstream.mFailed || !isGzipError(e)) {
+                throw e;
+            }
+            // 补丁本身读取正常，是 GzipSource 解压或者 CRC 校验失败
+            throw new PatchFormatException("corrupt patch data", e);
+        }
+        if (!tmpFile.renameTo(newFile)) {
+            tmpFile.delete();
+            throw new IOException("rename failed: " + newFile);
+        }
+        return new Result(newFile, newSize, countingSource.getCount());
+    }
+
+    private static long apply(File oldFile, Source patch, File tmpFile, String algorithm, String expectedDigest) throws IOException {
+        Sink fileSink = Okio.sink(tmpFile);
+        HashingSink hashingSink = OkHttpUtils.hashingSink(fileSink, algorithm);
+        long newSize;
+        try (BufferedSource header = Okio.buffer(patch);
+             BufferedSource body = Okio.buffer(new GzipSource(header));
+             RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+             BufferedSink out = Okio.buffer(hashingSink != null ? hashingSink : fileSink)) {
+            if (!header.readByteString(MAGIC.size()).equals(MAGIC)) {
+                throw new PatchFormatException("bad patch magic");
+            }
+            newSize = header.readLong();
+            byte[] diff = new byte[BUFFER_SIZE];
+            byte[] oldBytes = new byte[BUFFER_SIZE];
+            long oldPos = 0;
+            long newPos = 0;
+            while (newPos < newSize) {
+                long diffLength = body.readLong();
+                long extraLength = body.readLong();
+                long seek = body.readLong();
+                if (diffLength < 0 || extraLength < 0 || newPos + diffLength + extraLength > newSize) {
+                    throw new PatchFormatException("corrupt patch control block at " + newPos);
+                }
+                old.seek(Math.max(0, oldPos));
+                while (diffLength > 0) {
+                    int count = (int) Math.min(BUFFER_SIZE, diffLength);
+                    for (int offset = 0; offset < count; ) {
+                        int n = body.read(diff, offset, count - offset);
+                        if (n == -1) {
+                            throw new PatchFormatException("patch truncated at " + newPos);
+                        }
+                        offset += n;
+                    }
+                    readOld(old, oldPos, oldBytes, count);
+                    for (int i = 0; i < count; i++) {
+                        diff[i] += oldBytes[i];
+                    }
+                    out.write(diff, 0, count);
+                    oldPos += count;
+                    newPos += count;
+                    diffLength -= count;
+                }
+                out.write(body, extraLength);
+                newPos += extraLength;
+                oldPos += seek;
+            }
+            // 读到 gzip 结尾，GzipSource 才会校验 CRC 和长度
+            if (!body.exhausted() || !header.exhausted()) {
+                throw new PatchFormatException("trailing data after patch");
+            }
+        }
+        if (hashingSink != null) {
+            String actualDigest = hashingSink.hash().hex();
+            if (!OkHttpUtils.digestEquals(actualDigest, expectedDigest)) {
+                throw new DigestMismatchException(expectedDigest, actualDigest);
+            }
+        }
+        return newSize;
+    }
+
+    /**
+     * GzipSource 和 InflaterSource 在数据损坏时抛出的异常
+     */
+    private static boolean isGzipError(IOException e) {
+        return e instanceof EOFException || e instanceof ZipException || e.getCause() instanceof DataFormatException
+                || String.valueOf(e.getMessage()).startsWith("CRC") || String.valueOf(e.getMessage()).startsWith("ISIZE");
+    }
+
+    /**
+     * 读取旧文件，超出文件范围的部分按 0 处理，和 bsdiff 一致
+     */
+    private static void readOld(RandomAccessFile old, long oldPos, byte[] bytes, int count) throws IOException {
+        int read = 0;
+        if (oldPos < 0) {
+            // 位置为负数时文件指针在 0，这一段按 0 处理
+            read = (int) Math.min(count, -oldPos);
+            Arrays.fill(bytes, 0, read, (byte) 0);
+        }
+        while (read < count) {
+            int n = old.read(bytes, read, count - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        Arrays.fill(bytes, read, count, (byte) 0);
+    }
+
+    /**
+     * 记录补丁数据源本身是否读取失败，用来区分网络错误和补丁格式错误
+     */
+    private static final class UpstreamSource extends ForwardingSource {
+        private boolean mFailed;
+
+        UpstreamSource(Source delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+            try {
+                return super.read(sink, byteCount);
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 增量更新的结果
+     */
+    public static final class Result {
+        private final File mFile;
+        private final long mNewSize;
+        private final long mPatchSize;
+
+        Result(File file, long newSize, long patchSize) {
+            mFile = file;
+            mNewSize = newSize;
+            mPatchSize = patchSize;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public long getNewSize() {
+            return mNewSize;
+        }
+
+        /**
+         * 补丁的字节数，即实际传输的数据量
+         *
+         * @return
+         */
+        public long getPatchSize() {
+            return mPatchSize;
+        }
+
+        /**
+         * 和下载完整文件相比节省的字节数
+         *
+         * @return
+         */
+        public long getBytesSaved() {
+            return mNewSize - mPatchSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "file=" + mFile +
+                    ", newSize=" + mNewSize +
+                    ", patchSize=" + mPatchSize +
+                    '}';
+        }
+    }
+}
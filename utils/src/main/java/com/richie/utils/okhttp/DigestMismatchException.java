@@ -0,0 +1,28 @@
+package com.richie.utils.okhttp;
+
+import java.io.IOException;
+
+/**
+ * 文件的摘要和期望的不一致
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class DigestMismatchException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final String mExpected;
+    private final String mActual;
+
+    DigestMismatchException(String expected, String actual) {
+        super("digest mismatch, expected: " + expected + ", actual: " + actual);
+        mExpected = expected;
+        mActual = actual;
+    }
+
+    public String getExpected() {
+        return mExpected;
+    }
+
+    public String getActual() {
+        return mActual;
+    }
+}
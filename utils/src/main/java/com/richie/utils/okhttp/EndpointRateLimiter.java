@@ -0,0 +1,195 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+
+/**
+ * 客户端按接口限流，请求进入 Dispatcher 之前从匹配规则的令牌桶里取令牌，避免触发服务端配额
+ * 规则按添加顺序匹配，只使用第一个匹配的规则，同一个 {@link TokenBucket} 可以在多个规则间共享
+ * 令牌不够时按规则排队等待，或者直接以 {@link RateLimitedException} 失败；
+ * 排队的等待时间有上限，超过时也以 {@link RateLimitedException} 失败，所以排队的请求数不超过速率乘以最长等待时间
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class EndpointRateLimiter {
+    /**
+     * 排队，等到有令牌再发出
+     */
+    public static final int POLICY_QUEUE = 0;
+    /**
+     * 直接拒绝
+     */
+    public static final int POLICY_REJECT = 1;
+    /**
+     * 排队时默认的最长等待时间
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10000;
+    private final List<Rule> mRules = new CopyOnWriteArrayList<>();
+
+    EndpointRateLimiter() {
+    }
+
+    /**
+     * 添加规则，排队时最多等待 {@link #DEFAULT_MAX_WAIT_MILLIS}
+     *
+     * @param pattern 主机名，例如 api.example.com；主机名加路径，例如 api.example.com/v1/search；以 * 结尾时按前缀匹配
+     * @param bucket  每个请求取一个令牌
+     * @param policy
+     * @return 可以查看这个规则的统计
+     */
+    public Rule addRule(@NonNull String pattern, @NonNull TokenBucket bucket, @Policy int policy) {
+        return addRule(pattern, bucket, policy, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * 添加规则
+     *
+     * @param pattern       主机名，例如 api.example.com；主机名加路径，例如 api.example.com/v1/search；以 * 结尾时按前缀匹配
+     * @param bucket        每个请求取一个令牌
+     * @param policy
+     * @param maxWaitMillis 排队时最长的等待时间，超过时拒绝，{@link #POLICY_REJECT} 时不使用
+     * @return 可以查看这个规则的统计
+     */
+    public Rule addRule(@NonNull String pattern, @NonNull TokenBucket bucket, @Policy int policy, long maxWaitMillis) {
+        Rule rule = new Rule(pattern, bucket, policy, maxWaitMillis);
+        mRules.add(rule);
+        return rule;
+    }
+
+    public void removeRule(Rule rule) {
+        mRules.remove(rule);
+    }
+
+    public List<Rule> getRules() {
+        return new ArrayList<>(mRules);
+    }
+
+    /**
+     * 为请求取令牌
+     *
+     * @param request
+     * @return 需要等待的纳秒数，没有匹配的规则时返回 0
+     * @throws RateLimitedException 规则是拒绝并且没有令牌，或者排队的等待时间超过上限
+     */
+    long acquire(@NonNull Request request) throws RateLimitedException {
+        for (Rule rule : mRules) {
+            if (HttpUtils.matchesEndpoint(rule.mPattern, request.url())) {
+                return rule.acquire();
+            }
+        }
+        return 0;
+    }
+
+    @IntDef({POLICY_QUEUE, POLICY_REJECT})
+    public @interface Policy {
+    }
+
+    /**
+     * 限流规则和统计
+     */
+    public static final class Rule {
+        private final String mPattern;
+        private final TokenBucket mBucket;
+        private final int mPolicy;
+        private final long mMaxQueueNanos;
+        private final AtomicLong mRequestCount = new AtomicLong();
+        private final AtomicLong mQueuedCount = new AtomicLong();
+        private final AtomicLong mRejectedCount = new AtomicLong();
+        private final AtomicLong mTotalWaitNanos = new AtomicLong();
+        private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+        Rule(String pattern, TokenBucket bucket, int policy, long maxWaitMillis) {
+            mPattern = pattern;
+            mBucket = bucket;
+            mPolicy = policy;
+            mMaxQueueNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        }
+
+        public String getPattern() {
+            return mPattern;
+        }
+
+        public TokenBucket getBucket() {
+            return mBucket;
+        }
+
+        /**
+         * 匹配的请求数
+         *
+         * @return
+         */
+        public long getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        /**
+         * 需要排队的请求数
+         *
+         * @return
+         */
+        public long getQueuedCount() {
+            return mQueuedCount.get();
+        }
+
+        /**
+         * 被拒绝的请求数，包括排队超时的
+         *
+         * @return
+         */
+        public long getRejectedCount() {
+            return mRejectedCount.get();
+        }
+
+        /**
+         * 排队请求的平均等待时间
+         *
+         * @return 毫秒
+         */
+        public double getAverageWaitMillis() {
+            long queuedCount = mQueuedCount.get();
+            return queuedCount == 0 ? 0 : mTotalWaitNanos.get() / 1e6 / queuedCount;
+        }
+
+        /**
+         * 最长的等待时间
+         *
+         * @return 毫秒
+         */
+        public long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos.get());
+        }
+
+        private long acquire() throws RateLimitedException {
+            mRequestCount.incrementAndGet();
+            if (mPolicy == POLICY_REJECT) {
+                if (!mBucket.tryAcquire(1)) {
+                    mRejectedCount.incrementAndGet();
+                    throw new RateLimitedException(mPattern);
+                }
+                return 0;
+            }
+            long waitNanos = mBucket.tryReserve(1, mMaxQueueNanos);
+            if (waitNanos < 0) {
+                mRejectedCount.incrementAndGet();
+                throw new RateLimitedException(mPattern);
+            }
+            if (waitNanos > 0) {
+                mQueuedCount.incrementAndGet();
+                mTotalWaitNanos.addAndGet(waitNanos);
+                long max;
+                do {
+                    max = mMaxWaitNanos.get();
+                } while (waitNanos > max && !mMaxWaitNanos.compareAndSet(max, waitNanos));
+            }
+            return waitNanos;
+        }
+    }
+}
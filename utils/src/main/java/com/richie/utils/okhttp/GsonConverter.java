@@ -1,15 +1,19 @@
 package com.richie.utils.okhttp;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import okio.BufferedSource;
+
 /**
  * GSON 转换器
  *
@@ -21,6 +25,15 @@ public final class GsonConverter {
     private GsonConverter() {
     }
 
+    /**
+     * 共用的 Gson 实例，其他类序列化时保持一致
+     *
+     * @return
+     */
+    static Gson getGson() {
+        return GSON;
+    }
+
     /**
      * json to bean
      *
@@ -42,15 +55,86 @@ public final class GsonConverter {
      * @return
      */
     public static <T> List<T> jsonToList(String json, Class<T> classOfT) {
-        JsonArray array = new JsonParser().parse(json).getAsJsonArray();
-        List<T> list = new ArrayList<>(array.size());
-        for (JsonElement elem : array) {
-            T t = GSON.fromJson(elem, classOfT);
-            list.add(t);
+        JsonReader jsonReader = new JsonReader(new StringReader(json));
+        // 和之前的 JsonParser 一样宽松解析，例如单引号、不带引号的键
+        jsonReader.setLenient(true);
+        JsonArrayIterator<T> iterator = new JsonArrayIterator<>(GSON, jsonReader, classOfT);
+        List<T> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
         }
         return list;
     }
 
+    /**
+     * json to lazy bean iterator, parse one element at a time, for huge arrays
+     *
+     * @param reader   must be JSONArray, caller should close the iterator
+     * @param classOfT
+     * @param <T>
+     * @return
+     */
+    public static <T> JsonArrayIterator<T> jsonToIterator(Reader reader, Class<T> classOfT) {
+        return new JsonArrayIterator<>(GSON, new JsonReader(reader), classOfT);
+    }
+
+    /**
+     * json to lazy bean iterator, parse one element at a time, for huge arrays
+     *
+     * @param source   must be JSONArray, utf-8 encoded, caller should close the iterator
+     * @param classOfT
+     * @param <T>
+     * @return
+     */
+    public static <T> JsonArrayIterator<T> jsonToIterator(BufferedSource source, Class<T> classOfT) {
+        return jsonToIterator(new InputStreamReader(source.inputStream(), Charset.forName("UTF-8")), classOfT);
+    }
+
+    /**
+     * json stream to lazy bean iterator, accepts a JSONArray or newline-delimited values (NDJSON)
+     *
+     * @param reader   JSONArray or NDJSON, caller should close the iterator
+     * @param classOfT
+     * @param <T>
+     * @return
+     */
+    public static <T> JsonArrayIterator<T> jsonStreamToIterator(Reader reader, Class<T> classOfT) {
+        JsonReader jsonReader = new JsonReader(reader);
+        // 多个顶层值只有宽松模式才能解析
+        jsonReader.setLenient(true);
+        return new JsonArrayIterator<>(GSON, jsonReader, classOfT, true);
+    }
+
+    /**
+     * read the next json value of reader to bean
+     *
+     * @param reader   positioned at the value, not closed by this method
+     * @param classOfT
+     * @param <T>
+     * @return
+     */
+    public static <T> T readBean(JsonReader reader, Class<T> classOfT) {
+        return GSON.fromJson(reader, classOfT);
+    }
+
+    /**
+     * json to bean one by one, memory usage doesn't grow with array size
+     *
+     * @param reader   must be JSONArray, not closed by this method
+     * @param classOfT
+     * @param listener
+     * @param <T>
+     * @return element count
+     */
+    public static <T> int jsonToEach(Reader reader, Class<T> classOfT, OnElementListener<T> listener) {
+        JsonArrayIterator<T> iterator = jsonToIterator(reader, classOfT);
+        int index = 0;
+        while (iterator.hasNext()) {
+            listener.onElement(index++, iterator.next());
+        }
+        return index;
+    }
+
     /**
      * json to map
      *
@@ -83,4 +167,14 @@ public final class GsonConverter {
         return GSON.toJson(src);
     }
 
+    public interface OnElementListener<T> {
+        /**
+         * 解析出一个数组元素
+         *
+         * @param index
+         * @param element
+         */
+        void onElement(int index, T element);
+    }
+
 }
\ No newline at end of file
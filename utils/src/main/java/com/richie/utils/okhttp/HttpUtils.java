@@ -15,6 +15,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 
 /**
@@ -24,7 +25,9 @@ public final class HttpUtils {
     public static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
     public static final MediaType MEDIA_TYPE_PLAIN = MediaType.parse("text/plain; charset=utf-8");
     public static final MediaType MEDIA_TYPE_STREAM = MediaType.parse("application/octet-stream");
+    public static final MediaType MEDIA_TYPE_MERGE_PATCH = MediaType.parse("application/merge-patch+json; charset=utf-8");
     public static final String HEAD_KEY_USER_AGENT = "User-Agent";
+    public static final String HEAD_KEY_CONTENT_TYPE = "Content-Type";
     private static String sUserAgent;
 
     private HttpUtils() {
@@ -86,6 +89,27 @@ public final class HttpUtils {
         return filename;
     }
 
+    /**
+     * 接口标识，主机名加路径，用于按接口统计
+     */
+    static String getEndpoint(@NonNull HttpUrl url) {
+        return url.host() + url.encodedPath();
+    }
+
+    /**
+     * 按规则匹配接口
+     *
+     * @param pattern 主机名，例如 api.example.com；主机名加路径，例如 api.example.com/v1/search；以 * 结尾时按前缀匹配
+     * @param url
+     * @return
+     */
+    static boolean matchesEndpoint(@NonNull String pattern, @NonNull HttpUrl url) {
+        if (pattern.endsWith("*")) {
+            return getEndpoint(url).startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return pattern.indexOf('/') < 0 ? pattern.equals(url.host()) : pattern.equals(getEndpoint(url));
+    }
+
     /**
      * 根据文件名获取MIME类型
      */
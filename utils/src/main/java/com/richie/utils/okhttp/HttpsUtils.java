@@ -1,31 +1,55 @@
 package com.richie.utils.okhttp;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
+import okio.Okio;
+
 /**
  * Https相关的工具类
+ * SSL 配置按证书内容缓存，复用同一个 SSLContext 才能复用它的 TLS 会话缓存，重连时走简短握手
  *
  * @author Richie on 2018.12.22
  */
 final class HttpsUtils {
+    private static final ConcurrentHashMap<String, SSLParams> SSL_PARAMS_CACHE = new ConcurrentHashMap<>();
+    private static final AtomicLong FULL_HANDSHAKE_COUNT = new AtomicLong();
+    private static final AtomicLong RESUMED_HANDSHAKE_COUNT = new AtomicLong();
+    /**
+     * 小于等于 0 表示使用系统默认值
+     */
+    private static volatile int sSessionCacheSize;
+    private static volatile int sSessionTimeout;
 
     /**
      * 为了解决客户端不信任服务器数字证书的问题，网络上大部分的解决方案都是让客户端不对证书做任何检查，
@@ -95,10 +119,80 @@ final class HttpsUtils {
         return getSslSocketFactoryBase(trustManager, bksFile, password);
     }
 
+    /**
+     * 设置 TLS 会话缓存，对已缓存和之后创建的 SSL 配置都生效
+     *
+     * @param sessionCacheSize      会话数量，小于等于 0 使用系统默认值
+     * @param sessionTimeoutSeconds 会话超时，单位秒，小于等于 0 使用系统默认值
+     */
+    public static void setSessionCache(int sessionCacheSize, int sessionTimeoutSeconds) {
+        sSessionCacheSize = sessionCacheSize;
+        sSessionTimeout = sessionTimeoutSeconds;
+        for (SSLParams sslParams : SSL_PARAMS_CACHE.values()) {
+            applySessionCache(sslParams.sslContext);
+        }
+    }
+
+    /**
+     * 完整握手的次数
+     */
+    public static long getFullHandshakeCount() {
+        return FULL_HANDSHAKE_COUNT.get();
+    }
+
+    /**
+     * 复用会话的简短握手次数
+     */
+    public static long getResumedHandshakeCount() {
+        return RESUMED_HANDSHAKE_COUNT.get();
+    }
+
     private static SSLParams getSslSocketFactoryBase(X509TrustManager trustManager, InputStream bksFile, String password, InputStream... certificates) {
+        boolean unreadable = false;
+        byte[] bksBytes = null;
+        try {
+            bksBytes = readFully(bksFile);
+        } catch (IOException e) {
+            OkLogger.printStackTrace(e);
+            unreadable = true;
+        }
+        List<byte[]> certificateBytes = new ArrayList<>();
+        if (certificates != null) {
+            for (InputStream certificate : certificates) {
+                byte[] bytes = null;
+                try {
+                    bytes = readFully(certificate);
+                } catch (IOException e) {
+                    OkLogger.printStackTrace(e);
+                }
+                // 读取失败的证书不能跳过，否则只信任剩下的证书，和原来一样让整个证书配置失败
+                unreadable |= bytes == null;
+                certificateBytes.add(bytes);
+            }
+        }
+        if (unreadable) {
+            // 失败的配置不缓存，下次重新读取
+            return createSslParams(trustManager, bksBytes, password, certificateBytes);
+        }
+        String key = cacheKey(trustManager, bksBytes, password, certificateBytes);
+        SSLParams sslParams = SSL_PARAMS_CACHE.get(key);
+        // 自定义的 TrustManager 必须是同一个对象才能复用
+        if (sslParams != null && (trustManager == null || sslParams.trustManager == trustManager)) {
+            return sslParams;
+        }
+        sslParams = createSslParams(trustManager, bksBytes, password, certificateBytes);
+        if (trustManager != null) {
+            SSL_PARAMS_CACHE.put(key, sslParams);
+            return sslParams;
+        }
+        SSLParams previous = SSL_PARAMS_CACHE.putIfAbsent(key, sslParams);
+        return previous != null ? previous : sslParams;
+    }
+
+    private static SSLParams createSslParams(X509TrustManager trustManager, byte[] bksBytes, String password, List<byte[]> certificates) {
         SSLParams sslParams = new SSLParams();
         try {
-            KeyManager[] keyManagers = prepareKeyManager(bksFile, password);
+            KeyManager[] keyManagers = prepareKeyManager(bksBytes, password);
             TrustManager[] trustManagers = prepareTrustManager(certificates);
             X509TrustManager manager;
             if (trustManager != null) {
@@ -116,22 +210,79 @@ final class HttpsUtils {
             // 用上面得到的trustManagers初始化SSLContext，这样sslContext就会信任keyStore中的证书
             // 第一个参数是授权的密钥管理器，用来授权验证，比如授权自签名的证书验证。第二个是被授权的证书管理器，用来验证服务器端的证书
             sslContext.init(keyManagers, new TrustManager[]{manager}, null);
-            // 通过sslContext获取SSLSocketFactory对象
-            sslParams.sSLSocketFactory = sslContext.getSocketFactory();
+            applySessionCache(sslContext);
+            // 通过sslContext获取SSLSocketFactory对象，包装一层统计握手类型
+            sslParams.sSLSocketFactory = new HandshakeCountingSocketFactory(sslContext.getSocketFactory());
             sslParams.trustManager = manager;
+            sslParams.sslContext = sslContext;
             return sslParams;
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             throw new AssertionError(e);
         }
     }
 
-    private static KeyManager[] prepareKeyManager(InputStream bksFile, String password) {
+    private static void applySessionCache(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext == null) {
+            return;
+        }
+        if (sSessionCacheSize > 0) {
+            sessionContext.setSessionCacheSize(sSessionCacheSize);
+        }
+        if (sSessionTimeout > 0) {
+            sessionContext.setSessionTimeout(sSessionTimeout);
+        }
+    }
+
+    /**
+     * 缓存键，用证书内容的摘要，而不是流对象本身
+     */
+    private static String cacheKey(X509TrustManager trustManager, byte[] bksBytes, String password, List<byte[]> certificates) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) (trustManager != null ? 1 : 0));
+            if (bksBytes != null) {
+                digest.update(bksBytes);
+            }
+            digest.update((byte) 0);
+            if (password != null) {
+                digest.update(password.getBytes("UTF-8"));
+            }
+            for (byte[] certificate : certificates) {
+                digest.update((byte) 0);
+                digest.update(certificate);
+            }
+            return new BigInteger(1, digest.digest()).toString(16);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 读取并关闭流，流为 null 时返回 null
+     */
+    private static byte[] readFully(InputStream is) throws IOException {
+        if (is == null) {
+            return null;
+        }
+        try {
+            return Okio.buffer(Okio.source(is)).readByteArray();
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                OkLogger.printStackTrace(e);
+            }
+        }
+    }
+
+    private static KeyManager[] prepareKeyManager(byte[] bksFile, String password) {
         try {
             if (bksFile == null || password == null) {
                 return null;
             }
             KeyStore clientKeyStore = KeyStore.getInstance("BKS");
-            clientKeyStore.load(bksFile, password.toCharArray());
+            clientKeyStore.load(new ByteArrayInputStream(bksFile), password.toCharArray());
             KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
             kmf.init(clientKeyStore, password.toCharArray());
             return kmf.getKeyManagers();
@@ -141,8 +292,8 @@ final class HttpsUtils {
         return null;
     }
 
-    private static TrustManager[] prepareTrustManager(InputStream... certificates) {
-        if (certificates == null || certificates.length <= 0) {
+    private static TrustManager[] prepareTrustManager(List<byte[]> certificates) {
+        if (certificates.isEmpty()) {
             return null;
         }
         try {
@@ -151,19 +302,15 @@ final class HttpsUtils {
             KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
             keyStore.load(null);
             int index = 0;
-            for (InputStream certStream : certificates) {
+            for (byte[] certBytes : certificates) {
+                if (certBytes == null) {
+                    throw new CertificateException("unreadable certificate at " + index);
+                }
                 String certificateAlias = Integer.toString(index++);
                 // 证书工厂根据证书文件的流生成证书 cert
-                Certificate cert = certificateFactory.generateCertificate(certStream);
+                Certificate cert = certificateFactory.generateCertificate(new ByteArrayInputStream(certBytes));
                 // 将 cert 作为可信证书放入到keyStore中
                 keyStore.setCertificateEntry(certificateAlias, cert);
-                try {
-                    if (certStream != null) {
-                        certStream.close();
-                    }
-                } catch (IOException e) {
-                    OkLogger.printStackTrace(e);
-                }
             }
             //我们创建一个默认类型的TrustManagerFactory
             TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
@@ -189,5 +336,74 @@ final class HttpsUtils {
     static class SSLParams {
         SSLSocketFactory sSLSocketFactory;
         X509TrustManager trustManager;
+        SSLContext sslContext;
+    }
+
+    /**
+     * 给创建的 SSLSocket 添加握手监听，会话创建时间早于 socket 创建时间就是复用的会话
+     */
+    private static final class HandshakeCountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory mDelegate;
+
+        HandshakeCountingSocketFactory(SSLSocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return listen(mDelegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return listen(mDelegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return listen(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return listen(mDelegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return listen(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return listen(mDelegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket listen(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                final long createTime = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        if (event.getSession().getCreationTime() < createTime) {
+                            RESUMED_HANDSHAKE_COUNT.incrementAndGet();
+                        } else {
+                            FULL_HANDSHAKE_COUNT.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            return socket;
+        }
     }
 }
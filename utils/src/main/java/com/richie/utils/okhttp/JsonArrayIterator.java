@@ -0,0 +1,106 @@
+package com.richie.utils.okhttp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * JSON 数组的流式迭代器，每次只解析一个元素，不会构建整棵 JsonArray
+ * 允许顶层序列时，不是数组的输入按多个顶层值解析，例如按行分隔的 NDJSON
+ * 数组结束后还有其他内容时抛出 {@link JsonSyntaxException}，和 JsonParser 解析整个文档一致
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+    private final Gson mGson;
+    private final JsonReader mJsonReader;
+    private final Class<T> mClassOfT;
+    private final boolean mAllowTopLevelSequence;
+    private boolean mSequence;
+    private boolean mBegun;
+    private boolean mEnded;
+
+    JsonArrayIterator(Gson gson, JsonReader jsonReader, Class<T> classOfT) {
+        this(gson, jsonReader, classOfT, false);
+    }
+
+    JsonArrayIterator(Gson gson, JsonReader jsonReader, Class<T> classOfT, boolean allowTopLevelSequence) {
+        mGson = gson;
+        mJsonReader = jsonReader;
+        mClassOfT = classOfT;
+        mAllowTopLevelSequence = allowTopLevelSequence;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mEnded) {
+            return false;
+        }
+        try {
+            if (!mBegun) {
+                if (mAllowTopLevelSequence && peekTopLevel() != JsonToken.BEGIN_ARRAY) {
+                    mSequence = true;
+                } else {
+                    mJsonReader.beginArray();
+                }
+                // 失败后重试时还要重新开始
+                mBegun = true;
+            }
+            if (mSequence) {
+                mEnded = peekTopLevel() == JsonToken.END_DOCUMENT;
+                return !mEnded;
+            }
+            if (mJsonReader.hasNext()) {
+                return true;
+            }
+            mJsonReader.endArray();
+            if (mJsonReader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+            mEnded = true;
+            return false;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * 空的 NDJSON 没有任何值，JsonReader 会抛出 EOFException，按文档结束处理
+     */
+    private JsonToken peekTopLevel() throws IOException {
+        try {
+            return mJsonReader.peek();
+        } catch (EOFException e) {
+            return JsonToken.END_DOCUMENT;
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mGson.fromJson(mJsonReader, mClassOfT);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() throws IOException {
+        mJsonReader.close();
+    }
+}
@@ -0,0 +1,227 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+import okio.Utf8;
+
+/**
+ * JSON Merge Patch（RFC 7396），比较修改前后的对象，只发送变化的字段
+ * 对象按字段递归比较，删除的字段为 null，数组和其他值整体替换
+ * 补丁不能表示值为 null 的字段，值为 null 和没有这个字段按相同处理，和 Gson 默认不输出 null 一致
+ * <pre>
+ * JsonElement original = JsonMergePatch.snapshot(user);
+ * user.setName("richie");
+ * JsonMergePatch.Result result = JsonMergePatch.diff(original, user);
+ * </pre>
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class JsonMergePatch {
+    /**
+     * 和 {@link GsonConverter} 用同一个实例，快照和请求体的序列化结果一致
+     */
+    private static final Gson GSON = GsonConverter.getGson();
+    /**
+     * 补丁里的 null 表示删除字段，输出时不能省略
+     */
+    private static final Gson PATCH_GSON = GSON.newBuilder().serializeNulls().create();
+
+    private JsonMergePatch() {
+    }
+
+    /**
+     * 保存对象当前的状态，在修改之前调用，之后修改对象不影响快照
+     *
+     * @param bean
+     * @return
+     */
+    @NonNull
+    public static JsonElement snapshot(Object bean) {
+        return bean instanceof JsonElement ? ((JsonElement) bean).deepCopy() : GSON.toJsonTree(bean);
+    }
+
+    /**
+     * 生成补丁
+     *
+     * @param original 修改前的对象或者 {@link #snapshot(Object)}
+     * @param modified 修改后的对象或者 JsonElement，两个参数都不会被修改
+     * @return
+     */
+    @NonNull
+    public static Result diff(Object original, Object modified) {
+        JsonElement modifiedTree = toTree(modified);
+        JsonElement patch = diffTree(toTree(original), modifiedTree);
+        return new Result(patch, modifiedTree);
+    }
+
+    /**
+     * 没有变化时返回 null，空对象只是对象的补丁，对数组和其他值应用会变成空对象，两个参数都不会被修改
+     */
+    @Nullable
+    private static JsonElement diffTree(JsonElement original, JsonElement modified) {
+        if (!original.isJsonObject() || !modified.isJsonObject()) {
+            return original.equals(modified) ? null : modified.deepCopy();
+        }
+        JsonObject patch = diffObject(original.getAsJsonObject(), modified.getAsJsonObject());
+        return patch.size() > 0 ? patch : null;
+    }
+
+    /**
+     * 应用补丁，target 不会被修改
+     *
+     * @param target
+     * @param patch
+     * @return 新的 JsonElement
+     */
+    @NonNull
+    public static JsonElement apply(@NonNull JsonElement target, @NonNull JsonElement patch) {
+        if (!patch.isJsonObject()) {
+            return patch.deepCopy();
+        }
+        JsonObject result = target.isJsonObject() ? target.getAsJsonObject().deepCopy() : new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : patch.getAsJsonObject().entrySet()) {
+            String key = entry.getKey();
+            JsonElement value = entry.getValue();
+            if (value.isJsonNull()) {
+                result.remove(key);
+            } else {
+                JsonElement current = result.get(key);
+                result.add(key, apply(current != null ? current : JsonNull.INSTANCE, value));
+            }
+        }
+        return result;
+    }
+
+    private static JsonObject diffObject(JsonObject original, JsonObject modified) {
+        JsonObject patch = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : original.entrySet()) {
+            if (!entry.getValue().isJsonNull() && isAbsent(modified.get(entry.getKey()))) {
+                patch.add(entry.getKey(), JsonNull.INSTANCE);
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : modified.entrySet()) {
+            String key = entry.getKey();
+            JsonElement value = entry.getValue();
+            JsonElement oldValue = original.get(key);
+            if (value.isJsonNull()) {
+                // 删除的字段已经在上面处理
+                continue;
+            }
+            if (isAbsent(oldValue)) {
+                patch.add(key, value.deepCopy());
+            } else if (value.isJsonObject() && oldValue.isJsonObject()) {
+                JsonObject child = diffObject(oldValue.getAsJsonObject(), value.getAsJsonObject());
+                if (child.size() > 0) {
+                    patch.add(key, child);
+                }
+            } else if (!value.equals(oldValue)) {
+                patch.add(key, value.deepCopy());
+            }
+        }
+        return patch;
+    }
+
+    private static boolean isAbsent(JsonElement element) {
+        return element == null || element.isJsonNull();
+    }
+
+    private static JsonElement toTree(Object object) {
+        return object instanceof JsonElement ? (JsonElement) object : GSON.toJsonTree(object);
+    }
+
+    /**
+     * 补丁和大小统计
+     */
+    public static final class Result {
+        private final JsonElement mPatch;
+        private final JsonElement mModified;
+        private final String mJson;
+        private final long mPatchSize;
+        private final long mFullSize;
+
+        Result(JsonElement patch, JsonElement modified) {
+            mPatch = patch;
+            mModified = modified;
+            mJson = patch != null ? PATCH_GSON.toJson(patch) : null;
+            mPatchSize = mJson != null ? Utf8.size(mJson) : 0;
+            mFullSize = Utf8.size(GSON.toJson(modified));
+        }
+
+        /**
+         * 补丁，没有变化时为 null
+         *
+         * @return
+         */
+        @Nullable
+        public JsonElement getPatch() {
+            return mPatch;
+        }
+
+        /**
+         * 补丁的 JSON 字符串，作为请求体发送，没有变化时为 null
+         *
+         * @return
+         */
+        @Nullable
+        public String toJson() {
+            return mJson;
+        }
+
+        /**
+         * 是否没有变化，没有变化时不用发送请求
+         *
+         * @return
+         */
+        public boolean isEmpty() {
+            return mPatch == null;
+        }
+
+        JsonElement getModified() {
+            return mModified;
+        }
+
+        /**
+         * 补丁的 UTF-8 字节数
+         *
+         * @return
+         */
+        public long getPatchSize() {
+            return mPatchSize;
+        }
+
+        /**
+         * 发送完整对象的 UTF-8 字节数
+         *
+         * @return
+         */
+        public long getFullSize() {
+            return mFullSize;
+        }
+
+        /**
+         * 和发送完整对象相比节省的字节数
+         *
+         * @return
+         */
+        public long getBytesSaved() {
+            return mFullSize - mPatchSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "patch=" + mJson +
+                    ", patchSize=" + mPatchSize +
+                    ", fullSize=" + mFullSize +
+                    '}';
+        }
+    }
+}
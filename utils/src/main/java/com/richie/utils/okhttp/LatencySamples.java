@@ -0,0 +1,76 @@
+package com.richie.utils.okhttp;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最近若干次请求的延迟，用来计算分位数
+ * 同时维护一份有序的样本，添加时移除被覆盖的旧样本再插入新样本，查询分位数不用排序
+ *
+ * @author Richie on 2026.10.19
+ */
+final class LatencySamples {
+    private final long[] mLatencies;
+    private final long[] mSorted;
+    private final int mMinSamples;
+    private int mCount;
+    private int mIndex;
+
+    /**
+     * @param size       保留的样本数
+     * @param minSamples 样本少于这个数时不计算分位数
+     */
+    LatencySamples(int size, int minSamples) {
+        mLatencies = new long[size];
+        mSorted = new long[size];
+        mMinSamples = minSamples;
+    }
+
+    /**
+     * 按接口保存样本的 map，按访问顺序最多保留 maxEndpoints 个接口
+     * 不是线程安全的，get 也会修改访问顺序，调用方要自己同步
+     *
+     * @param maxEndpoints
+     * @return
+     */
+    static Map<String, LatencySamples> newEndpointMap(final int maxEndpoints) {
+        return new LinkedHashMap<String, LatencySamples>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LatencySamples> eldest) {
+                return size() > maxEndpoints;
+            }
+        };
+    }
+
+    synchronized void add(long latencyMillis) {
+        if (mCount == mLatencies.length) {
+            // 移除被覆盖的样本
+            int removed = Arrays.binarySearch(mSorted, 0, mCount, mLatencies[mIndex]);
+            System.arraycopy(mSorted, removed + 1, mSorted, removed, mCount - removed - 1);
+            mCount--;
+        }
+        mLatencies[mIndex] = latencyMillis;
+        mIndex = (mIndex + 1) % mLatencies.length;
+        int position = Arrays.binarySearch(mSorted, 0, mCount, latencyMillis);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        System.arraycopy(mSorted, position, mSorted, position + 1, mCount - position);
+        mSorted[position] = latencyMillis;
+        mCount++;
+    }
+
+    /**
+     * 分位数
+     *
+     * @param percentile 0~1
+     * @return 毫秒，样本不够时返回 -1
+     */
+    synchronized long percentile(double percentile) {
+        if (mCount < mMinSamples) {
+            return -1;
+        }
+        return Math.max(1, mSorted[(int) Math.ceil(percentile * mCount) - 1]);
+    }
+}
@@ -0,0 +1,325 @@
+package com.richie.utils.okhttp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.richie.utils.common.FeatureUtils;
+import com.richie.utils.receiver.NetChangeReceiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * 离线发件箱，没有网络时保存 POST 请求到文件，网络恢复后按顺序重放
+ * 每个请求带上 Idempotency-Key 头，服务端据此去重；同一个合并键的请求只保留最新的一条
+ * 收到 {@link NetChangeReceiver.OnNetChangedListener#onNetChanged(boolean)} 时自动重放，两个请求之间至少间隔
+ * {@link #setMinIntervalMillis(long)}，遇到 429、5xx 或网络错误时停止，等待下次网络恢复或手动调用 {@link #replay()}
+ * 重放同样经过 {@link OkHttpUtils#enableRateLimit()} 的限流，被拒绝时也停止
+ * 文件读写都在一个串行的后台线程，创建时在后台加载之前保存的请求，保存请求不阻塞调用线程
+ * 重放在单独的线程，等待加载和限流时不占用线程池
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class OfflineOutbox implements NetChangeReceiver.OnNetChangedListener {
+    public static final String HEAD_KEY_IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String DIR_NAME = "okhttp_outbox";
+    private static final String FILE_SUFFIX = ".json";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private final File mDir;
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final AtomicBoolean mReplaying = new AtomicBoolean();
+    private final Executor mIoExecutor = new OkHttpUtils.SerialExecutor(OkHttpUtils.BACKGROUND_EXECUTOR);
+    private volatile long mMinIntervalMillis = 200;
+    private long mLastSeq;
+    private boolean mLoaded;
+
+    public OfflineOutbox(@NonNull Context context) {
+        mDir = new File(context.getFilesDir(), DIR_NAME);
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * 重放时两个请求的最小间隔，避免网络恢复时一起打到服务端
+     *
+     * @param minIntervalMillis
+     */
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        mMinIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * 保存 JSON 请求
+     *
+     * @param url
+     * @param jsonStr
+     * @param coalesceKey 合并键，相同的键只保留最新的请求，为 null 不合并
+     */
+    public void enqueueJson(@NonNull String url, @NonNull String jsonStr, String coalesceKey) {
+        enqueue(url, HttpUtils.MEDIA_TYPE_JSON.toString(), jsonStr, coalesceKey);
+    }
+
+    /**
+     * 保存表单请求，body 是编码后的键值对
+     *
+     * @param url
+     * @param formBody
+     * @param coalesceKey 合并键，相同的键只保留最新的请求，为 null 不合并
+     */
+    public void enqueueForm(@NonNull String url, @NonNull String formBody, String coalesceKey) {
+        enqueue(url, FORM_CONTENT_TYPE, formBody, coalesceKey);
+    }
+
+    /**
+     * 待发送的请求数，加载完成之前只包含新保存的
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public void onNetChanged(boolean isConnected) {
+        if (isConnected) {
+            replay();
+        }
+    }
+
+    /**
+     * 在单独的线程按顺序重放，已经在重放时直接返回
+     */
+    public void replay() {
+        if (!mReplaying.compareAndSet(false, true)) {
+            return;
+        }
+        // 加载在线程池里执行，重放也占用线程池等待加载的话，线程池满时会互相等待
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replayBlocking();
+                } finally {
+                    mReplaying.set(false);
+                }
+            }
+        }, "OfflineOutbox Replay").start();
+    }
+
+    private void replayBlocking() {
+        synchronized (this) {
+            // 先发送之前保存的请求
+            while (!mLoaded) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        int sent = 0;
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                if (mEntries.isEmpty()) {
+                    break;
+                }
+                entry = mEntries.get(0);
+            }
+            if (sent++ > 0) {
+                try {
+                    Thread.sleep(mMinIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            Request request = new Request.Builder()
+                    .url(entry.url)
+                    .post(RequestBody.create(MediaType.parse(entry.contentType), entry.body))
+                    .header(HEAD_KEY_IDEMPOTENCY_KEY, entry.idempotencyKey)
+                    .build();
+            EndpointRateLimiter rateLimiter = OkHttpUtils.getInstance().getRateLimiter();
+            if (rateLimiter != null) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(rateLimiter.acquire(request));
+                } catch (RateLimitedException e) {
+                    OkLogger.w("outbox replay paused, " + e.getMessage() + ", url: " + entry.url);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            int code;
+            try (Response response = OkHttpUtils.getInstance().getOkHttpClient().newCall(request).execute()) {
+                code = response.code();
+            } catch (IOException e) {
+                OkLogger.printStackTrace(e);
+                return;
+            }
+            if (code == 408 || code == 429 || code >= 500) {
+                OkLogger.w("outbox replay paused, code: " + code + ", url: " + entry.url);
+                return;
+            }
+            // 成功或者不可重试的 4xx 都从队列里移除
+            if (code >= 400) {
+                OkLogger.w("outbox request dropped, code: " + code + ", url: " + entry.url);
+            }
+            remove(entry);
+        }
+    }
+
+    private void enqueue(String url, String contentType, String body, String coalesceKey) {
+        final Entry entry = new Entry();
+        entry.url = url;
+        entry.contentType = contentType;
+        entry.body = body;
+        entry.coalesceKey = coalesceKey;
+        entry.idempotencyKey = FeatureUtils.getUUID32();
+        entry.createTime = System.currentTimeMillis();
+        final List<Entry> coalesced = new ArrayList<>();
+        synchronized (this) {
+            entry.seq = Math.max(mLastSeq + 1, entry.createTime * 1000);
+            mLastSeq = entry.seq;
+            if (coalesceKey != null) {
+                Iterator<Entry> iterator = mEntries.iterator();
+                while (iterator.hasNext()) {
+                    Entry old = iterator.next();
+                    // 正在重放的第一条不合并，避免和正在发送的请求冲突
+                    if (coalesceKey.equals(old.coalesceKey) && !(mReplaying.get() && old == mEntries.get(0))) {
+                        iterator.remove();
+                        coalesced.add(old);
+                    }
+                }
+            }
+            mEntries.add(entry);
+        }
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Entry old : coalesced) {
+                    fileOf(old).delete();
+                }
+                // 写入失败时请求只保存在内存里，进程结束前仍然会重放
+                write(entry);
+            }
+        });
+    }
+
+    private void remove(final Entry entry) {
+        synchronized (this) {
+            mEntries.remove(entry);
+        }
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fileOf(entry).delete();
+            }
+        });
+    }
+
+    /**
+     * 在 IO 线程读取之前保存的请求，放在加载完成前新保存的请求之前
+     */
+    private void load() {
+        List<Entry> loaded = new ArrayList<>();
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            // 文件名是递增的序号，按名字排序就是入队顺序
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.getName().endsWith(FILE_SUFFIX)) {
+                    // 写入一半的临时文件
+                    file.delete();
+                    continue;
+                }
+                try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+                    loaded.add(GsonConverter.jsonToBean(source.readUtf8(), Entry.class));
+                } catch (Exception e) {
+                    OkLogger.printStackTrace(e);
+                    file.delete();
+                }
+            }
+        }
+        synchronized (this) {
+            Iterator<Entry> iterator = loaded.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                mLastSeq = Math.max(mLastSeq, entry.seq);
+                if (entry.coalesceKey != null && hasCoalesceKey(entry.coalesceKey)) {
+                    // 加载完成前已经保存了同一个合并键的新请求
+                    iterator.remove();
+                    fileOf(entry).delete();
+                }
+            }
+            mEntries.addAll(0, loaded);
+            mLoaded = true;
+            notifyAll();
+        }
+    }
+
+    private boolean hasCoalesceKey(String coalesceKey) {
+        for (Entry entry : mEntries) {
+            if (coalesceKey.equals(entry.coalesceKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 先写临时文件再重命名，保证文件要么完整要么不存在
+     */
+    private boolean write(Entry entry) {
+        File file = fileOf(entry);
+        File tmpFile = new File(mDir, file.getName() + ".tmp");
+        try (BufferedSink sink = Okio.buffer(Okio.sink(tmpFile))) {
+            sink.writeUtf8(GsonConverter.objectToJson(entry));
+        } catch (IOException e) {
+            OkLogger.printStackTrace(e);
+            tmpFile.delete();
+            return false;
+        }
+        return tmpFile.renameTo(file);
+    }
+
+    private File fileOf(Entry entry) {
+        return new File(mDir, String.format(Locale.US, "%020d", entry.seq) + FILE_SUFFIX);
+    }
+
+    static final class Entry {
+        long seq;
+        String url;
+        String contentType;
+        String body;
+        String idempotencyKey;
+        String coalesceKey;
+        long createTime;
+    }
+}
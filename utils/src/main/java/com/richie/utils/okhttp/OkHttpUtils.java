@@ -1,33 +1,68 @@
 package com.richie.utils.okhttp;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.provider.OpenableColumns;
 import android.webkit.MimeTypeMap;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedOutputStream;
+import com.google.gson.JsonIOException;
+import com.richie.utils.common.NetworkUtils;
+import com.richie.utils.common.ThreadHelper;
+
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.FormBody;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.HashingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
 
 /**
  * OkHttp 工具类
@@ -35,15 +70,73 @@ import okhttp3.logging.HttpLoggingInterceptor;
  * @author Richie on 2018.12.19
  */
 public final class OkHttpUtils {
+    public static final String DIGEST_MD5 = "MD5";
+    public static final String DIGEST_SHA256 = "SHA-256";
+    /**
+     * 在主线程回调，默认值
+     */
+    public static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            getInstance().runOnUiThread(command);
+        }
+    };
+    /**
+     * 在 {@link ThreadHelper} 的线程池回调，适合只写数据库、文件的回调
+     */
+    public static final Executor BACKGROUND_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            ThreadHelper.getInstance().execute(command);
+        }
+    };
+    /**
+     * 直接在 OkHttp 的线程回调，回调里不能有耗时操作
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
     private static final String NETWORK_FAILURE_MESSAGE = "网络访问失败";
     private static final String PARSE_FAILURE_MESSAGE = "数据解析失败";
     private static final String DOWNLOAD_FAILURE_MESSAGE = "文件下载失败";
     private static final String RESPONSE_FAILURE_MESSAGE = "响应错误 ";
     private static final String UPLOAD_FAILURE_MESSAGE = "文件上传失败 ";
+    private static final String OFFLINE_QUEUED_MESSAGE = "网络不可用，请求已加入离线队列";
+    private static final String DIGEST_FAILURE_MESSAGE = "文件校验失败";
+    private static final String OVERSIZE_FAILURE_MESSAGE = "响应数据过大";
+    private static final String PATCH_FAILURE_MESSAGE = "增量更新失败";
+    private static final String CIRCUIT_OPEN_MESSAGE = "服务暂时不可用";
+    private static final String RATE_LIMITED_MESSAGE = "请求过于频繁";
+    private static final String SPILL_FILE_PREFIX = "okhttp_spill";
     private static final int TIMEOUT = 10;
+    private static final long PROGRESS_INTERVAL_NANOS = 100000000L;
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
-    private OkHttpClient mOkHttpClient;
+    private volatile OkHttpClient mOkHttpClient;
     private Context mContext;
+    private AdaptiveConcurrencyController mConcurrencyController;
+    private OfflineOutbox mOfflineOutbox;
+    private volatile ContentStore mContentStore;
+    private volatile PrefetchScheduler mPrefetchScheduler;
+    private volatile RecordReplayInterceptor mRecordReplayInterceptor;
+    private ScheduledExecutorService mScheduler;
+    private volatile ConditionalCache mConditionalCache;
+    private volatile BandwidthLimiter mBandwidthLimiter;
+    private volatile long mMaxBodySize;
+    private volatile RequestHedger mRequestHedger;
+    private CircuitBreakerInterceptor mCircuitBreaker;
+    private volatile EndpointRateLimiter mRateLimiter;
+    private AdaptiveTimeoutInterceptor mTimeoutInterceptor;
+    private volatile Executor mCallbackExecutor;
+    private final ConcurrentHashMap<String, AtomicLong> mOversizeCounts = new ConcurrentHashMap<>();
+    private final AtomicLong mMergePatchBytesSaved = new AtomicLong();
+    /**
+     * 还没有结束的前台请求，包括在限流中排队、等待对冲的
+     */
+    private final AtomicInteger mForegroundCallCount = new AtomicInteger();
+    private final Set<ParkedCall> mParkedCalls = Collections.newSetFromMap(new ConcurrentHashMap<ParkedCall, Boolean>());
 
     private OkHttpUtils() {
     }
@@ -81,12 +174,353 @@ public final class OkHttpUtils {
         builder.hostnameVerifier(HttpsUtils.UnSafeHostnameVerifier);
         HttpUtils.getUserAgent();// 主线程初始化 UA
         mOkHttpClient = builder.build();
+        // 新的 client 不带之前添加的拦截器
+        mRecordReplayInterceptor = null;
+        mCircuitBreaker = null;
+        // 旧的控制器调整的是旧 client 的 Dispatcher
+        mConcurrencyController = null;
+        // 旧的限速器不在新的 client 上，后台传输会不限速
+        mBandwidthLimiter = null;
+        // 旧的超时拦截器上设置的规则不会生效
+        mTimeoutInterceptor = null;
     }
 
     public Context getContext() {
         return mContext;
     }
 
+    OkHttpClient getOkHttpClient() {
+        return mOkHttpClient;
+    }
+
+    /**
+     * 定时任务，只做调度，耗时操作不要放在这里执行
+     *
+     * @return
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (mScheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OkHttpUtils Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            mScheduler = executor;
+        }
+        return mScheduler;
+    }
+
+    /**
+     * 开启条件请求，getAsString 和 getAsEntity 会记住 ETag、Last-Modified 和响应，服务端返回 304 时直接回调保存的结果
+     * 注意 getAsEntity 在 304 时回调的是同一个实体对象，不要修改它
+     *
+     * @param maxEntries 最多保存的 url 数
+     * @param maxBytes   响应体占用的最大内存
+     */
+    public synchronized void enableConditionalGet(int maxEntries, long maxBytes) {
+        if (mConditionalCache == null) {
+            mConditionalCache = new ConditionalCache(maxEntries, maxBytes);
+        }
+    }
+
+    /**
+     * 条件请求的缓存，可以查看复用率，没有开启时返回 null
+     *
+     * @return
+     */
+    public ConditionalCache getConditionalCache() {
+        return mConditionalCache;
+    }
+
+    /**
+     * 开启空闲时预取，在 init 之后调用，通过 {@link #getPrefetchScheduler()} 登记要预取的 url
+     * 需要添加权限 ACCESS_NETWORK_STATE，只在不计流量的网络下预取，
+     * 需要把调度器注册为 {@link com.richie.utils.receiver.NetChangeReceiver} 的监听，切换到不计流量的网络后才会继续预取
+     *
+     * @param maxAgeMillis 预取结果的有效期
+     * @param maxEntries   最多保存的预取结果数
+     */
+    public synchronized void enablePrefetch(long maxAgeMillis, int maxEntries) {
+        if (mPrefetchScheduler != null) {
+            return;
+        }
+        mPrefetchScheduler = new PrefetchScheduler(maxAgeMillis, maxEntries);
+        mPrefetchScheduler.start();
+    }
+
+    /**
+     * 空闲时预取的调度器，可以登记预取、查看命中率，没有开启时返回 null
+     *
+     * @return
+     */
+    public PrefetchScheduler getPrefetchScheduler() {
+        return mPrefetchScheduler;
+    }
+
+    /**
+     * 开启录制或者回放，在 init 之后、其他 enable 方法之前调用，用于没有后端的离线性能测试
+     * 录制模式保存真实的请求和响应，回放模式不访问网络，按录制时的延迟返回
+     *
+     * @param mode      {@link RecordReplayInterceptor#MODE_RECORD} 或 {@link RecordReplayInterceptor#MODE_REPLAY}
+     * @param dir       录制文件的目录
+     * @param timeScale 回放时间的倍数，1 为原始时间，0 不等待，录制时不使用
+     */
+    public synchronized void enableRecordReplay(@RecordReplayInterceptor.Mode int mode, @NonNull File dir, double timeScale) {
+        if (mRecordReplayInterceptor != null) {
+            return;
+        }
+        mRecordReplayInterceptor = new RecordReplayInterceptor(mode, dir, timeScale);
+        addInterceptor(mRecordReplayInterceptor);
+    }
+
+    /**
+     * 录制回放拦截器，可以设置忽略的查询参数、查看回放次数，没有开启时返回 null
+     *
+     * @return
+     */
+    public RecordReplayInterceptor getRecordReplayInterceptor() {
+        return mRecordReplayInterceptor;
+    }
+
+    /**
+     * 开启按主机熔断，在 init 之后调用，熔断时请求立即以 "服务暂时不可用" 回调 onFailure，不用等超时
+     *
+     * @param windowSize           统计最近多少个请求
+     * @param failureRateThreshold 失败比例阈值，例如 0.5
+     * @param slowCallMillis       超过这个时间的请求算失败，小于等于 0 不统计慢请求
+     * @param openMillis           熔断多久后放行探测请求
+     */
+    public synchronized void enableCircuitBreaker(int windowSize, double failureRateThreshold, long slowCallMillis, long openMillis) {
+        if (mCircuitBreaker != null) {
+            return;
+        }
+        mCircuitBreaker = new CircuitBreakerInterceptor(windowSize, failureRateThreshold, slowCallMillis, openMillis);
+        OkHttpClient.Builder builder = mOkHttpClient.newBuilder();
+        // 放在最前面，熔断时后面的拦截器都不执行
+        builder.interceptors().add(0, mCircuitBreaker);
+        mOkHttpClient = builder.build();
+    }
+
+    /**
+     * 熔断拦截器，可以查看主机状态、监听状态变化，没有开启时返回 null
+     *
+     * @return
+     */
+    public CircuitBreakerInterceptor getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * 设置默认的回调线程，单个请求可以通过 {@link OkHttpCallback#setCallbackExecutor(Executor)} 覆盖
+     *
+     * @param callbackExecutor {@link #MAIN_THREAD_EXECUTOR}、{@link #BACKGROUND_EXECUTOR}、{@link #DIRECT_EXECUTOR}
+     *                         或自定义的 Executor，为 null 时在主线程回调
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * 开启按接口的超时，在 init 之后调用，代替所有接口共用的 {@link #TIMEOUT}
+     * 可以通过 {@link AdaptiveTimeoutInterceptor#setPolicy} 为慢接口设置固定超时，其他接口按观察到的延迟学习，重新 init 后需要重新开启
+     *
+     * @param factor        p99 延迟的倍数，例如 3
+     * @param floorMillis   学到的超时下限
+     * @param ceilingMillis 学到的超时上限
+     * @return
+     */
+    public synchronized AdaptiveTimeoutInterceptor enableAdaptiveTimeouts(double factor, long floorMillis, long ceilingMillis) {
+        if (mTimeoutInterceptor == null) {
+            mTimeoutInterceptor = new AdaptiveTimeoutInterceptor(factor, floorMillis, ceilingMillis);
+            addInterceptor(mTimeoutInterceptor);
+        }
+        return mTimeoutInterceptor;
+    }
+
+    /**
+     * 按接口的超时，没有开启时返回 null
+     *
+     * @return
+     */
+    public AdaptiveTimeoutInterceptor getTimeoutInterceptor() {
+        return mTimeoutInterceptor;
+    }
+
+    /**
+     * 开启客户端限流，通过返回的限流器按主机或路径添加规则，请求进入 Dispatcher 之前取令牌
+     *
+     * @return
+     */
+    public synchronized EndpointRateLimiter enableRateLimit() {
+        if (mRateLimiter == null) {
+            mRateLimiter = new EndpointRateLimiter();
+        }
+        return mRateLimiter;
+    }
+
+    /**
+     * 客户端限流器，可以查看每个规则的等待时间和拒绝次数，没有开启时返回 null
+     *
+     * @return
+     */
+    public EndpointRateLimiter getRateLimiter() {
+        return mRateLimiter;
+    }
+
+    /**
+     * 开启 GET 请求对冲，getAsString 和 getAsEntity 超过阈值没有响应时再发一个相同的请求，先返回的生效
+     *
+     * @param thresholdMillis 固定阈值，小于等于 0 时按接口最近的 p95 延迟计算
+     * @param budgetRatio     对冲请求占总请求数的最大比例，例如 0.05，每个请求积累这么多额度，最多积累 10 个
+     */
+    public synchronized void enableRequestHedging(long thresholdMillis, double budgetRatio) {
+        if (mRequestHedger == null) {
+            mRequestHedger = new RequestHedger(thresholdMillis, budgetRatio);
+        }
+    }
+
+    /**
+     * 请求对冲，可以查看对冲次数和胜出次数，没有开启时返回 null
+     *
+     * @return
+     */
+    public RequestHedger getRequestHedger() {
+        return mRequestHedger;
+    }
+
+    /**
+     * 设置字符串和实体响应在内存中的最大字节数，防止异常的接口返回超大数据导致 OOM
+     * 超过时 {@link SpillOkHttpCallback} 会收到写入缓存目录的临时文件，其他回调直接失败
+     *
+     * @param maxBodySize 小于等于 0 不限制，默认不限制
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        mMaxBodySize = maxBodySize;
+    }
+
+    /**
+     * 每个接口响应超过上限的次数，键是 host + path
+     *
+     * @return
+     */
+    public Map<String, Long> getOversizeCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mOversizeCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * 开启后台传输限速，在 init 之后调用，已经开启时只修改速率，重新 init 后需要重新开启
+     * 只对 downloadFileInBackground 和 uploadFileInBackground 生效，前台请求不受影响
+     *
+     * @param maxBytesPerSecond 所有后台传输加起来的速率上限，小于等于 0 不限制
+     */
+    public synchronized void enableBandwidthLimit(long maxBytesPerSecond) {
+        if (mBandwidthLimiter != null) {
+            mBandwidthLimiter.setMaxBytesPerSecond(maxBytesPerSecond);
+            return;
+        }
+        mBandwidthLimiter = new BandwidthLimiter(maxBytesPerSecond);
+        addInterceptor(mBandwidthLimiter);
+    }
+
+    /**
+     * 后台传输限速器，可以修改全局速率、查看实际速率，没有开启时返回 null
+     *
+     * @return
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return mBandwidthLimiter;
+    }
+
+    private synchronized BandwidthLimiter requireBandwidthLimiter() {
+        if (mBandwidthLimiter == null) {
+            enableBandwidthLimit(0);
+        }
+        return mBandwidthLimiter;
+    }
+
+    /**
+     * 设置离线发件箱，设置后没有网络时 postJsonAsString 和 postKeyValueAsString 会保存请求，网络恢复后重放
+     * 需要把发件箱注册为 {@link com.richie.utils.receiver.NetChangeReceiver} 的监听，或者在自己的监听里转发
+     *
+     * @param offlineOutbox 为 null 时关闭
+     */
+    public void setOfflineOutbox(OfflineOutbox offlineOutbox) {
+        mOfflineOutbox = offlineOutbox;
+    }
+
+    /**
+     * 设置按内容寻址的下载存储，供 {@link #downloadToStore(String, String, OkHttpCallback)} 使用
+     *
+     * @param contentStore 为 null 时关闭
+     */
+    public void setContentStore(ContentStore contentStore) {
+        mContentStore = contentStore;
+    }
+
+    public ContentStore getContentStore() {
+        return mContentStore;
+    }
+
+    /**
+     * 开启自适应并发控制，在 init 之后调用，初始并发数根据当前网络类型决定，重新 init 后需要重新开启
+     *
+     * @param minLimit 每个主机的最小并发数
+     * @param maxLimit 每个主机的最大并发数
+     */
+    public synchronized void enableAdaptiveConcurrency(int minLimit, int maxLimit) {
+        if (mConcurrencyController != null) {
+            return;
+        }
+        mConcurrencyController = new AdaptiveConcurrencyController(mOkHttpClient.dispatcher(), minLimit, maxLimit,
+                NetworkUtils.getNetworkType(mContext));
+        addInterceptor(mConcurrencyController);
+    }
+
+    /**
+     * 自适应并发控制器，没有开启时返回 null
+     *
+     * @return
+     */
+    public AdaptiveConcurrencyController getConcurrencyController() {
+        return mConcurrencyController;
+    }
+
+    /**
+     * 设置 TLS 会话缓存，网络切换后重连可以复用会话，减少完整握手
+     *
+     * @param sessionCacheSize      会话数量，小于等于 0 使用系统默认值
+     * @param sessionTimeoutSeconds 会话超时，单位秒，小于等于 0 使用系统默认值
+     */
+    public void setSslSessionCache(int sessionCacheSize, int sessionTimeoutSeconds) {
+        HttpsUtils.setSessionCache(sessionCacheSize, sessionTimeoutSeconds);
+    }
+
+    /**
+     * 完整 TLS 握手的次数
+     *
+     * @return
+     */
+    public long getFullHandshakeCount() {
+        return HttpsUtils.getFullHandshakeCount();
+    }
+
+    /**
+     * 复用会话的 TLS 握手次数
+     *
+     * @return
+     */
+    public long getResumedHandshakeCount() {
+        return HttpsUtils.getResumedHandshakeCount();
+    }
+
     public void getAsString(@NonNull String url, @NonNull OkHttpCallback<String> callback) {
         getAsString(url, null, callback);
     }
@@ -98,11 +532,23 @@ public final class OkHttpUtils {
      * @param paramMap
      * @param callback
      */
-    public void getAsString(@NonNull String url, Map<String, String> paramMap, @NonNull OkHttpCallback<String> callback) {
+    public void getAsString(@NonNull String url, Map<String, String> paramMap, @NonNull final OkHttpCallback<String> callback) {
         if (paramMap != null) {
             url = HttpUtils.attachHttpGetParams(url, paramMap);
         }
-        Request request = buildGetRequest(url);
+        final String prefetched = takePrefetched(url);
+        if (prefetched != null) {
+            deliver(callback, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onStart();
+                    callback.onSuccess(prefetched);
+                    callback.onFinish();
+                }
+            });
+            return;
+        }
+        Request request = buildConditionalGetRequest(url);
         newStringCall(callback, request);
     }
 
@@ -129,10 +575,29 @@ public final class OkHttpUtils {
         if (paramMap != null) {
             url = HttpUtils.attachHttpGetParams(url, paramMap);
         }
-        Request request = buildGetRequest(url);
+        String prefetched = takePrefetched(url);
+        if (prefetched != null) {
+            deliverPrefetched(prefetched, callback);
+            return;
+        }
+        Request request = buildConditionalGetRequest(url);
         newEntityCall(callback, request);
     }
 
+    /**
+     * 发送 Get 请求，响应是 JSON 数组或者按行分隔的 JSON（NDJSON），边接收边解析，不用等整个响应结束
+     * 回调空闲时已经解析的数据立即回调，回调忙时攒成最多 batchSize 条一批；攒满后暂停读取，不会在内存里堆积
+     *
+     * @param url
+     * @param batchSize 每批最多的条数
+     * @param callback
+     * @param <T>
+     */
+    public <T> void getAsStream(@NonNull String url, int batchSize, @NonNull final StreamOkHttpCallback<T> callback) {
+        Request request = buildGetRequest(url);
+        newStreamCall(callback, request, Math.max(1, batchSize));
+    }
+
     /**
      * 发送 Post 键值对，表单数据，返回字符串
      *
@@ -142,6 +607,19 @@ public final class OkHttpUtils {
      */
     public void postKeyValueAsString(@NonNull String url, Map<String, String> paramMap, @NonNull OkHttpCallback<String> callback) {
         Request request = buildPostRequest(url, paramMap);
+        OfflineOutbox offlineOutbox = mOfflineOutbox;
+        if (offlineOutbox != null && !NetworkUtils.isConnected(mContext)) {
+            Buffer buffer = new Buffer();
+            try {
+                request.body().writeTo(buffer);
+            } catch (IOException e) {
+                // Buffer 不会抛出异常
+                throw new AssertionError(e);
+            }
+            offlineOutbox.enqueueForm(url, buffer.readUtf8(), null);
+            onOfflineQueued(callback);
+            return;
+        }
         newStringCall(callback, request);
     }
 
@@ -165,6 +643,12 @@ public final class OkHttpUtils {
      * @param callback
      */
     public void postJsonAsString(@NonNull String url, @NonNull String jsonStr, @NonNull OkHttpCallback<String> callback) {
+        OfflineOutbox offlineOutbox = mOfflineOutbox;
+        if (offlineOutbox != null && !NetworkUtils.isConnected(mContext)) {
+            offlineOutbox.enqueueJson(url, jsonStr, null);
+            onOfflineQueued(callback);
+            return;
+        }
         RequestBody requestBody = RequestBody.create(HttpUtils.MEDIA_TYPE_JSON, jsonStr);
         Request request = buildPostRequest(url, requestBody);
         newStringCall(callback, request);
@@ -183,6 +667,42 @@ public final class OkHttpUtils {
         newEntityCall(callback, request);
     }
 
+    /**
+     * 发送 PATCH 请求，只包含 original 到 modified 变化的字段（JSON Merge Patch），返回值是数据实体
+     * 编辑页面在修改前用 {@link JsonMergePatch#snapshot(Object)} 保存原始状态，保存时传入快照和修改后的对象
+     *
+     * @param url
+     * @param original 修改前的对象或者快照
+     * @param modified 修改后的对象
+     * @param callback 没有变化时不发送请求，直接回调 modified 转换后的实体
+     * @return 补丁和节省的字节数
+     */
+    public <T> JsonMergePatch.Result patchJsonAsEntity(@NonNull String url, @NonNull Object original, @NonNull Object modified,
+                                                       @NonNull OkHttpCallback<T> callback) {
+        JsonMergePatch.Result result = JsonMergePatch.diff(original, modified);
+        if (result.isEmpty()) {
+            deliverUnchanged(result, callback);
+            return result;
+        }
+        mMergePatchBytesSaved.addAndGet(result.getBytesSaved());
+        RequestBody requestBody = RequestBody.create(HttpUtils.MEDIA_TYPE_MERGE_PATCH, result.toJson());
+        Request request = new Request.Builder()
+                .patch(requestBody)
+                .url(url)
+                .build();
+        newEntityCall(callback, request);
+        return result;
+    }
+
+    /**
+     * {@link #patchJsonAsEntity} 累计节省的上传字节数，只统计发送了的补丁
+     *
+     * @return
+     */
+    public long getMergePatchBytesSaved() {
+        return mMergePatchBytesSaved.get();
+    }
+
     /**
      * 下载文件
      *
@@ -191,128 +711,457 @@ public final class OkHttpUtils {
      * @param callback
      */
     public void downloadFile(@NonNull String url, @NonNull final File destDir, @NonNull final OkHttpCallback<File> callback) {
-        final File file = new File(destDir, HttpUtils.getUrlFileName(url));
-        if (file.exists()) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    callback.onStart();
-                    callback.onSuccess(file);
-                    callback.onFinish();
-                }
-            });
-            return;
-        }
-        Request request = buildGetRequest(url);
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                callback.onStart();
-            }
-        });
-        mOkHttpClient.newCall(request)
-                .enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        onRequestFailure(e, callback);
-                    }
+        downloadFile(url, destDir, null, null, callback);
+    }
 
-                    @Override
-                    public void onResponse(Call call, Response response) {
-                        if (response.isSuccessful()) {
-                            InputStream is = null;
-                            BufferedOutputStream bos = null;
-                            try {
-                                is = response.body().byteStream();
-                                bos = new BufferedOutputStream(new FileOutputStream(file));
-                                byte[] bytes = new byte[10240];
-                                int len;
-                                while ((len = is.read(bytes)) != -1) {
-                                    bos.write(bytes, 0, len);
-                                }
-                                bos.flush();
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onSuccess(file);
-                                    }
-                                });
-                            } catch (Exception e) {
-                                OkLogger.printStackTrace(e);
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFailure(DOWNLOAD_FAILURE_MESSAGE);
-                                    }
-                                });
-                            } finally {
-                                if (bos != null) {
-                                    try {
-                                        bos.close();
-                                    } catch (IOException e) {
-                                        // ignored
-                                    }
-                                }
-                                if (is != null) {
-                                    try {
-                                        is.close();
-                                    } catch (IOException e) {
-                                        // ignored
-                                    }
-                                }
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFinish();
-                                    }
-                                });
-                            }
-                        } else {
-                            onResponseFailure(response, callback);
-                        }
-                    }
-                });
+    /**
+     * 下载文件，写入临时文件的同时计算摘要，和期望值不一致时删除临时文件并回调失败，不用下载后再读一遍文件校验
+     * 文件已经存在时先在后台校验，一致才直接返回，否则重新下载
+     *
+     * @param url
+     * @param destDir
+     * @param algorithm      {@link #DIGEST_MD5} 或 {@link #DIGEST_SHA256}，为 null 不校验
+     * @param expectedDigest 十六进制的摘要，不区分大小写，algorithm 不为 null 时必须设置
+     * @param callback
+     * @throws IllegalArgumentException 不支持的算法或者没有设置摘要
+     */
+    public void downloadFile(@NonNull String url, @NonNull final File destDir, final String algorithm,
+                             final String expectedDigest, @NonNull final OkHttpCallback<File> callback) {
+        downloadFile(url, destDir, null, algorithm, expectedDigest, callback);
     }
 
     /**
-     * 上传文件
+     * 后台下载文件，受 {@link #enableBandwidthLimit(long)} 的全局限速和这里的单独限速控制，不影响前台请求
      *
      * @param url
-     * @param file
+     * @param destDir
+     * @param maxBytesPerSecond 这个下载的速率上限，小于等于 0 只受全局限制
      * @param callback
+     * @return 可以修改限速、查看实际速率
      */
-    public void uploadFile(@NonNull String url, @NonNull File file, @NonNull final OkHttpCallback<String> callback) {
-        if (!file.exists() || !file.isFile()) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    callback.onStart();
-                    callback.onFailure(UPLOAD_FAILURE_MESSAGE);
-                    callback.onFinish();
-                }
+    public BandwidthLimiter.Transfer downloadFileInBackground(@NonNull String url, @NonNull File destDir, long maxBytesPerSecond,
+                                                              @NonNull OkHttpCallback<File> callback) {
+        BandwidthLimiter.Transfer transfer = requireBandwidthLimiter().newTransfer(maxBytesPerSecond);
+        downloadFile(url, destDir, transfer, null, null, callback);
+        return transfer;
+    }
+
+    /**
+     * 下载文件到 {@link #setContentStore(ContentStore)} 设置的存储，已知内容的 url 不再下载
+     *
+     * @param url
+     * @param callback 文件以摘要命名，需要原文件名时自己保存
+     */
+    public void downloadToStore(@NonNull String url, @NonNull OkHttpCallback<File> callback) {
+        downloadToStore(url, null, callback);
+    }
+
+    /**
+     * 下载文件到 {@link #setContentStore(ContentStore)} 设置的存储，url 或者摘要对应的内容已经存在时不再下载
+     *
+     * @param url
+     * @param expectedDigest 十六进制的 SHA-256，为 null 不校验
+     * @param callback       文件以摘要命名，需要原文件名时自己保存
+     */
+    public void downloadToStore(@NonNull final String url, final String expectedDigest, @NonNull final OkHttpCallback<File> callback) {
+        final ContentStore store = mContentStore;
+        if (store == null) {
+            throw new IllegalStateException("content store not set");
+        }
+        // 存储可能还在加载索引，不在调用线程查询
+        ThreadHelper.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                File stored = store.get(url);
+                if (stored == null && expectedDigest != null) {
+                    stored = store.link(url, expectedDigest);
+                }
+                if (stored != null) {
+                    final File file = stored;
+                    deliver(callback, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onStart();
+                            callback.onSuccess(file);
+                            callback.onFinish();
+                        }
+                    });
+                } else {
+                    enqueueStoreDownload(store, url, expectedDigest, callback);
+                }
+            }
+        });
+    }
+
+    private void enqueueStoreDownload(@NonNull final ContentStore store, @NonNull final String url, final String expectedDigest,
+                                      @NonNull final OkHttpCallback<File> callback) {
+        Request request = buildGetRequest(url);
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+            }
+        });
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (response.isSuccessful()) {
+                    File file = null;
+                    try {
+                        file = store.put(url, response.body().source(), expectedDigest);
+                    } catch (Exception e) {
+                        OkLogger.printStackTrace(e);
+                    }
+                    final File finalFile = file;
+                    deliver(callback, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (finalFile != null) {
+                                callback.onSuccess(finalFile);
+                            } else {
+                                callback.onFailure(DOWNLOAD_FAILURE_MESSAGE);
+                            }
+                            callback.onFinish();
+                        }
+                    });
+                } else {
+                    onResponseFailure(response, callback);
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * 增量更新，下载补丁并和本地旧文件合成新文件，边下载边合成，校验通过后才替换 destFile，失败时旧文件不受影响
+     * 补丁格式见 {@link DeltaPatcher}
+     *
+     * @param patchUrl       补丁地址
+     * @param oldFile        本地旧文件
+     * @param destFile       新文件，可以和 oldFile 相同
+     * @param algorithm      {@link #DIGEST_MD5} 或 {@link #DIGEST_SHA256}，为 null 不校验
+     * @param expectedDigest 新文件的十六进制摘要，不区分大小写
+     * @param callback       可以从结果里获取节省的字节数
+     */
+    public void downloadPatch(@NonNull String patchUrl, @NonNull final File oldFile, @NonNull final File destFile, final String algorithm,
+                              final String expectedDigest, @NonNull final OkHttpCallback<DeltaPatcher.Result> callback) {
+        Request request = buildGetRequest(patchUrl);
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+            }
+        });
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (response.isSuccessful()) {
+                    DeltaPatcher.Result result = null;
+                    String errorMsg = null;
+                    try {
+                        result = DeltaPatcher.applyPatch(oldFile, response.body().source(), destFile, algorithm, expectedDigest);
+                        OkLogger.d("patch applied: " + result + ", saved bytes: " + result.getBytesSaved());
+                    } catch (DigestMismatchException e) {
+                        OkLogger.w(e.getMessage() + ", file: " + destFile);
+                        errorMsg = DIGEST_FAILURE_MESSAGE;
+                    } catch (PatchFormatException | RuntimeException e) {
+                        OkLogger.printStackTrace(e);
+                        errorMsg = PATCH_FAILURE_MESSAGE;
+                    } catch (IOException e) {
+                        OkLogger.printStackTrace(e);
+                        errorMsg = DOWNLOAD_FAILURE_MESSAGE;
+                    }
+                    final DeltaPatcher.Result finalResult = result;
+                    final String finalErrorMsg = errorMsg;
+                    deliver(callback, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (finalErrorMsg == null) {
+                                callback.onSuccess(finalResult);
+                            } else {
+                                callback.onFailure(finalErrorMsg);
+                            }
+                            callback.onFinish();
+                        }
+                    });
+                } else {
+                    onResponseFailure(response, callback);
+                }
+            }
+        }, false);
+    }
+
+    private void downloadFile(@NonNull final String url, @NonNull final File destDir, final BandwidthLimiter.Transfer transfer,
+                              final String algorithm, final String expectedDigest, @NonNull final OkHttpCallback<File> callback) {
+        checkDigestAlgorithm(algorithm, expectedDigest);
+        final File file = new File(destDir, HttpUtils.getUrlFileName(url));
+        if (!file.exists()) {
+            enqueueDownload(url, file, transfer, algorithm, expectedDigest, callback);
+        } else if (algorithm == null) {
+            deliverDownloaded(file, callback);
+        } else {
+            // 已有的文件可能是旧版本或者被改动过，校验通过才直接返回
+            ThreadHelper.getInstance().execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean valid = false;
+                    try {
+                        valid = digestEquals(fileDigest(file, algorithm), expectedDigest);
+                    } catch (IOException e) {
+                        OkLogger.printStackTrace(e);
+                    }
+                    if (valid) {
+                        deliverDownloaded(file, callback);
+                    } else {
+                        OkLogger.w("existing file digest mismatch, download again: " + file);
+                        file.delete();
+                        enqueueDownload(url, file, transfer, algorithm, expectedDigest, callback);
+                    }
+                }
+            });
+        }
+    }
+
+    private void deliverDownloaded(final File file, final OkHttpCallback<File> callback) {
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+                callback.onSuccess(file);
+                callback.onFinish();
+            }
+        });
+    }
+
+    private void enqueueDownload(String url, final File file, BandwidthLimiter.Transfer transfer, final String algorithm,
+                                 final String expectedDigest, final OkHttpCallback<File> callback) {
+        Request request = withTransfer(buildGetRequest(url), transfer);
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+            }
+        });
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (response.isSuccessful()) {
+                    String errorMsg;
+                    try {
+                        errorMsg = writeResponseToFile(response, file, algorithm, expectedDigest);
+                    } catch (Exception e) {
+                        OkLogger.printStackTrace(e);
+                        errorMsg = DOWNLOAD_FAILURE_MESSAGE;
+                    }
+                    final String finalErrorMsg = errorMsg;
+                    deliver(callback, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (finalErrorMsg == null) {
+                                callback.onSuccess(file);
+                            } else {
+                                callback.onFailure(finalErrorMsg);
+                            }
+                            callback.onFinish();
+                        }
+                    });
+                } else {
+                    onResponseFailure(response, callback);
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * 上传文件
+     *
+     * @param url
+     * @param file
+     * @param callback
+     */
+    public void uploadFile(@NonNull String url, @NonNull File file, @NonNull final OkHttpCallback<String> callback) {
+        uploadFile(url, file, null, callback);
+    }
+
+    /**
+     * 后台上传文件，受 {@link #enableBandwidthLimit(long)} 的全局限速和这里的单独限速控制，不影响前台请求
+     *
+     * @param url
+     * @param file
+     * @param maxBytesPerSecond 这个上传的速率上限，小于等于 0 只受全局限制
+     * @param callback
+     * @return 可以修改限速、查看实际速率
+     */
+    public BandwidthLimiter.Transfer uploadFileInBackground(@NonNull String url, @NonNull File file, long maxBytesPerSecond,
+                                                            @NonNull OkHttpCallback<String> callback) {
+        BandwidthLimiter.Transfer transfer = requireBandwidthLimiter().newTransfer(maxBytesPerSecond);
+        uploadFile(url, file, transfer, callback);
+        return transfer;
+    }
+
+    private void uploadFile(@NonNull String url, @NonNull File file, BandwidthLimiter.Transfer transfer,
+                            @NonNull final OkHttpCallback<String> callback) {
+        if (!file.exists() || !file.isFile()) {
+            deliver(callback, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onStart();
+                    callback.onFailure(UPLOAD_FAILURE_MESSAGE);
+                    callback.onFinish();
+                }
             });
             return;
         }
         RequestBody fileBody = RequestBody.create(HttpUtils.MEDIA_TYPE_STREAM, file);
-        Request request = buildPostRequest(url, fileBody);
-        runOnUiThread(new Runnable() {
+        Request request = withTransfer(buildPostRequest(url, fileBody), transfer);
+        newUploadCall(callback, request);
+    }
+
+    /**
+     * 上传输入流，直接从流写入请求，不用先保存成文件，流在上传结束后关闭
+     *
+     * @param url
+     * @param inputStream
+     * @param contentLength 未知时传 -1，使用分块传输
+     * @param callback      {@link UploadProgressOkHttpCallback} 可以收到进度
+     */
+    public void uploadStream(@NonNull String url, @NonNull InputStream inputStream, long contentLength,
+                             @NonNull OkHttpCallback<String> callback) {
+        uploadStream(url, Okio.source(inputStream), contentLength, callback);
+    }
+
+    /**
+     * 上传 Okio 数据源，直接从数据源写入请求，不用先保存成文件，数据源在上传结束后关闭
+     *
+     * @param url
+     * @param source
+     * @param contentLength 未知时传 -1，使用分块传输
+     * @param callback      {@link UploadProgressOkHttpCallback} 可以收到进度
+     */
+    public void uploadStream(@NonNull String url, @NonNull Source source, long contentLength,
+                             @NonNull OkHttpCallback<String> callback) {
+        StreamRequestBody.OneShotOpener opener = new StreamRequestBody.OneShotOpener(source);
+        RequestBody body = new StreamRequestBody(HttpUtils.MEDIA_TYPE_STREAM, contentLength, opener, true,
+                progressListenerOf(callback));
+        newUploadCall(callback, buildPostRequest(url, body), opener);
+    }
+
+    /**
+     * 上传 content Uri 的内容，例如相机和相册返回的 Uri，直接从 ContentResolver 读取，不用先复制成文件
+     * 长度和类型从 ContentResolver 查询，长度未知时使用分块传输；每次发送都会重新打开 Uri，失败后可以重试
+     *
+     * @param url
+     * @param uri
+     * @param callback {@link UploadProgressOkHttpCallback} 可以收到进度
+     */
+    public void uploadUri(@NonNull final String url, @NonNull final Uri uri, @NonNull final OkHttpCallback<String> callback) {
+        final ContentResolver resolver = mContext.getContentResolver();
+        // 查询 ContentProvider 可能很慢，不在调用线程查询
+        ThreadHelper.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                String type = resolver.getType(uri);
+                MediaType contentType = type != null ? MediaType.parse(type) : null;
+                RequestBody body = new StreamRequestBody(contentType != null ? contentType : HttpUtils.MEDIA_TYPE_STREAM,
+                        queryContentLength(resolver, uri), new StreamRequestBody.SourceOpener() {
+                    @Override
+                    public Source open() throws IOException {
+                        InputStream inputStream = resolver.openInputStream(uri);
+                        if (inputStream == null) {
+                            throw new FileNotFoundException("cannot open " + uri);
+                        }
+                        return Okio.source(inputStream);
+                    }
+                }, false, progressListenerOf(callback));
+                newUploadCall(callback, buildPostRequest(url, body));
+            }
+        });
+    }
+
+    private long queryContentLength(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (Exception e) {
+            OkLogger.printStackTrace(e);
+        }
+        return -1;
+    }
+
+    private StreamRequestBody.ProgressListener progressListenerOf(@NonNull final OkHttpCallback<String> callback) {
+        if (!(callback instanceof UploadProgressOkHttpCallback)) {
+            return null;
+        }
+        final UploadProgressOkHttpCallback progressCallback = (UploadProgressOkHttpCallback) callback;
+        return new StreamRequestBody.ProgressListener() {
+            private long mLastNanos;
+
+            @Override
+            public void onProgress(final long current, final long total) {
+                long now = System.nanoTime();
+                // 限制回调频率，最后一次总是回调
+                if (current != total && now - mLastNanos < PROGRESS_INTERVAL_NANOS) {
+                    return;
+                }
+                mLastNanos = now;
+                deliver(callback, new Runnable() {
+                    @Override
+                    public void run() {
+                        progressCallback.onProgress(current, total);
+                    }
+                });
+            }
+        };
+    }
+
+    private void newUploadCall(@NonNull final OkHttpCallback<String> callback, Request request) {
+        newUploadCall(callback, request, null);
+    }
+
+    /**
+     * @param opener 只能读一次的数据源，请求结束时还没有写入就关闭，可以为 null
+     */
+    private void newUploadCall(@NonNull final OkHttpCallback<String> callback, Request request,
+                               final StreamRequestBody.OneShotOpener opener) {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.onStart();
             }
         });
-        mOkHttpClient.newCall(request).enqueue(new Callback() {
+        enqueue(request, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
+                if (opener != null) {
+                    opener.closeIfUnopened();
+                }
                 onRequestFailure(e, callback);
             }
 
             @Override
             public void onResponse(Call call, Response response) {
+                if (opener != null) {
+                    opener.closeIfUnopened();
+                }
                 if (response.isSuccessful()) {
                     try {
                         final String string = response.body().string();
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onSuccess(string);
@@ -320,14 +1169,14 @@ public final class OkHttpUtils {
                         });
                     } catch (Exception e) {
                         OkLogger.printStackTrace(e);
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onFailure(PARSE_FAILURE_MESSAGE);
                             }
                         });
                     } finally {
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onFinish();
@@ -338,7 +1187,7 @@ public final class OkHttpUtils {
                     onResponseFailure(response, callback);
                 }
             }
-        });
+        }, false);
     }
 
     /**
@@ -353,7 +1202,7 @@ public final class OkHttpUtils {
     public void uploadFile(@NonNull String url, @NonNull String name, @NonNull File file,
                            @NonNull Map<String, String> paramMap, @NonNull final OkHttpCallback<String> callback) {
         if (!file.exists() || !file.isFile()) {
-            runOnUiThread(new Runnable() {
+            deliver(callback, new Runnable() {
                 @Override
                 public void run() {
                     callback.onStart();
@@ -373,13 +1222,13 @@ public final class OkHttpUtils {
         String fileName = System.currentTimeMillis() + "." + fileExtension;
         mbBuilder.addFormDataPart(name, fileName, RequestBody.create(HttpUtils.MEDIA_TYPE_STREAM, file));
         Request request = buildPostRequest(url, mbBuilder.build());
-        runOnUiThread(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.onStart();
             }
         });
-        mOkHttpClient.newCall(request).enqueue(new Callback() {
+        enqueue(request, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 onRequestFailure(e, callback);
@@ -390,7 +1239,7 @@ public final class OkHttpUtils {
                 if (response.isSuccessful()) {
                     try {
                         final String string = response.body().string();
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onSuccess(string);
@@ -398,14 +1247,14 @@ public final class OkHttpUtils {
                         });
                     } catch (Exception e) {
                         OkLogger.printStackTrace(e);
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onFailure(PARSE_FAILURE_MESSAGE);
                             }
                         });
                     } finally {
-                        runOnUiThread(new Runnable() {
+                        deliver(callback, new Runnable() {
                             @Override
                             public void run() {
                                 callback.onFinish();
@@ -416,13 +1265,27 @@ public final class OkHttpUtils {
                     onResponseFailure(response, callback);
                 }
             }
-        });
+        }, false);
+    }
+
+    /**
+     * 创建 WebSocket 长连接，使用共享的 client，修改配置后调用 {@link WebSocketClient#connect()}
+     *
+     * @param url      ws:// 或 wss:// 地址
+     * @param listener
+     * @return
+     */
+    public WebSocketClient newWebSocketClient(@NonNull String url, @NonNull WebSocketClient.Listener listener) {
+        return new WebSocketClient(url, listener);
     }
 
     /**
-     * 取消所有网络请求
+     * 取消所有网络请求，包括限流排队中的
      */
     public void cancelAll() {
+        for (ParkedCall parkedCall : mParkedCalls) {
+            parkedCall.cancel();
+        }
         List<Call> queuedCalls = mOkHttpClient.dispatcher().queuedCalls();
         for (Call call : queuedCalls) {
             call.cancel();
@@ -439,6 +1302,11 @@ public final class OkHttpUtils {
      * @param tag
      */
     public void cancelTag(@NonNull String tag) {
+        for (ParkedCall parkedCall : mParkedCalls) {
+            if (tag.equals(parkedCall.mRequest.tag())) {
+                parkedCall.cancel();
+            }
+        }
         List<Call> queuedCalls = mOkHttpClient.dispatcher().queuedCalls();
         for (Call call : queuedCalls) {
             if (tag.equals(call.request().tag())) {
@@ -453,12 +1321,42 @@ public final class OkHttpUtils {
         }
     }
 
+    /**
+     * 在已有的 client 上追加拦截器，连接池和 Dispatcher 保持共享
+     *
+     * @param interceptor
+     */
+    private void addInterceptor(Interceptor interceptor) {
+        mOkHttpClient = mOkHttpClient.newBuilder()
+                .addInterceptor(interceptor)
+                .build();
+    }
+
+    private <T> void onOfflineQueued(@NonNull final OkHttpCallback<T> callback) {
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+                callback.onFailure(OFFLINE_QUEUED_MESSAGE);
+                callback.onFinish();
+            }
+        });
+    }
+
     private <T> void onRequestFailure(IOException e, @NonNull final OkHttpCallback<T> callback) {
         OkLogger.printStackTrace(e);
-        runOnUiThread(new Runnable() {
+        final String errorMsg;
+        if (e instanceof CircuitOpenException) {
+            errorMsg = CIRCUIT_OPEN_MESSAGE;
+        } else if (e instanceof RateLimitedException) {
+            errorMsg = RATE_LIMITED_MESSAGE;
+        } else {
+            errorMsg = NETWORK_FAILURE_MESSAGE;
+        }
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
-                callback.onFailure(NETWORK_FAILURE_MESSAGE);
+                callback.onFailure(errorMsg);
                 callback.onFinish();
             }
         });
@@ -472,6 +1370,18 @@ public final class OkHttpUtils {
                 .build();
     }
 
+    @NonNull
+    private Request withTransfer(@NonNull Request request, BandwidthLimiter.Transfer transfer) {
+        return transfer != null ? request.newBuilder().tag(BandwidthLimiter.Transfer.class, transfer).build() : request;
+    }
+
+    @NonNull
+    private Request buildConditionalGetRequest(@NonNull String url) {
+        Request request = buildGetRequest(url);
+        ConditionalCache conditionalCache = mConditionalCache;
+        return conditionalCache != null ? conditionalCache.conditional(request) : request;
+    }
+
     @NonNull
     private Request buildPostRequest(@NonNull String url, RequestBody requestBody) {
         return new Request.Builder()
@@ -496,104 +1406,514 @@ public final class OkHttpUtils {
                 .build();
     }
 
+    /**
+     * 所有请求的入口，先经过限流，需要排队时由定时任务延后发出，不占用 Dispatcher
+     *
+     * @param hedgeable 是否可以对冲，只有字符串和实体请求可以
+     */
+    void enqueue(final Request request, Callback callback, final boolean hedgeable) {
+        PrefetchScheduler prefetchScheduler = mPrefetchScheduler;
+        if (prefetchScheduler != null && request.tag(BandwidthLimiter.Transfer.class) == null) {
+            // 前台请求优先，后台传输不算
+            prefetchScheduler.onInteractiveRequest();
+            callback = new ForegroundCallback(callback);
+        }
+        EndpointRateLimiter rateLimiter = mRateLimiter;
+        long waitNanos = 0;
+        if (rateLimiter != null) {
+            try {
+                waitNanos = rateLimiter.acquire(request);
+            } catch (RateLimitedException e) {
+                callback.onFailure(mOkHttpClient.newCall(request), e);
+                return;
+            }
+        }
+        if (waitNanos > 0) {
+            ParkedCall parkedCall = new ParkedCall(request, callback, hedgeable);
+            mParkedCalls.add(parkedCall);
+            parkedCall.mFuture = getScheduler().schedule(parkedCall, waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            dispatch(request, callback, hedgeable);
+        }
+    }
+
+    /**
+     * 还没有结束的前台请求数，{@link PrefetchScheduler} 据此判断是否空闲
+     */
+    int getForegroundCallCount() {
+        return mForegroundCallCount.get();
+    }
+
+    /**
+     * 开启对冲时 GET 请求交给 {@link RequestHedger}
+     */
+    private void dispatch(Request request, Callback callback, boolean hedgeable) {
+        RequestHedger requestHedger = mRequestHedger;
+        if (hedgeable && requestHedger != null && "GET".equals(request.method())) {
+            requestHedger.enqueue(mOkHttpClient, request, callback);
+        } else {
+            mOkHttpClient.newCall(request).enqueue(callback);
+        }
+    }
+
     private void newStringCall(@NonNull final OkHttpCallback<String> callback, Request request) {
-        runOnUiThread(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.onStart();
             }
         });
-        mOkHttpClient.newCall(request)
-                .enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        onRequestFailure(e, callback);
-                    }
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
 
-                    @Override
-                    public void onResponse(Call call, Response response) {
-                        if (response.isSuccessful()) {
-                            try {
-                                final String string = response.body().string();
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onSuccess(string);
-                                    }
-                                });
-                            } catch (Exception e) {
-                                OkLogger.printStackTrace(e);
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFailure(PARSE_FAILURE_MESSAGE);
-                                    }
-                                });
-                            } finally {
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFinish();
-                                    }
-                                });
-                            }
-                        } else {
-                            onResponseFailure(response, callback);
+            @Override
+            public void onResponse(Call call, Response response) {
+                ConditionalCache conditionalCache = mConditionalCache;
+                final ConditionalCache.Entry entry = conditionalCache != null ? conditionalCache.notModified(response) : null;
+                if (entry != null) {
+                    deliver(callback, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onSuccess(entry.mBody);
+                            callback.onFinish();
+                        }
+                    });
+                } else if (response.isSuccessful()) {
+                    try {
+                        final String string = readBoundedString(response);
+                        if (string == null) {
+                            onOversize(response, callback);
+                            return;
                         }
+                        if (conditionalCache != null) {
+                            conditionalCache.put(response, string, null, null);
+                        }
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSuccess(string);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // 读取响应体或写入临时文件失败
+                        OkLogger.printStackTrace(e);
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(NETWORK_FAILURE_MESSAGE);
+                            }
+                        });
+                    } catch (Exception e) {
+                        OkLogger.printStackTrace(e);
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(PARSE_FAILURE_MESSAGE);
+                            }
+                        });
+                    } finally {
+                        response.close();
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFinish();
+                            }
+                        });
                     }
-                });
+                } else {
+                    onResponseFailure(response, callback);
+                }
+            }
+        }, true);
+    }
+
+    private String takePrefetched(String url) {
+        PrefetchScheduler prefetchScheduler = mPrefetchScheduler;
+        return prefetchScheduler != null ? prefetchScheduler.take(url) : null;
+    }
+
+    /**
+     * 回调声明的泛型参数，例如 new OkHttpCallback&lt;User&gt;() {} 的 User，回调必须是直接的匿名子类
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Class<T> typeArgumentOf(@NonNull OkHttpCallback<?> callback) {
+        Type type = callback.getClass().getGenericSuperclass();
+        Type[] params = ((ParameterizedType) type).getActualTypeArguments();
+        return (Class<T>) params[0];
+    }
+
+    private <T> void deliverUnchanged(@NonNull JsonMergePatch.Result result, @NonNull final OkHttpCallback<T> callback) {
+        T t = null;
+        try {
+            Class<T> responseClass = typeArgumentOf(callback);
+            t = GsonConverter.getGson().fromJson(result.getModified(), responseClass);
+        } catch (Exception e) {
+            OkLogger.printStackTrace(e);
+        }
+        final T finalT = t;
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+                if (finalT != null) {
+                    callback.onSuccess(finalT);
+                } else {
+                    callback.onFailure(PARSE_FAILURE_MESSAGE);
+                }
+                callback.onFinish();
+            }
+        });
+    }
+
+    private <T> void deliverPrefetched(String body, @NonNull final OkHttpCallback<T> callback) {
+        T t = null;
+        try {
+            Class<T> responseClass = typeArgumentOf(callback);
+            t = GsonConverter.jsonToBean(body, responseClass);
+        } catch (Exception e) {
+            OkLogger.printStackTrace(e);
+        }
+        final T finalT = t;
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+                if (finalT != null) {
+                    callback.onSuccess(finalT);
+                } else {
+                    callback.onFailure(PARSE_FAILURE_MESSAGE);
+                }
+                callback.onFinish();
+            }
+        });
     }
 
     private <T> void newEntityCall(@NonNull final OkHttpCallback<T> callback, Request request) {
-        runOnUiThread(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.onStart();
             }
         });
-        mOkHttpClient.newCall(request)
-                .enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        onRequestFailure(e, callback);
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                ConditionalCache conditionalCache = mConditionalCache;
+                ConditionalCache.Entry entry = conditionalCache != null ? conditionalCache.notModified(response) : null;
+                if (entry != null || response.isSuccessful()) {
+                    try {
+                        Class<T> responseClass = typeArgumentOf(callback);
+                        final T t;
+                        if (entry != null) {
+                            t = entry.parsed(responseClass);
+                        } else {
+                            String string = readBoundedString(response);
+                            if (string == null) {
+                                onOversize(response, callback);
+                                return;
+                            }
+                            t = GsonConverter.jsonToBean(string, responseClass);
+                            if (conditionalCache != null) {
+                                conditionalCache.put(response, string, t, responseClass);
+                            }
+                        }
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSuccess(t);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // 读取响应体或写入临时文件失败
+                        OkLogger.printStackTrace(e);
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(NETWORK_FAILURE_MESSAGE);
+                            }
+                        });
+                    } catch (Exception e) {
+                        OkLogger.printStackTrace(e);
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(PARSE_FAILURE_MESSAGE);
+                            }
+                        });
+                    } finally {
+                        response.close();
+                        deliver(callback, new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFinish();
+                            }
+                        });
                     }
+                } else {
+                    onResponseFailure(response, callback);
+                }
+            }
+        }, true);
+    }
 
+    private <T> void newStreamCall(@NonNull final StreamOkHttpCallback<T> callback, Request request, final int batchSize) {
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+            }
+        });
+        enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onRequestFailure(e, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!response.isSuccessful()) {
+                    onResponseFailure(response, callback);
+                    return;
+                }
+                String errorMsg = null;
+                int count = 0;
+                try {
+                    count = readStream(response, callback, batchSize);
+                } catch (IOException e) {
+                    OkLogger.printStackTrace(e);
+                    errorMsg = NETWORK_FAILURE_MESSAGE;
+                } catch (Exception e) {
+                    OkLogger.printStackTrace(e);
+                    errorMsg = PARSE_FAILURE_MESSAGE;
+                } finally {
+                    response.close();
+                }
+                final String finalErrorMsg = errorMsg;
+                final int finalCount = count;
+                deliver(callback, new Runnable() {
                     @Override
-                    public void onResponse(Call call, Response response) {
-                        if (response.isSuccessful()) {
-                            try {
-                                String string = response.body().string();
-                                Type type = callback.getClass().getGenericSuperclass();
-                                Type[] params = ((ParameterizedType) type).getActualTypeArguments();
-                                Class<T> responseClass = (Class<T>) params[0];
-                                final T t = GsonConverter.jsonToBean(string, responseClass);
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onSuccess(t);
-                                    }
-                                });
-                            } catch (Exception e) {
-                                OkLogger.printStackTrace(e);
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFailure(PARSE_FAILURE_MESSAGE);
-                                    }
-                                });
-                            } finally {
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onFinish();
-                                    }
-                                });
-                            }
+                    public void run() {
+                        if (finalErrorMsg == null) {
+                            callback.onSuccess(finalCount);
                         } else {
-                            onResponseFailure(response, callback);
+                            callback.onFailure(finalErrorMsg);
                         }
+                        callback.onFinish();
                     }
                 });
+            }
+        }, false);
+    }
+
+    /**
+     * 逐条解析并交给 {@link StreamDelivery}，全部回调完才返回
+     *
+     * @return 解析的总条数
+     */
+    private <T> int readStream(Response response, @NonNull StreamOkHttpCallback<T> callback, int batchSize) throws IOException {
+        Class<T> itemClass = typeArgumentOf(callback);
+        Reader reader = new InputStreamReader(response.body().byteStream(), Charset.forName("UTF-8"));
+        JsonArrayIterator<T> iterator = GsonConverter.jsonStreamToIterator(reader, itemClass);
+        StreamDelivery<T> delivery = new StreamDelivery<>(callback, batchSize);
+        int count = 0;
+        try {
+            while (iterator.hasNext()) {
+                delivery.offer(iterator.next());
+                count++;
+            }
+        } catch (JsonIOException e) {
+            // 迭代器把读取错误包装成了 JsonIOException
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        delivery.awaitDrained();
+        return count;
+    }
+
+    /**
+     * 读取响应体，超过 {@link #setMaxBodySize(long)} 时不读取剩下的数据
+     *
+     * @return 响应体，超过上限时为 null
+     */
+    String readBoundedString(Response response) throws IOException {
+        ResponseBody body = response.body();
+        long maxBodySize = mMaxBodySize;
+        if (maxBodySize <= 0) {
+            return body.string();
+        }
+        // 没有 Content-Length 时最多缓冲 maxBodySize + 1 个字节来判断
+        if (body.contentLength() > maxBodySize || body.source().request(maxBodySize + 1)) {
+            return null;
+        }
+        return body.string();
+    }
+
+    /**
+     * 响应体超过上限，{@link SpillOkHttpCallback} 写入缓存目录的临时文件，其他回调直接失败，onFinish 由调用方回调
+     */
+    private <T> void onOversize(Response response, @NonNull final OkHttpCallback<T> callback) throws IOException {
+        Request request = response.request();
+        String endpoint = HttpUtils.getEndpoint(request.url());
+        AtomicLong count = mOversizeCounts.get(endpoint);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = mOversizeCounts.putIfAbsent(endpoint, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+        OkLogger.w("response body exceeds " + mMaxBodySize + " bytes, url: " + request.url());
+        if (!(callback instanceof SpillOkHttpCallback)) {
+            response.close();
+            deliver(callback, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(OVERSIZE_FAILURE_MESSAGE);
+                }
+            });
+            return;
+        }
+        final File file = File.createTempFile(SPILL_FILE_PREFIX, null, mContext.getCacheDir());
+        try (BufferedSource source = response.body().source();
+             BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            sink.writeAll(source);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                ((SpillOkHttpCallback) callback).onSpilled(file);
+            }
+        });
+    }
+
+    /**
+     * 把响应体写入临时文件，需要校验时边写边计算摘要，成功后才重命名为 file
+     * 中途失败、进程被杀时只留下临时文件，不会被下次当成已下载
+     *
+     * @return 失败信息，成功时为 null
+     */
+    private String writeResponseToFile(Response response, File file, String algorithm, String expectedDigest) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        String errorMsg = null;
+        try {
+            Sink fileSink = Okio.sink(tmpFile);
+            HashingSink hashingSink = hashingSink(fileSink, algorithm);
+            try (BufferedSource source = response.body().source();
+                 BufferedSink sink = Okio.buffer(hashingSink != null ? hashingSink : fileSink)) {
+                sink.writeAll(source);
+            }
+            if (hashingSink != null) {
+                String actualDigest = hashingSink.hash().hex();
+                if (!digestEquals(actualDigest, expectedDigest)) {
+                    OkLogger.w("digest mismatch, expected: " + expectedDigest + ", actual: " + actualDigest + ", file: " + file);
+                    errorMsg = DIGEST_FAILURE_MESSAGE;
+                }
+            }
+            if (errorMsg == null && !tmpFile.renameTo(file)) {
+                throw new IOException("rename failed: " + file);
+            }
+        } finally {
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+        return errorMsg;
+    }
+
+    /**
+     * 计算文件的摘要
+     *
+     * @param file
+     * @param algorithm {@link #DIGEST_MD5} 或 {@link #DIGEST_SHA256}
+     * @return 十六进制的摘要
+     */
+    static String fileDigest(File file, String algorithm) throws IOException {
+        HashingSink hashingSink = hashingSink(Okio.blackhole(), algorithm);
+        try (BufferedSource source = Okio.buffer(Okio.source(file));
+             BufferedSink sink = Okio.buffer(hashingSink)) {
+            sink.writeAll(source);
+        }
+        return hashingSink.hash().hex();
+    }
+
+    /**
+     * 在发起请求之前检查摘要参数，不支持的算法不用等下载完才失败
+     */
+    static void checkDigestAlgorithm(String algorithm, String expectedDigest) {
+        if (algorithm == null) {
+            return;
+        }
+        if (!DIGEST_MD5.equalsIgnoreCase(algorithm) && !DIGEST_SHA256.equalsIgnoreCase(algorithm)) {
+            throw new IllegalArgumentException("unsupported digest algorithm: " + algorithm);
+        }
+        if (expectedDigest == null) {
+            throw new IllegalArgumentException("expected digest is null");
+        }
+    }
+
+    /**
+     * 计算摘要的 Sink
+     *
+     * @param sink
+     * @param algorithm {@link #DIGEST_MD5} 或 {@link #DIGEST_SHA256}
+     * @return algorithm 为 null 时返回 null
+     */
+    static HashingSink hashingSink(Sink sink, String algorithm) throws IOException {
+        if (algorithm == null) {
+            return null;
+        } else if (DIGEST_MD5.equalsIgnoreCase(algorithm)) {
+            return HashingSink.md5(sink);
+        } else if (DIGEST_SHA256.equalsIgnoreCase(algorithm)) {
+            return HashingSink.sha256(sink);
+        }
+        sink.close();
+        throw new IllegalArgumentException("unsupported digest algorithm: " + algorithm);
+    }
+
+    /**
+     * {@link com.richie.utils.common.FeatureUtils#getMd5ByFile(File)} 会去掉开头的 0，比较时兼容这种写法
+     */
+    static boolean digestEquals(String actual, String expected) {
+        if (expected == null) {
+            return false;
+        }
+        return stripLeadingZeros(actual).equalsIgnoreCase(stripLeadingZeros(expected.trim()));
+    }
+
+    private static String stripLeadingZeros(String hex) {
+        int i = 0;
+        while (i < hex.length() - 1 && hex.charAt(i) == '0') {
+            i++;
+        }
+        return hex.substring(i);
+    }
+
+    /**
+     * 在回调自己的 Executor 执行，没有时使用 {@link #setCallbackExecutor(Executor)} 设置的，默认主线程
+     */
+    void deliver(@NonNull OkHttpCallback<?> callback, Runnable runnable) {
+        Executor executor = callback.mCallbackExecutor != null ? callback.mCallbackExecutor : mCallbackExecutor;
+        if (executor == null || executor == MAIN_THREAD_EXECUTOR) {
+            runOnUiThread(runnable);
+        } else if (executor == DIRECT_EXECUTOR) {
+            runnable.run();
+        } else {
+            callback.serialExecutor(executor).execute(runnable);
+        }
     }
 
     private void runOnUiThread(Runnable runnable) {
@@ -605,7 +1925,7 @@ public final class OkHttpUtils {
     }
 
     private <T> void onResponseFailure(final Response response, @NonNull final OkHttpCallback<T> callback) {
-        runOnUiThread(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.onFailure(RESPONSE_FAILURE_MESSAGE + response.code() + ":" + response.message());
@@ -614,6 +1934,190 @@ public final class OkHttpUtils {
         });
     }
 
+    /**
+     * 限流排队中的请求，还没有进入 Dispatcher，取消时回调 onFailure
+     */
+    private final class ParkedCall implements Runnable {
+        private final Request mRequest;
+        private final Callback mCallback;
+        private final boolean mHedgeable;
+        private volatile ScheduledFuture<?> mFuture;
+
+        ParkedCall(Request request, Callback callback, boolean hedgeable) {
+            mRequest = request;
+            mCallback = callback;
+            mHedgeable = hedgeable;
+        }
+
+        @Override
+        public void run() {
+            if (mParkedCalls.remove(this)) {
+                dispatch(mRequest, mCallback, mHedgeable);
+            }
+        }
+
+        void cancel() {
+            if (!mParkedCalls.remove(this)) {
+                return;
+            }
+            ScheduledFuture<?> future = mFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            Call call = mOkHttpClient.newCall(mRequest);
+            call.cancel();
+            mCallback.onFailure(call, new IOException("Canceled"));
+        }
+    }
+
+    /**
+     * 统计前台请求，从进入 {@link #enqueue} 到回调处理完，排队和对冲的等待都算在内
+     */
+    private final class ForegroundCallback implements Callback {
+        private final Callback mCallback;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+
+        ForegroundCallback(Callback callback) {
+            mCallback = callback;
+            mForegroundCallCount.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            try {
+                mCallback.onFailure(call, e);
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+            try {
+                mCallback.onResponse(call, response);
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (mFinished.compareAndSet(false, true) && mForegroundCallCount.decrementAndGet() == 0) {
+                PrefetchScheduler prefetchScheduler = mPrefetchScheduler;
+                if (prefetchScheduler != null) {
+                    prefetchScheduler.onForegroundIdle();
+                }
+            }
+        }
+    }
+
+    /**
+     * 流式数据的分批回调，回调空闲时立即回调已经解析的数据，回调忙时攒成一批
+     * 攒够 batchSize 条还没有回调完时阻塞解析线程，不再读取网络数据
+     */
+    private final class StreamDelivery<T> implements Runnable {
+        private final StreamOkHttpCallback<T> mCallback;
+        private final int mBatchSize;
+        private List<T> mBuffer = new ArrayList<>();
+        private boolean mDelivering;
+
+        StreamDelivery(StreamOkHttpCallback<T> callback, int batchSize) {
+            mCallback = callback;
+            mBatchSize = batchSize;
+        }
+
+        void offer(T item) throws InterruptedIOException {
+            synchronized (this) {
+                while (mBuffer.size() >= mBatchSize) {
+                    waitUninterrupted();
+                }
+                mBuffer.add(item);
+                if (mDelivering) {
+                    return;
+                }
+                mDelivering = true;
+            }
+            deliver(mCallback, this);
+        }
+
+        synchronized void awaitDrained() throws InterruptedIOException {
+            while (mDelivering) {
+                waitUninterrupted();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<T> items;
+            synchronized (this) {
+                items = mBuffer;
+                mBuffer = new ArrayList<>();
+                notifyAll();
+            }
+            try {
+                mCallback.onItems(items);
+            } finally {
+                boolean more;
+                synchronized (this) {
+                    more = !mBuffer.isEmpty();
+                    mDelivering = more;
+                    notifyAll();
+                }
+                if (more) {
+                    deliver(mCallback, this);
+                }
+            }
+        }
+
+        private void waitUninterrupted() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("stream delivery interrupted");
+            }
+        }
+    }
+
+    static final class SerialExecutor implements Executor {
+        private final Executor mExecutor;
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private Runnable mActive;
+
+        SerialExecutor(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull final Runnable command) {
+            mTasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            mActive = mTasks.poll();
+            if (mActive != null) {
+                try {
+                    mExecutor.execute(mActive);
+                } catch (RejectedExecutionException e) {
+                    // 线程池满了，这个任务不执行的话后面的任务都不会执行，换一个线程执行
+                    OkLogger.w("serial task rejected, run on a new thread: " + e.getMessage());
+                    new Thread(mActive, "OkHttpUtils Serial").start();
+                }
+            }
+        }
+    }
+
     private static class OkHttpUtilsHolder {
         private static final OkHttpUtils INSTANCE = new OkHttpUtils();
     }
@@ -624,6 +2128,31 @@ public final class OkHttpUtils {
      * @param <T>
      */
     public abstract static class OkHttpCallback<T> {
+        private Executor mCallbackExecutor;
+        private SerialExecutor mSerialExecutor;
+
+        /**
+         * 设置这个请求的回调线程，在发起请求之前调用
+         *
+         * @param callbackExecutor {@link #MAIN_THREAD_EXECUTOR}、{@link #BACKGROUND_EXECUTOR}、{@link #DIRECT_EXECUTOR}
+         *                         或自定义的 Executor，为 null 时使用 {@link OkHttpUtils#setCallbackExecutor(Executor)} 设置的
+         * @return
+         */
+        public OkHttpCallback<T> setCallbackExecutor(Executor callbackExecutor) {
+            mCallbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * 线程池可能打乱顺序，同一个回调的方法按提交顺序串行执行
+         */
+        synchronized Executor serialExecutor(Executor executor) {
+            if (mSerialExecutor == null || mSerialExecutor.mExecutor != executor) {
+                mSerialExecutor = new SerialExecutor(executor);
+            }
+            return mSerialExecutor;
+        }
+
         /**
          * 开始
          */
@@ -651,6 +2180,45 @@ public final class OkHttpUtils {
         }
     }
 
+    /**
+     * 响应体超过 {@link #setMaxBodySize(long)} 时不读入内存，而是写入临时文件
+     */
+    public abstract static class SpillOkHttpCallback extends OkHttpCallback<String> {
+        /**
+         * 响应体过大，已经写入缓存目录的临时文件，用完后需要自己删除
+         *
+         * @param file
+         */
+        protected abstract void onSpilled(File file);
+    }
+
+    /**
+     * 流式请求的回调，onSuccess 的参数是总条数
+     *
+     * @param <T> 每条数据的类型
+     */
+    public abstract static class StreamOkHttpCallback<T> extends OkHttpCallback<Integer> {
+        /**
+         * 收到一批数据，按到达顺序回调，返回后才会继续读取
+         *
+         * @param items
+         */
+        protected abstract void onItems(List<T> items);
+    }
+
+    /**
+     * 带上传进度的回调
+     */
+    public abstract static class UploadProgressOkHttpCallback extends OkHttpCallback<String> {
+        /**
+         * 上传进度，最多每 100 毫秒回调一次
+         *
+         * @param current 已发送的字节数
+         * @param total   总长度，未知时为 -1，结束时等于 current
+         */
+        protected abstract void onProgress(long current, long total);
+    }
+
     public abstract static class ProgressOkHttpCallback extends OkHttpCallback<File> {
         /**
          * 进度
@@ -0,0 +1,20 @@
+package com.richie.utils.okhttp;
+
+import java.io.IOException;
+
+/**
+ * 补丁格式错误，包括 magic 不对、控制块损坏、gzip 数据或 CRC 错误
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class PatchFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    PatchFormatException(String message) {
+        super(message);
+    }
+
+    PatchFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,474 @@
+package com.richie.utils.okhttp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.richie.utils.common.NetworkUtils;
+import com.richie.utils.receiver.NetChangeReceiver;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 空闲时预取，登记下一步可能用到的 GET 请求，在主线程空闲、网络不计流量、没有前台请求时按优先级逐个下载
+ * 预取的响应在有效期内被 getAsString、getAsEntity 直接使用，只用一次；带校验头的响应同时放入条件请求的缓存
+ * 响应的 Cache-Control 是 no-store 或 no-cache 时不保存，有 max-age 时有效期不超过 max-age
+ * 有前台请求时立即取消正在进行的预取，等下次空闲再重新下载
+ * 空闲回调只检查一次，不满足条件时不再注册，等登记预取、前台请求结束或者网络变化时再检查，
+ * 网络变化需要把调度器注册为 {@link NetChangeReceiver} 的监听，或者在自己的监听里转发
+ * 按分组统计预取的命中情况，例如用页面名作为分组，据此调整各个页面预取哪些数据
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class PrefetchScheduler implements NetChangeReceiver.OnNetChangedListener {
+    /**
+     * 有直接使用 client 的请求时，过一段时间再检查
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final long mMaxAgeMillis;
+    private final int mMaxEntries;
+    private final PriorityQueue<Candidate> mCandidates = new PriorityQueue<>(11, new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            if (o1.mPriority != o2.mPriority) {
+                return o1.mPriority > o2.mPriority ? -1 : 1;
+            }
+            return o1.mSeq < o2.mSeq ? -1 : (o1.mSeq == o2.mSeq ? 0 : 1);
+        }
+    });
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private final Map<String, Stats> mStats = new HashMap<>();
+    private Call mCall;
+    private Candidate mRunning;
+    private long mSeq;
+    /**
+     * 空闲回调是否已经注册，只在主线程访问
+     */
+    private boolean mArmed;
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mArmed = false;
+            startNext();
+            // 只执行一次，避免每次空闲都查询网络状态
+            return false;
+        }
+    };
+    /**
+     * 注册空闲回调，处理完后主线程进入空闲，触发 {@link #mIdleHandler}
+     */
+    private final Runnable mArm = new Runnable() {
+        @Override
+        public void run() {
+            if (!mArmed) {
+                mArmed = true;
+                Looper.myQueue().addIdleHandler(mIdleHandler);
+            }
+        }
+    };
+
+    /**
+     * @param maxAgeMillis 预取结果的有效期
+     * @param maxEntries   最多保存的预取结果数
+     */
+    PrefetchScheduler(long maxAgeMillis, int maxEntries) {
+        mMaxAgeMillis = maxAgeMillis;
+        mMaxEntries = Math.max(1, maxEntries);
+    }
+
+    void start() {
+        mMainHandler.post(mArm);
+    }
+
+    /**
+     * 登记预取，同一个 url 只保留一个，优先级取较高的
+     *
+     * @param url
+     * @param priority 数值越大越先下载
+     * @param group    统计分组，例如页面名，可以为 null
+     */
+    public void prefetch(@NonNull String url, int priority, String group) {
+        String key = HttpUrl.get(url).toString();
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                return;
+            }
+            if (mRunning != null && mRunning.mUrl.equals(key)) {
+                return;
+            }
+            for (Iterator<Candidate> iterator = mCandidates.iterator(); iterator.hasNext(); ) {
+                Candidate candidate = iterator.next();
+                if (candidate.mUrl.equals(key)) {
+                    if (candidate.mPriority >= priority) {
+                        return;
+                    }
+                    iterator.remove();
+                    break;
+                }
+            }
+            mCandidates.add(new Candidate(key, priority, group, mSeq++));
+        }
+        mMainHandler.post(mArm);
+    }
+
+    /**
+     * 取消还没有下载的预取，正在下载的继续
+     */
+    public synchronized void clear() {
+        mCandidates.clear();
+    }
+
+    /**
+     * 还没有下载的预取数
+     *
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return mCandidates.size();
+    }
+
+    /**
+     * 分组的统计
+     *
+     * @param group 为 null 时是没有分组的预取
+     * @return 没有这个分组时返回 null
+     */
+    public synchronized Stats getStats(String group) {
+        removeExpired();
+        return mStats.get(group);
+    }
+
+    /**
+     * 所有分组的统计
+     *
+     * @return
+     */
+    public synchronized Map<String, Stats> getAllStats() {
+        removeExpired();
+        return new HashMap<>(mStats);
+    }
+
+    @Override
+    public void onNetChanged(boolean isConnected) {
+        if (isConnected) {
+            mMainHandler.post(mArm);
+        }
+    }
+
+    /**
+     * 前台请求都结束了，空闲时检查是否可以预取
+     */
+    void onForegroundIdle() {
+        mMainHandler.post(mArm);
+    }
+
+    /**
+     * 有前台请求，取消正在进行的预取
+     */
+    void onInteractiveRequest() {
+        Call call;
+        synchronized (this) {
+            call = mCall;
+        }
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * 取出预取的响应，只能取一次
+     *
+     * @param url
+     * @return 没有预取或者已经过期时返回 null
+     */
+    String take(@NonNull String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = mEntries.remove(httpUrl.toString());
+            if (entry == null) {
+                return null;
+            }
+            Stats stats = statsOf(entry.mGroup);
+            if (entry.isExpired()) {
+                stats.mExpiredCount.incrementAndGet();
+                return null;
+            }
+            stats.mHitCount.incrementAndGet();
+            return entry.mBody;
+        }
+    }
+
+    private void startNext() {
+        OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        OkHttpClient client = okHttpUtils.getOkHttpClient();
+        Context context = okHttpUtils.getContext();
+        final Candidate candidate;
+        final Call call;
+        synchronized (this) {
+            if (mCall != null || mCandidates.isEmpty() || client == null) {
+                return;
+            }
+            // 前台请求结束、网络变化时会重新检查
+            if (okHttpUtils.getForegroundCallCount() > 0 || !NetworkUtils.isUnmetered(context)) {
+                return;
+            }
+            if (hasForegroundCalls(client)) {
+                mMainHandler.postDelayed(mArm, RETRY_DELAY_MILLIS);
+                return;
+            }
+            candidate = mCandidates.poll();
+            Request request = new Request.Builder()
+                    .get()
+                    .url(candidate.mUrl)
+                    .tag(PrefetchScheduler.class, this)
+                    .build();
+            call = client.newCall(request);
+            mCall = call;
+            mRunning = candidate;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    requeue(candidate);
+                }
+                finish(call);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.isSuccessful()) {
+                        String body = OkHttpUtils.getInstance().readBoundedString(response);
+                        if (body != null) {
+                            ConditionalCache conditionalCache = OkHttpUtils.getInstance().getConditionalCache();
+                            if (conditionalCache != null) {
+                                conditionalCache.put(response, body, null, null);
+                            }
+                            long maxAgeMillis = maxAgeMillis(response.cacheControl());
+                            if (maxAgeMillis > 0) {
+                                put(candidate, body, maxAgeMillis);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    if (call.isCanceled()) {
+                        requeue(candidate);
+                    } else {
+                        OkLogger.printStackTrace(e);
+                    }
+                } finally {
+                    response.close();
+                    finish(call);
+                }
+            }
+        });
+    }
+
+    /**
+     * 被前台请求打断，空闲时重新下载
+     */
+    private synchronized void requeue(Candidate candidate) {
+        statsOf(candidate.mGroup).mCancelCount.incrementAndGet();
+        mCandidates.add(candidate);
+    }
+
+    private void finish(Call call) {
+        synchronized (this) {
+            if (mCall == call) {
+                mCall = null;
+                mRunning = null;
+            }
+        }
+        mMainHandler.post(mArm);
+    }
+
+    /**
+     * 预取结果的有效期，不超过响应的 max-age
+     *
+     * @return 不能保存时返回 0
+     */
+    private long maxAgeMillis(CacheControl cacheControl) {
+        if (cacheControl.noStore() || cacheControl.noCache()) {
+            return 0;
+        }
+        if (cacheControl.maxAgeSeconds() >= 0) {
+            return Math.min(mMaxAgeMillis, TimeUnit.SECONDS.toMillis(cacheControl.maxAgeSeconds()));
+        }
+        return mMaxAgeMillis;
+    }
+
+    private synchronized void put(Candidate candidate, String body, long maxAgeMillis) {
+        statsOf(candidate.mGroup).mPrefetchCount.incrementAndGet();
+        Entry replaced = mEntries.remove(candidate.mUrl);
+        if (replaced != null) {
+            // 旧的结果没有用上
+            statsOf(replaced.mGroup).mExpiredCount.incrementAndGet();
+        }
+        mEntries.put(candidate.mUrl, new Entry(body, candidate.mGroup, maxAgeMillis));
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > mMaxEntries && iterator.hasNext()) {
+            statsOf(iterator.next().mGroup).mExpiredCount.incrementAndGet();
+            iterator.remove();
+        }
+    }
+
+    private void removeExpired() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired()) {
+                statsOf(entry.mGroup).mExpiredCount.incrementAndGet();
+                iterator.remove();
+            }
+        }
+    }
+
+    private Stats statsOf(String group) {
+        Stats stats = mStats.get(group);
+        if (stats == null) {
+            stats = new Stats();
+            mStats.put(group, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * 不经过 OkHttpUtils 直接使用 client 的请求
+     */
+    private static boolean hasForegroundCalls(OkHttpClient client) {
+        for (Call call : client.dispatcher().runningCalls()) {
+            if (call.request().tag(PrefetchScheduler.class) == null) {
+                return true;
+            }
+        }
+        for (Call call : client.dispatcher().queuedCalls()) {
+            if (call.request().tag(PrefetchScheduler.class) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一个分组的预取统计
+     */
+    public static final class Stats {
+        private final AtomicLong mPrefetchCount = new AtomicLong();
+        private final AtomicLong mHitCount = new AtomicLong();
+        private final AtomicLong mExpiredCount = new AtomicLong();
+        private final AtomicLong mCancelCount = new AtomicLong();
+
+        /**
+         * 预取成功的次数
+         *
+         * @return
+         */
+        public long getPrefetchCount() {
+            return mPrefetchCount.get();
+        }
+
+        /**
+         * 预取结果被使用的次数
+         *
+         * @return
+         */
+        public long getHitCount() {
+            return mHitCount.get();
+        }
+
+        /**
+         * 预取结果过期或者被淘汰、没有用上的次数
+         *
+         * @return
+         */
+        public long getExpiredCount() {
+            return mExpiredCount.get();
+        }
+
+        /**
+         * 被前台请求打断的次数
+         *
+         * @return
+         */
+        public long getCancelCount() {
+            return mCancelCount.get();
+        }
+
+        /**
+         * 命中率，被使用的次数 / 预取成功的次数
+         *
+         * @return
+         */
+        public double getHitRate() {
+            long prefetchCount = mPrefetchCount.get();
+            return prefetchCount == 0 ? 0 : (double) mHitCount.get() / prefetchCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "prefetch=" + mPrefetchCount +
+                    ", hit=" + mHitCount +
+                    ", expired=" + mExpiredCount +
+                    ", cancel=" + mCancelCount +
+                    '}';
+        }
+    }
+
+    private static final class Candidate {
+        private final String mUrl;
+        private final int mPriority;
+        private final String mGroup;
+        private final long mSeq;
+
+        Candidate(String url, int priority, String group, long seq) {
+            mUrl = url;
+            mPriority = priority;
+            mGroup = group;
+            mSeq = seq;
+        }
+    }
+
+    private static final class Entry {
+        private final String mBody;
+        private final String mGroup;
+        private final long mMaxAgeMillis;
+        private final long mTime = SystemClock.elapsedRealtime();
+
+        Entry(String body, String group, long maxAgeMillis) {
+            mBody = body;
+            mGroup = group;
+            mMaxAgeMillis = maxAgeMillis;
+        }
+
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() - mTime > mMaxAgeMillis;
+        }
+    }
+}
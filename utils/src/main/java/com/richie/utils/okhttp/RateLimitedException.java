@@ -0,0 +1,22 @@
+package com.richie.utils.okhttp;
+
+import java.io.IOException;
+
+/**
+ * 超过客户端限流，请求没有发出
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class RateLimitedException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final String mPattern;
+
+    RateLimitedException(String pattern) {
+        super("rate limited by rule: " + pattern);
+        mPattern = pattern;
+    }
+
+    public String getPattern() {
+        return mPattern;
+    }
+}
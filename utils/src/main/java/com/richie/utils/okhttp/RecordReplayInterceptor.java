@@ -0,0 +1,377 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * 录制和回放，用于没有后端的离线性能测试
+ * 录制模式把真实的请求和响应保存到目录，每个响应一个 gzip 文件，记录首字节延迟和响应体的传输时间；
+ * 回放模式不访问网络，按规范化的请求找到录制的响应，按原始时间乘以 timeScale 等待后返回，timeScale 为 0 时不等待
+ * 规范化的请求由方法、主机、路径、排序后的查询参数和请求体的 SHA-256 组成，不含协议和端口，
+ * 流式上传的请求体只按类型和长度区分，multipart 只比较各部分的内容，
+ * 同一个请求录制了多次时按顺序回放，回放完后一直返回最后一次；重新录制时覆盖这个请求之前录制的所有响应
+ * 录制时会把响应体整个读进内存，不适合录制大文件下载
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class RecordReplayInterceptor implements Interceptor {
+    /**
+     * 录制，请求正常访问网络
+     */
+    public static final int MODE_RECORD = 0;
+    /**
+     * 回放，没有录制的请求抛出 {@link FileNotFoundException}
+     */
+    public static final int MODE_REPLAY = 1;
+    private static final ByteString MAGIC = ByteString.encodeUtf8("OKREC1");
+    private static final String FILE_SUFFIX = ".rec";
+    private static final int CHUNK_SIZE = 8192;
+    private final int mMode;
+    private final File mDir;
+    private final double mTimeScale;
+    private final Set<String> mIgnoredQueryParameters = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, Integer> mSequences = new HashMap<>();
+    private final AtomicLong mRecordCount = new AtomicLong();
+    private final AtomicLong mReplayCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * @param mode      {@link #MODE_RECORD} 或 {@link #MODE_REPLAY}
+     * @param dir       录制文件的目录
+     * @param timeScale 回放时间的倍数，1 为原始时间，0 不等待
+     */
+    RecordReplayInterceptor(@Mode int mode, @NonNull File dir, double timeScale) {
+        mMode = mode;
+        mDir = dir;
+        mTimeScale = Math.max(0, timeScale);
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+    }
+
+    /**
+     * 规范化时忽略的查询参数，例如时间戳、随机数
+     *
+     * @param names
+     */
+    public void ignoreQueryParameters(@NonNull String... names) {
+        mIgnoredQueryParameters.addAll(Arrays.asList(names));
+    }
+
+    @Mode
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * 录制的响应数
+     *
+     * @return
+     */
+    public long getRecordCount() {
+        return mRecordCount.get();
+    }
+
+    /**
+     * 回放的响应数
+     *
+     * @return
+     */
+    public long getReplayCount() {
+        return mReplayCount.get();
+    }
+
+    /**
+     * 回放时没有找到录制的请求数
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = canonicalKey(request);
+        return mMode == MODE_RECORD ? record(chain, request, key) : replay(request, key);
+    }
+
+    /**
+     * 规范化的请求
+     *
+     * @param request
+     * @return
+     */
+    String canonicalKey(Request request) throws IOException {
+        HttpUrl url = request.url();
+        List<String> query = new ArrayList<>();
+        for (int i = 0; i < url.querySize(); i++) {
+            String name = url.queryParameterName(i);
+            if (!mIgnoredQueryParameters.contains(name)) {
+                String value = url.queryParameterValue(i);
+                query.add(name + "=" + (value != null ? value : ""));
+            }
+        }
+        Collections.sort(query);
+        StringBuilder sb = new StringBuilder()
+                .append(request.method()).append(' ')
+                .append(url.host()).append(url.encodedPath());
+        for (int i = 0; i < query.size(); i++) {
+            sb.append(i == 0 ? '?' : '&').append(query.get(i));
+        }
+        RequestBody body = request.body();
+        if (body != null) {
+            sb.append('\n').append(bodyKey(body));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 请求体的摘要，边写边计算，不把请求体读进内存
+     */
+    private static String bodyKey(RequestBody body) throws IOException {
+        if (body instanceof MultipartBody) {
+            // 分隔符和文件名每次都不同，只比较各部分的内容
+            StringBuilder sb = new StringBuilder("multipart");
+            for (MultipartBody.Part part : ((MultipartBody) body).parts()) {
+                sb.append(' ').append(bodyKey(part.body()));
+            }
+            return sb.toString();
+        }
+        if (body.isOneShot() || body instanceof StreamRequestBody) {
+            // 流式的请求体每次写入都要重新读取数据源，还会触发上传进度，按类型和长度区分
+            MediaType contentType = body.contentType();
+            return (contentType != null ? contentType.type() + "/" + contentType.subtype() : "") + " " + body.contentLength();
+        }
+        HashingSink hashingSink = HashingSink.sha256(Okio.blackhole());
+        try (BufferedSink sink = Okio.buffer(hashingSink)) {
+            body.writeTo(sink);
+        }
+        return hashingSink.hash().hex();
+    }
+
+    private Response record(Chain chain, Request request, String key) throws IOException {
+        long startNanos = System.nanoTime();
+        Response response = chain.proceed(request);
+        long headersNanos = System.nanoTime();
+        Buffer body = new Buffer();
+        MediaType contentType;
+        try (ResponseBody responseBody = response.body()) {
+            contentType = responseBody.contentType();
+            body.writeAll(responseBody.source());
+        }
+        long bodyNanos = System.nanoTime();
+        try {
+            save(key, response, TimeUnit.NANOSECONDS.toMillis(headersNanos - startNanos),
+                    TimeUnit.NANOSECONDS.toMillis(bodyNanos - headersNanos), body);
+        } catch (IOException e) {
+            // 录制失败不影响请求本身
+            OkLogger.printStackTrace(e);
+        }
+        return response.newBuilder()
+                .body(ResponseBody.create(contentType, body.size(), body))
+                .build();
+    }
+
+    private void save(String key, Response response, long headersMillis, long bodyMillis, Buffer body) throws IOException {
+        File file = fileOf(key, nextSequence(key));
+        File tmpFile = new File(mDir, file.getName() + ".tmp");
+        try (BufferedSink sink = Okio.buffer(new GzipSink(Okio.sink(tmpFile)))) {
+            sink.write(MAGIC);
+            writeString(sink, key);
+            sink.writeInt(response.code());
+            writeString(sink, response.message());
+            writeString(sink, response.protocol().toString());
+            Headers headers = response.headers();
+            sink.writeInt(headers.size());
+            for (int i = 0; i < headers.size(); i++) {
+                writeString(sink, headers.name(i));
+                writeString(sink, headers.value(i));
+            }
+            sink.writeLong(headersMillis);
+            sink.writeLong(bodyMillis);
+            sink.writeLong(body.size());
+            body.copyTo(sink.getBuffer(), 0, body.size());
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("rename failed: " + file);
+        }
+        mRecordCount.incrementAndGet();
+    }
+
+    private Response replay(Request request, String key) throws IOException {
+        File file = replayFile(key);
+        if (file == null) {
+            mMissCount.incrementAndGet();
+            throw new FileNotFoundException("no recording for " + key.replace('\n', ' '));
+        }
+        try (BufferedSource source = Okio.buffer(new GzipSource(Okio.source(file)))) {
+            if (!source.readByteString(MAGIC.size()).equals(MAGIC)) {
+                throw new IOException("bad recording: " + file);
+            }
+            readString(source);
+            int code = source.readInt();
+            String message = readString(source);
+            Protocol protocol = Protocol.get(readString(source));
+            Headers.Builder headersBuilder = new Headers.Builder();
+            int headerCount = source.readInt();
+            for (int i = 0; i < headerCount; i++) {
+                headersBuilder.addUnsafeNonAscii(readString(source), readString(source));
+            }
+            long headersMillis = source.readLong();
+            long bodyMillis = source.readLong();
+            long bodySize = source.readLong();
+            Buffer body = new Buffer();
+            source.readFully(body, bodySize);
+            sleep(headersMillis);
+            mReplayCount.incrementAndGet();
+            Headers headers = headersBuilder.build();
+            String contentType = headers.get(HttpUtils.HEAD_KEY_CONTENT_TYPE);
+            long now = System.currentTimeMillis();
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(protocol)
+                    .code(code)
+                    .message(message)
+                    .headers(headers)
+                    .body(ResponseBody.create(contentType != null ? MediaType.parse(contentType) : null, bodySize,
+                            Okio.buffer(new PacedSource(body, bodyMillis))))
+                    .sentRequestAtMillis(now - headersMillis)
+                    .receivedResponseAtMillis(now)
+                    .build();
+        }
+    }
+
+    /**
+     * 录制时的序号，每次录制从 0 开始，第一次录制一个请求时删除之前录制的文件，避免回放时混入上次录制的响应
+     */
+    private synchronized int nextSequence(String key) {
+        Integer sequence = mSequences.get(key);
+        if (sequence == null) {
+            int i = 0;
+            while (fileOf(key, i).delete()) {
+                i++;
+            }
+        }
+        int next = sequence != null ? sequence + 1 : 0;
+        mSequences.put(key, next);
+        return next;
+    }
+
+    /**
+     * 按录制的顺序取文件，取完后一直返回最后一个
+     */
+    private synchronized File replayFile(String key) {
+        Integer sequence = mSequences.get(key);
+        int next = sequence != null ? sequence + 1 : 0;
+        File file = fileOf(key, next);
+        if (file.exists()) {
+            mSequences.put(key, next);
+            return file;
+        }
+        if (sequence != null) {
+            return fileOf(key, sequence);
+        }
+        return null;
+    }
+
+    private File fileOf(String key, int sequence) {
+        return new File(mDir, ByteString.encodeUtf8(key).sha256().hex().substring(0, 32) + "-" + sequence + FILE_SUFFIX);
+    }
+
+    private void sleep(long millis) throws IOException {
+        long scaledMillis = (long) (millis * mTimeScale);
+        if (scaledMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(scaledMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("replay interrupted");
+        }
+    }
+
+    private static void writeString(BufferedSink sink, String value) throws IOException {
+        ByteString bytes = ByteString.encodeUtf8(value);
+        sink.writeInt(bytes.size());
+        sink.write(bytes);
+    }
+
+    private static String readString(BufferedSource source) throws IOException {
+        return source.readUtf8(source.readInt());
+    }
+
+    @IntDef({MODE_RECORD, MODE_REPLAY})
+    public @interface Mode {
+    }
+
+    /**
+     * 按录制时的传输时间均匀地返回响应体
+     */
+    private final class PacedSource extends ForwardingSource {
+        private final long mSize;
+        private final long mBodyMillis;
+        private long mRead;
+        private long mSleptMillis;
+
+        PacedSource(Buffer body, long bodyMillis) {
+            super(body);
+            mSize = body.size();
+            mBodyMillis = bodyMillis;
+        }
+
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, Math.min(byteCount, CHUNK_SIZE));
+            if (read > 0 && mSize > 0) {
+                mRead += read;
+                // 按累计读取量计算，避免每块的时间取整后丢失
+                long targetMillis = mBodyMillis * mRead / mSize;
+                sleep(targetMillis - mSleptMillis);
+                mSleptMillis = targetMillis;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 小请求批量发送，缓存到 maxBatchSize 条或者等待 maxDelayMillis 后合并成一个 JSON 数组 POST
+ * 服务端要返回同样长度、同样顺序的 JSON 数组，每个元素分别回调给对应的请求，元素是字符串时回调字符串的值
+ * 适合埋点、日志这类不要求实时的接口
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class RequestBatcher {
+    private static final String BATCH_FAILURE_MESSAGE = "批量响应数量不匹配";
+    private final String mUrl;
+    private final List<Item> mPending = new ArrayList<>();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mItemCount = new AtomicLong();
+    private final AtomicLong mSizeFlushCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private volatile int mMaxBatchSize;
+    private volatile long mMaxDelayMillis;
+    private ScheduledFuture<?> mFlushFuture;
+
+    /**
+     * @param url            支持批量的接口
+     * @param maxBatchSize   每批最多的条数
+     * @param maxDelayMillis 第一条请求最多等待的时间
+     */
+    public RequestBatcher(@NonNull String url, int maxBatchSize, long maxDelayMillis) {
+        mUrl = url;
+        setMaxBatchSize(maxBatchSize);
+        setMaxDelayMillis(maxDelayMillis);
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        mMaxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        mMaxDelayMillis = Math.max(0, maxDelayMillis);
+    }
+
+    /**
+     * 加入批次，jsonStr 必须是合法的 JSON
+     *
+     * @param jsonStr
+     * @param callback
+     */
+    public void postJson(@NonNull String jsonStr, @NonNull OkHttpUtils.OkHttpCallback<String> callback) {
+        List<Item> batch = null;
+        synchronized (this) {
+            mPending.add(new Item(jsonStr, callback));
+            if (mPending.size() >= mMaxBatchSize) {
+                batch = drain();
+                mSizeFlushCount.incrementAndGet();
+            } else if (mFlushFuture == null) {
+                mFlushFuture = OkHttpUtils.getInstance().getScheduler().schedule(mFlushRunnable, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 立即发送缓存的请求，例如退到后台时
+     */
+    public void flush() {
+        List<Item> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 已发送的批次数
+     *
+     * @return
+     */
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * 已发送的请求条数
+     *
+     * @return
+     */
+    public long getItemCount() {
+        return mItemCount.get();
+    }
+
+    /**
+     * 因为条数达到上限而发送的批次数，其余是等待超时发送的
+     *
+     * @return
+     */
+    public long getSizeFlushCount() {
+        return mSizeFlushCount.get();
+    }
+
+    /**
+     * 平均每批的条数
+     *
+     * @return
+     */
+    public double getAverageBatchSize() {
+        long batchCount = mBatchCount.get();
+        return batchCount == 0 ? 0 : (double) mItemCount.get() / batchCount;
+    }
+
+    /**
+     * 请求在批次中的平均等待时间
+     *
+     * @return 毫秒
+     */
+    public double getAverageWaitMillis() {
+        long itemCount = mItemCount.get();
+        return itemCount == 0 ? 0 : mTotalWaitNanos.get() / 1e6 / itemCount;
+    }
+
+    private List<Item> drain() {
+        if (mFlushFuture != null) {
+            mFlushFuture.cancel(false);
+            mFlushFuture = null;
+        }
+        List<Item> batch = new ArrayList<>(mPending);
+        mPending.clear();
+        return batch;
+    }
+
+    private void send(final List<Item> batch) {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder("[");
+        for (Item item : batch) {
+            mTotalWaitNanos.addAndGet(now - item.mEnqueueNanos);
+            sb.append(item.mJson).append(',');
+        }
+        sb.setCharAt(sb.length() - 1, ']');
+        mBatchCount.incrementAndGet();
+        mItemCount.addAndGet(batch.size());
+        OkHttpUtils.getInstance().postJsonAsString(mUrl, sb.toString(), new OkHttpUtils.OkHttpCallback<String>() {
+            @Override
+            protected void onStart() {
+                for (Item item : batch) {
+                    item.mCallback.onStart();
+                }
+            }
+
+            @Override
+            protected void onSuccess(String result) {
+                List<JsonElement> elements;
+                try {
+                    elements = GsonConverter.jsonToList(result, JsonElement.class);
+                } catch (Exception e) {
+                    OkLogger.printStackTrace(e);
+                    elements = null;
+                }
+                if (elements == null || elements.size() != batch.size()) {
+                    onFailure(BATCH_FAILURE_MESSAGE);
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    JsonElement element = elements.get(i);
+                    boolean isString = element.isJsonPrimitive() && element.getAsJsonPrimitive().isString();
+                    batch.get(i).mCallback.onSuccess(isString ? element.getAsString() : element.toString());
+                }
+            }
+
+            @Override
+            protected void onFailure(String errorMsg) {
+                for (Item item : batch) {
+                    item.mCallback.onFailure(errorMsg);
+                }
+            }
+
+            @Override
+            protected void onFinish() {
+                for (Item item : batch) {
+                    item.mCallback.onFinish();
+                }
+            }
+        });
+    }
+
+    private static final class Item {
+        private final String mJson;
+        private final OkHttpUtils.OkHttpCallback<String> mCallback;
+        private final long mEnqueueNanos = System.nanoTime();
+
+        Item(String json, OkHttpUtils.OkHttpCallback<String> callback) {
+            mJson = json;
+            mCallback = callback;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 对冲请求，GET 请求超过阈值还没有响应时再发一个相同的请求，先返回的生效，另一个取消
+ * 阈值可以固定，也可以按接口最近 {@link #SAMPLE_SIZE} 次的 p95 延迟计算，最多统计最近使用的 {@link #MAX_ENDPOINTS} 个接口
+ * 每个请求积累 budgetRatio 个对冲额度，最多积累 {@link #MAX_BUDGET} 个，发出对冲时用掉一个，
+ * 对冲次数长期不超过请求数的 budgetRatio，正常时积累的额度有上限，服务端变慢时不会集中发出大量对冲
+ * 只用于幂等的 GET 请求
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class RequestHedger {
+    private static final int SAMPLE_SIZE = 100;
+    private static final int MIN_SAMPLES = 20;
+    private static final double PERCENTILE = 0.95;
+    /**
+     * 最多统计的接口数，路径里带 id 的接口每个 url 都算一个接口
+     */
+    private static final int MAX_ENDPOINTS = 100;
+    /**
+     * 最多积累的对冲额度
+     */
+    private static final double MAX_BUDGET = 10;
+    private final long mThresholdMillis;
+    private final double mBudgetRatio;
+    private final Map<String, LatencySamples> mSamples = LatencySamples.newEndpointMap(MAX_ENDPOINTS);
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHedgeCount = new AtomicLong();
+    private final AtomicLong mHedgeWinCount = new AtomicLong();
+    private double mBudget;
+
+    /**
+     * @param thresholdMillis 固定阈值，小于等于 0 时按接口的 p95 延迟计算
+     * @param budgetRatio     对冲请求占总请求数的最大比例，例如 0.05
+     */
+    RequestHedger(long thresholdMillis, double budgetRatio) {
+        mThresholdMillis = thresholdMillis;
+        mBudgetRatio = budgetRatio;
+    }
+
+    /**
+     * 经过对冲的请求数
+     *
+     * @return
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 发出对冲请求的次数
+     *
+     * @return
+     */
+    public long getHedgeCount() {
+        return mHedgeCount.get();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     *
+     * @return
+     */
+    public long getHedgeWinCount() {
+        return mHedgeWinCount.get();
+    }
+
+    /**
+     * 接口当前的对冲阈值
+     *
+     * @param request
+     * @return 毫秒，样本不够时返回 -1
+     */
+    public long getThresholdMillis(@NonNull Request request) {
+        if (mThresholdMillis > 0) {
+            return mThresholdMillis;
+        }
+        LatencySamples samples;
+        synchronized (mSamples) {
+            samples = mSamples.get(HttpUtils.getEndpoint(request.url()));
+        }
+        return samples != null ? samples.percentile(PERCENTILE) : -1;
+    }
+
+    void enqueue(@NonNull final OkHttpClient client, @NonNull final Request request, @NonNull Callback callback) {
+        mRequestCount.incrementAndGet();
+        synchronized (this) {
+            mBudget = Math.min(MAX_BUDGET, mBudget + mBudgetRatio);
+        }
+        final HedgedCallback hedgedCallback = new HedgedCallback(request, callback);
+        Call primary = client.newCall(request);
+        hedgedCallback.mPrimary = primary;
+        long thresholdMillis = getThresholdMillis(request);
+        if (thresholdMillis > 0) {
+            hedgedCallback.mHedgeFuture = OkHttpUtils.getInstance().getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge(client, hedgedCallback);
+                }
+            }, thresholdMillis, TimeUnit.MILLISECONDS);
+        }
+        primary.enqueue(hedgedCallback);
+    }
+
+    private void hedge(OkHttpClient client, HedgedCallback hedgedCallback) {
+        if (!tryAcquireBudget()) {
+            return;
+        }
+        Call hedge;
+        synchronized (hedgedCallback) {
+            if (hedgedCallback.mDone || hedgedCallback.mPrimary.isCanceled()) {
+                releaseBudget();
+                return;
+            }
+            hedge = client.newCall(hedgedCallback.mRequest);
+            hedgedCallback.mHedge = hedge;
+            hedgedCallback.mPending++;
+        }
+        mHedgeCount.incrementAndGet();
+        hedge.enqueue(hedgedCallback);
+    }
+
+    private synchronized boolean tryAcquireBudget() {
+        if (mBudget < 1) {
+            return false;
+        }
+        mBudget -= 1;
+        return true;
+    }
+
+    private synchronized void releaseBudget() {
+        mBudget = Math.min(MAX_BUDGET, mBudget + 1);
+    }
+
+    private void record(Request request, long latencyMillis) {
+        String endpoint = HttpUtils.getEndpoint(request.url());
+        LatencySamples samples;
+        synchronized (mSamples) {
+            samples = mSamples.get(endpoint);
+            if (samples == null) {
+                samples = new LatencySamples(SAMPLE_SIZE, MIN_SAMPLES);
+                mSamples.put(endpoint, samples);
+            }
+        }
+        samples.add(latencyMillis);
+    }
+
+    /**
+     * 先到的响应回调给调用方，另一个请求取消；两个都失败时回调最后一个失败
+     */
+    private final class HedgedCallback implements Callback {
+        private final Request mRequest;
+        private final Callback mDelegate;
+        private final long mStartNanos = System.nanoTime();
+        private Call mPrimary;
+        private Call mHedge;
+        private ScheduledFuture<?> mHedgeFuture;
+        private int mPending = 1;
+        private boolean mDone;
+
+        HedgedCallback(Request request, Callback delegate) {
+            mRequest = request;
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            synchronized (this) {
+                if (mDone || --mPending > 0) {
+                    return;
+                }
+                mDone = true;
+                cancelHedgeFuture();
+            }
+            mDelegate.onFailure(call, e);
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+            Call other;
+            synchronized (this) {
+                if (mDone) {
+                    response.close();
+                    return;
+                }
+                mDone = true;
+                cancelHedgeFuture();
+                other = call == mPrimary ? mHedge : mPrimary;
+            }
+            if (other != null) {
+                other.cancel();
+            }
+            if (call == mHedge) {
+                mHedgeWinCount.incrementAndGet();
+            }
+            record(mRequest, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos));
+            mDelegate.onResponse(call, response);
+        }
+
+        private void cancelHedgeFuture() {
+            if (mHedgeFuture != null) {
+                mHedgeFuture.cancel(false);
+            }
+        }
+    }
+}
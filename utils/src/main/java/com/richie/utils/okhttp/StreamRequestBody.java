@@ -0,0 +1,120 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Source;
+
+/**
+ * 直接从数据源写入请求的请求体，不用先复制到临时文件
+ * 长度未知时为 -1，使用分块传输；数据源只能读一次时是 one-shot，OkHttp 不会重试
+ *
+ * @author Richie on 2026.10.19
+ */
+final class StreamRequestBody extends RequestBody {
+    private static final long SEGMENT_SIZE = 8192;
+    private final MediaType mContentType;
+    private final long mContentLength;
+    private final SourceOpener mOpener;
+    private final boolean mOneShot;
+    private final ProgressListener mProgressListener;
+
+    /**
+     * @param contentType
+     * @param contentLength    未知时为 -1
+     * @param opener           每次写入时打开数据源，写完后关闭
+     * @param oneShot          数据源是否只能读一次
+     * @param progressListener 可以为 null
+     */
+    StreamRequestBody(MediaType contentType, long contentLength, @NonNull SourceOpener opener, boolean oneShot,
+                      ProgressListener progressListener) {
+        mContentType = contentType;
+        mContentLength = contentLength;
+        mOpener = opener;
+        mOneShot = oneShot;
+        mProgressListener = progressListener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return mContentLength;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return mOneShot;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        try (Source source = mOpener.open()) {
+            long written = 0;
+            long read;
+            while ((read = source.read(sink.getBuffer(), SEGMENT_SIZE)) != -1) {
+                sink.emitCompleteSegments();
+                written += read;
+                if (mProgressListener != null) {
+                    mProgressListener.onProgress(written, mContentLength);
+                }
+            }
+            if (mProgressListener != null && mContentLength < 0) {
+                // 长度未知时最后报告一次总长度
+                mProgressListener.onProgress(written, written);
+            }
+        }
+    }
+
+    interface SourceOpener {
+        Source open() throws IOException;
+    }
+
+    /**
+     * 只能读一次的数据源，writeTo 读完后关闭
+     * 请求在写入之前就结束时（限流、熔断、连接失败、回放）由调用方 {@link #closeIfUnopened()}
+     */
+    static final class OneShotOpener implements SourceOpener {
+        private final Source mSource;
+        private final AtomicBoolean mOpened = new AtomicBoolean();
+
+        OneShotOpener(@NonNull Source source) {
+            mSource = source;
+        }
+
+        @Override
+        public Source open() throws IOException {
+            if (!mOpened.compareAndSet(false, true)) {
+                throw new IOException("one-shot source already consumed");
+            }
+            return mSource;
+        }
+
+        void closeIfUnopened() {
+            if (!mOpened.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                mSource.close();
+            } catch (IOException e) {
+                OkLogger.printStackTrace(e);
+            }
+        }
+    }
+
+    interface ProgressListener {
+        /**
+         * @param current 已写入的字节数
+         * @param total   总长度，未知时为 -1
+         */
+        void onProgress(long current, long total);
+    }
+}
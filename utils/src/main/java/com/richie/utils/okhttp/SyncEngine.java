@@ -0,0 +1,453 @@
+package com.richie.utils.okhttp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.richie.utils.common.NetworkUtils;
+
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.AbstractDaoSession;
+import org.greenrobot.greendao.database.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * 增量同步，按集合记录同步令牌，每次只拉取变化和删除的记录，写入 greenDAO 数据库，界面直接读本地数据库
+ * 同步的耗时和流量只和变化量有关，和数据总量无关。服务端响应格式，字段顺序不限：
+ * <pre>
+ * GET url?since=令牌
+ * {"changed": [记录, ...], "deleted": [主键, ...], "next": "新令牌", "hasMore": false}
+ * </pre>
+ * 第一次同步不带 since 参数，服务端返回全量；hasMore 为 true 时用 next 继续拉取下一页，next 和本页令牌相同时停止
+ * 每一页先完整下载到缓存目录的临时文件，再在一个事务里写入，网络慢时不会一直占着数据库的写锁；
+ * 记录边读边解析，每 {@link #BATCH_SIZE} 条 insertOrReplaceInTx 一次，不会整页读进内存；
+ * 事务提交后才保存新令牌，中途失败时这一页的数据和令牌都不变，下次从同一个令牌重新拉取
+ * 请求经过 OkHttpUtils 的限流和熔断，可以用 {@link #cancel(String)} 取消
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class SyncEngine {
+    public static final String PARAM_SINCE = "since";
+    private static final String KEY_CHANGED = "changed";
+    private static final String KEY_DELETED = "deleted";
+    private static final String KEY_NEXT = "next";
+    private static final String KEY_HAS_MORE = "hasMore";
+    private static final String PREFS_NAME = "okhttp_sync";
+    private static final String SYNC_FAILURE_MESSAGE = "同步失败";
+    private static final String SYNCING_MESSAGE = "正在同步";
+    private static final String OFFLINE_MESSAGE = "网络不可用";
+    private static final String TAG_PREFIX = "sync:";
+    private static final String SPOOL_FILE_PREFIX = "sync";
+    private static final String SPOOL_FILE_SUFFIX = ".json";
+    private static final int BATCH_SIZE = 200;
+    private final Context mContext;
+    private final AbstractDaoSession mDaoSession;
+    private final SharedPreferences mPreferences;
+    private final Map<String, SyncCollection<?, ?>> mCollections = new ConcurrentHashMap<>();
+    private final Set<String> mSyncing = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * @param context
+     * @param daoSession 例如 GreenDaoUtil.getInstance().getDaoSession()
+     */
+    public SyncEngine(@NonNull Context context, @NonNull AbstractDaoSession daoSession) {
+        mContext = context.getApplicationContext();
+        mDaoSession = daoSession;
+        mPreferences = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 注册要同步的集合
+     *
+     * @param collection  集合名，同步令牌按集合名保存
+     * @param url         增量接口
+     * @param entityClass greenDAO 实体类，服务端记录的字段名和实体的字段名一致
+     * @param keyClass    主键类型，deleted 里的主键按这个类型解析
+     * @throws IllegalArgumentException url 不合法
+     */
+    public <T, K> void register(@NonNull String collection, @NonNull String url, @NonNull Class<T> entityClass,
+                                @NonNull Class<K> keyClass) {
+        @SuppressWarnings("unchecked")
+        AbstractDao<T, K> dao = (AbstractDao<T, K>) mDaoSession.getDao(entityClass);
+        // 注册时检查地址，同步时不会因为地址不合法同步抛出异常而一直处于同步中
+        mCollections.put(collection, new SyncCollection<>(HttpUrl.get(url), dao, entityClass, keyClass));
+    }
+
+    /**
+     * 集合的 Dao，界面从这里查询本地数据
+     *
+     * @param collection
+     * @return 没有注册时返回 null
+     */
+    public AbstractDao<?, ?> getDao(@NonNull String collection) {
+        SyncCollection<?, ?> syncCollection = mCollections.get(collection);
+        return syncCollection != null ? syncCollection.mDao : null;
+    }
+
+    /**
+     * 集合当前的同步令牌
+     *
+     * @param collection
+     * @return 没有同步过时返回 null
+     */
+    public String getSinceToken(@NonNull String collection) {
+        return mPreferences.getString(collection, null);
+    }
+
+    /**
+     * 清除同步令牌，下次同步拉取全量，本地数据不删除
+     *
+     * @param collection
+     */
+    public void reset(@NonNull String collection) {
+        mPreferences.edit().remove(collection).apply();
+    }
+
+    /**
+     * 取消集合正在进行的同步，已经提交的页不受影响
+     *
+     * @param collection
+     */
+    public void cancel(@NonNull String collection) {
+        OkHttpUtils.getInstance().cancelTag(TAG_PREFIX + collection);
+    }
+
+    /**
+     * 同步集合，在 OkHttp 的线程读取和写入数据库，同一个集合同时只能有一个同步
+     *
+     * @param collection
+     * @param callback
+     */
+    public void sync(@NonNull final String collection, @NonNull final OkHttpUtils.OkHttpCallback<Result> callback) {
+        final SyncCollection<?, ?> syncCollection = mCollections.get(collection);
+        if (syncCollection == null) {
+            throw new IllegalArgumentException("collection not registered: " + collection);
+        }
+        final OkHttpUtils okHttpUtils = OkHttpUtils.getInstance();
+        final String errorMsg;
+        if (!NetworkUtils.isConnected(mContext)) {
+            errorMsg = OFFLINE_MESSAGE;
+        } else if (!mSyncing.add(collection)) {
+            errorMsg = SYNCING_MESSAGE;
+        } else {
+            errorMsg = null;
+        }
+        if (errorMsg != null) {
+            okHttpUtils.deliver(callback, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onStart();
+                    callback.onFailure(errorMsg);
+                    callback.onFinish();
+                }
+            });
+            return;
+        }
+        okHttpUtils.deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onStart();
+            }
+        });
+        fetchPage(collection, syncCollection, new Result(collection, System.nanoTime()), callback);
+    }
+
+    private void fetchPage(final String collection, final SyncCollection<?, ?> syncCollection, final Result result,
+                           final OkHttpUtils.OkHttpCallback<Result> callback) {
+        HttpUrl.Builder urlBuilder = syncCollection.mUrl.newBuilder();
+        final String sinceToken = getSinceToken(collection);
+        if (sinceToken != null) {
+            urlBuilder.setQueryParameter(PARAM_SINCE, sinceToken);
+        }
+        Request request = new Request.Builder()
+                .get()
+                .url(urlBuilder.build())
+                .tag(TAG_PREFIX + collection)
+                .build();
+        OkHttpUtils.getInstance().enqueue(request, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                OkLogger.printStackTrace(e);
+                finish(collection, result, false, callback);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean hasMore;
+                try {
+                    if (!response.isSuccessful()) {
+                        OkLogger.w("sync " + collection + " failed, code: " + response.code());
+                        finish(collection, result, false, callback);
+                        return;
+                    }
+                    hasMore = applyPage(collection, syncCollection, response, result);
+                } catch (Exception e) {
+                    OkLogger.printStackTrace(e);
+                    finish(collection, result, false, callback);
+                    return;
+                } finally {
+                    response.close();
+                }
+                if (hasMore && result.mSinceToken.equals(sinceToken)) {
+                    // 令牌没有前进，继续拉取只会重复同一页
+                    OkLogger.w("sync " + collection + " stopped, next token not advanced: " + sinceToken);
+                    hasMore = false;
+                }
+                if (hasMore) {
+                    fetchPage(collection, syncCollection, result, callback);
+                } else {
+                    finish(collection, result, true, callback);
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * 先把一页下载到临时文件，再在一个事务里写入，提交后保存新令牌
+     *
+     * @return 是否还有下一页
+     */
+    private <T, K> boolean applyPage(String collection, SyncCollection<T, K> syncCollection, Response response, Result result)
+            throws IOException {
+        File spoolFile = File.createTempFile(SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX, mContext.getCacheDir());
+        try {
+            long bytes;
+            try (BufferedSink sink = Okio.buffer(Okio.sink(spoolFile))) {
+                bytes = sink.writeAll(response.body().source());
+            }
+            boolean hasMore = applySpooled(collection, syncCollection, spoolFile, result);
+            result.mBytes += bytes;
+            return hasMore;
+        } finally {
+            spoolFile.delete();
+        }
+    }
+
+    /**
+     * 在一个事务里写入临时文件里的一页数据，提交后保存新令牌
+     *
+     * @return 是否还有下一页
+     */
+    private <T, K> boolean applySpooled(String collection, SyncCollection<T, K> syncCollection, File spoolFile, Result result)
+            throws IOException {
+        Database database = mDaoSession.getDatabase();
+        String nextToken = null;
+        boolean hasMore = false;
+        int changedCount = 0;
+        int deletedCount = 0;
+        boolean success = false;
+        database.beginTransaction();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(Okio.buffer(Okio.source(spoolFile)).inputStream(),
+                Charset.forName("UTF-8")))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (KEY_CHANGED.equals(name)) {
+                    changedCount += readChanged(reader, syncCollection);
+                } else if (KEY_DELETED.equals(name)) {
+                    deletedCount += readDeleted(reader, syncCollection);
+                } else if (KEY_NEXT.equals(name)) {
+                    nextToken = reader.nextString();
+                } else if (KEY_HAS_MORE.equals(name)) {
+                    hasMore = reader.nextBoolean();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (nextToken == null) {
+                throw new IOException("sync response of " + collection + " has no next token");
+            }
+            database.setTransactionSuccessful();
+            success = true;
+        } finally {
+            database.endTransaction();
+            if (!success) {
+                // 回滚后身份缓存里还有这一页写入的实体，清掉避免读到未提交的数据
+                syncCollection.mDao.detachAll();
+            }
+        }
+        mPreferences.edit().putString(collection, nextToken).apply();
+        result.mChangedCount += changedCount;
+        result.mDeletedCount += deletedCount;
+        result.mPageCount++;
+        result.mSinceToken = nextToken;
+        return hasMore;
+    }
+
+    private static <T, K> int readChanged(JsonReader reader, SyncCollection<T, K> syncCollection) throws IOException {
+        List<T> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            batch.add(GsonConverter.readBean(reader, syncCollection.mEntityClass));
+            if (batch.size() == BATCH_SIZE) {
+                syncCollection.mDao.insertOrReplaceInTx(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        reader.endArray();
+        if (!batch.isEmpty()) {
+            syncCollection.mDao.insertOrReplaceInTx(batch);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    private static <T, K> int readDeleted(JsonReader reader, SyncCollection<T, K> syncCollection) throws IOException {
+        List<K> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            batch.add(GsonConverter.readBean(reader, syncCollection.mKeyClass));
+            if (batch.size() == BATCH_SIZE) {
+                syncCollection.mDao.deleteByKeyInTx(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        reader.endArray();
+        if (!batch.isEmpty()) {
+            syncCollection.mDao.deleteByKeyInTx(batch);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    private void finish(String collection, final Result result, final boolean success,
+                        final OkHttpUtils.OkHttpCallback<Result> callback) {
+        result.mDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - result.mStartNanos);
+        mSyncing.remove(collection);
+        OkLogger.d("sync finished, success: " + success + ", " + result);
+        OkHttpUtils.getInstance().deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                if (success) {
+                    callback.onSuccess(result);
+                } else {
+                    callback.onFailure(SYNC_FAILURE_MESSAGE);
+                }
+                callback.onFinish();
+            }
+        });
+    }
+
+    /**
+     * 一次同步的结果，失败时是已经提交的页数据
+     */
+    public static final class Result {
+        private final String mCollection;
+        private final long mStartNanos;
+        private int mChangedCount;
+        private int mDeletedCount;
+        private long mBytes;
+        private int mPageCount;
+        private long mDurationMillis;
+        private String mSinceToken;
+
+        Result(String collection, long startNanos) {
+            mCollection = collection;
+            mStartNanos = startNanos;
+        }
+
+        public String getCollection() {
+            return mCollection;
+        }
+
+        /**
+         * 新增或修改的记录数
+         *
+         * @return
+         */
+        public int getChangedCount() {
+            return mChangedCount;
+        }
+
+        /**
+         * 删除的记录数
+         *
+         * @return
+         */
+        public int getDeletedCount() {
+            return mDeletedCount;
+        }
+
+        /**
+         * 下载的字节数
+         *
+         * @return
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public int getPageCount() {
+            return mPageCount;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        /**
+         * 同步后的令牌
+         *
+         * @return
+         */
+        public String getSinceToken() {
+            return mSinceToken;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "collection='" + mCollection + '\'' +
+                    ", changed=" + mChangedCount +
+                    ", deleted=" + mDeletedCount +
+                    ", bytes=" + mBytes +
+                    ", pages=" + mPageCount +
+                    ", durationMillis=" + mDurationMillis +
+                    '}';
+        }
+    }
+
+    private static final class SyncCollection<T, K> {
+        private final HttpUrl mUrl;
+        private final AbstractDao<T, K> mDao;
+        private final Class<T> mEntityClass;
+        private final Class<K> mKeyClass;
+
+        SyncCollection(HttpUrl url, AbstractDao<T, K> dao, Class<T> entityClass, Class<K> keyClass) {
+            mUrl = url;
+            mDao = dao;
+            mEntityClass = entityClass;
+            mKeyClass = keyClass;
+        }
+    }
+}
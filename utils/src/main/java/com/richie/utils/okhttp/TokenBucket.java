@@ -0,0 +1,133 @@
+package com.richie.utils.okhttp;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 令牌桶，按固定速率产生令牌，默认最多积累 {@link #BURST_MILLIS} 毫秒的量
+ * 令牌不够时先欠着，调用方按返回的时间等待，这样大块数据不会饿死，速率也可以随时修改
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class TokenBucket {
+    private static final long BURST_MILLIS = 250;
+    private final long mBurst;
+    private long mRate;
+    private double mTokens;
+    private long mLastNanos = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond 每秒产生的令牌数，小于等于 0 不限制
+     */
+    public TokenBucket(long permitsPerSecond) {
+        this(permitsPerSecond, 0);
+    }
+
+    /**
+     * @param permitsPerSecond 每秒产生的令牌数，小于等于 0 不限制
+     * @param burst            最多积累的令牌数，小于等于 0 使用默认值，初始是满的
+     */
+    public TokenBucket(long permitsPerSecond, long burst) {
+        mBurst = burst;
+        setRate(permitsPerSecond);
+        mTokens = capacity();
+    }
+
+    public synchronized void setRate(long permitsPerSecond) {
+        refill();
+        mRate = permitsPerSecond;
+        mTokens = Math.min(mTokens, capacity());
+    }
+
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    /**
+     * 拿走令牌，返回需要等待的时间，不限制时返回 0
+     *
+     * @param permits
+     * @return 纳秒
+     */
+    public synchronized long reserve(long permits) {
+        if (mRate <= 0) {
+            return 0;
+        }
+        refill();
+        mTokens -= permits;
+        return mTokens >= 0 ? 0 : (long) (-mTokens * 1e9 / mRate);
+    }
+
+    /**
+     * 等待时间不超过 maxWaitNanos 时拿走令牌，否则不拿
+     *
+     * @param permits
+     * @param maxWaitNanos
+     * @return 需要等待的纳秒数，超过 maxWaitNanos 时返回 -1
+     */
+    public synchronized long tryReserve(long permits, long maxWaitNanos) {
+        if (mRate <= 0) {
+            return 0;
+        }
+        refill();
+        double tokens = mTokens - permits;
+        long waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / mRate);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        mTokens = tokens;
+        return waitNanos;
+    }
+
+    /**
+     * 令牌足够时拿走，不够时不拿
+     *
+     * @param permits
+     * @return 是否拿到
+     */
+    public synchronized boolean tryAcquire(long permits) {
+        if (mRate <= 0) {
+            return true;
+        }
+        refill();
+        if (mTokens < permits) {
+            return false;
+        }
+        mTokens -= permits;
+        return true;
+    }
+
+    /**
+     * 拿走令牌，不够时阻塞等待
+     *
+     * @param permits
+     * @throws InterruptedIOException 等待时线程被中断，例如请求被取消
+     */
+    public void acquire(long permits) throws InterruptedIOException {
+        sleep(reserve(permits));
+    }
+
+    static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("token bucket interrupted");
+        }
+    }
+
+    private double capacity() {
+        // 至少能放下一个令牌，否则低速率时 tryAcquire 永远拿不到
+        return mBurst > 0 ? mBurst : Math.max(1, mRate * BURST_MILLIS / 1000.0);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (mRate > 0) {
+            mTokens = Math.min(capacity(), mTokens + (now - mLastNanos) * mRate / 1e9);
+        }
+        mLastNanos = now;
+    }
+}
@@ -0,0 +1,449 @@
+package com.richie.utils.okhttp;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * WebSocket 长连接，代替轮询，使用共享的 OkHttpClient
+ * 连接断开后按指数退避自动重连，连接成功后退避时间复位；调用 {@link #close()} 后不再重连
+ * 发送的消息先放入待发送队列，每 flushIntervalMillis 统一发送一次，同一个合并键只发送最新的一条；断开期间的消息在重连后发送
+ * 收到的消息放入有界队列，在指定的 Executor 按顺序回调，队列满时按溢出策略处理：
+ * 丢弃最早的、丢弃最新的，或者暂停读取，由 TCP 流量控制让服务端放慢发送
+ * 在 {@link #connect()} 之前修改配置
+ *
+ * @author Richie on 2026.10.19
+ */
+public final class WebSocketClient {
+    /**
+     * 队列满时丢弃最早的消息
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    /**
+     * 队列满时丢弃新收到的消息
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+    /**
+     * 队列满时暂停读取，直到回调取走消息
+     */
+    public static final int OVERFLOW_BLOCK = 2;
+    /**
+     * 未连接或者正在连接
+     */
+    public static final int STATE_CONNECTING = 0;
+    /**
+     * 已连接
+     */
+    public static final int STATE_OPEN = 1;
+    /**
+     * 连接断开，等待重连
+     */
+    public static final int STATE_RECONNECTING = 2;
+    /**
+     * 已关闭，不再重连
+     */
+    public static final int STATE_CLOSED = 3;
+    private static final int NORMAL_CLOSURE = 1000;
+    private static final int MAX_PENDING = 1000;
+    private final Random mRandom = new Random();
+    private final String mUrl;
+    private final Listener mListener;
+    /**
+     * 收到的文本消息是 String，二进制消息是 ByteString
+     */
+    private final ArrayDeque<Object> mInbound = new ArrayDeque<>();
+    private final LinkedHashMap<Object, String> mPending = new LinkedHashMap<>();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mSentMessageCount = new AtomicLong();
+    private final AtomicLong mReconnectCount = new AtomicLong();
+    private long mFlushIntervalMillis = 100;
+    private int mInboundCapacity = 256;
+    private int mOverflowPolicy = OVERFLOW_DROP_OLDEST;
+    private Executor mExecutor = OkHttpUtils.MAIN_THREAD_EXECUTOR;
+    private long mInitialBackoffMillis = 1000;
+    private long mMaxBackoffMillis = 60000;
+    private long mBackoffMillis;
+    private int mState = STATE_CONNECTING;
+    private boolean mDraining;
+    private WebSocket mWebSocket;
+    private ScheduledFuture<?> mFlushFuture;
+    private ScheduledFuture<?> mReconnectFuture;
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param url      ws:// 或 wss:// 地址
+     * @param listener
+     */
+    WebSocketClient(@NonNull String url, @NonNull Listener listener) {
+        mUrl = url;
+        mListener = listener;
+    }
+
+    /**
+     * 发送间隔，这段时间内的消息一起发送
+     *
+     * @param flushIntervalMillis 小于等于 0 时立即发送
+     */
+    public synchronized void setFlushIntervalMillis(long flushIntervalMillis) {
+        mFlushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * 接收队列的容量和溢出策略
+     *
+     * @param capacity       队列最多保存的消息数
+     * @param overflowPolicy {@link #OVERFLOW_DROP_OLDEST}、{@link #OVERFLOW_DROP_NEWEST} 或 {@link #OVERFLOW_BLOCK}
+     */
+    public synchronized void setInboundCapacity(int capacity, @OverflowPolicy int overflowPolicy) {
+        mInboundCapacity = Math.max(1, capacity);
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * 回调所在的 Executor，默认主线程
+     *
+     * @param executor 例如 {@link OkHttpUtils#BACKGROUND_EXECUTOR}
+     */
+    public synchronized void setCallbackExecutor(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * 重连的退避时间，每次失败翻倍，加上随机抖动
+     *
+     * @param initialBackoffMillis 第一次重连的等待时间
+     * @param maxBackoffMillis     最长等待时间
+     */
+    public synchronized void setReconnectBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+        mInitialBackoffMillis = Math.max(1, initialBackoffMillis);
+        mMaxBackoffMillis = Math.max(mInitialBackoffMillis, maxBackoffMillis);
+    }
+
+    public synchronized void connect() {
+        if (mState == STATE_CLOSED || mWebSocket != null) {
+            return;
+        }
+        mState = STATE_CONNECTING;
+        Request request = new Request.Builder()
+                .url(mUrl)
+                .build();
+        mWebSocket = OkHttpUtils.getInstance().getOkHttpClient().newWebSocket(request, new SocketListener());
+    }
+
+    /**
+     * 发送消息，到发送间隔时和其他消息一起发送
+     *
+     * @param text
+     */
+    public void send(@NonNull String text) {
+        send(null, text);
+    }
+
+    /**
+     * 发送消息，还没有发出的消息里有相同合并键的，只保留这一条，例如位置、进度这类只关心最新值的消息
+     *
+     * @param coalesceKey 合并键，为 null 不合并
+     * @param text
+     */
+    public synchronized void send(Object coalesceKey, @NonNull String text) {
+        if (mState == STATE_CLOSED) {
+            return;
+        }
+        Object key = coalesceKey != null ? coalesceKey : new Object();
+        // 合并后放到队尾，保证按最新一条的顺序发送
+        mPending.remove(key);
+        mPending.put(key, text);
+        if (mPending.size() > MAX_PENDING) {
+            Iterator<String> iterator = mPending.values().iterator();
+            iterator.next();
+            iterator.remove();
+            mDroppedCount.incrementAndGet();
+        }
+        if (mState != STATE_OPEN) {
+            return;
+        }
+        if (mFlushIntervalMillis <= 0) {
+            flushLocked();
+        } else if (mFlushFuture == null) {
+            mFlushFuture = OkHttpUtils.getInstance().getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 关闭连接，先发出待发送的消息，之后不再重连
+     */
+    public synchronized void close() {
+        if (mState == STATE_CLOSED) {
+            return;
+        }
+        if (mState == STATE_OPEN) {
+            flushLocked();
+        }
+        mState = STATE_CLOSED;
+        cancelFutures();
+        mPending.clear();
+        if (mWebSocket != null) {
+            mWebSocket.close(NORMAL_CLOSURE, null);
+            mWebSocket = null;
+        }
+        notifyAll();
+    }
+
+    @State
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * 溢出策略和待发送队列上限丢弃的消息数
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 实际发出的消息数，合并掉的不算
+     *
+     * @return
+     */
+    public long getSentMessageCount() {
+        return mSentMessageCount.get();
+    }
+
+    public long getReconnectCount() {
+        return mReconnectCount.get();
+    }
+
+    private synchronized void flush() {
+        mFlushFuture = null;
+        if (mState == STATE_OPEN) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        Iterator<String> iterator = mPending.values().iterator();
+        while (iterator.hasNext()) {
+            if (!mWebSocket.send(iterator.next())) {
+                // 连接已经关闭，剩下的等重连后发送
+                return;
+            }
+            iterator.remove();
+            mSentMessageCount.incrementAndGet();
+        }
+    }
+
+    private void cancelFutures() {
+        if (mFlushFuture != null) {
+            mFlushFuture.cancel(false);
+            mFlushFuture = null;
+        }
+        if (mReconnectFuture != null) {
+            mReconnectFuture.cancel(false);
+            mReconnectFuture = null;
+        }
+    }
+
+    private synchronized void onOpen(WebSocket webSocket) {
+        if (webSocket != mWebSocket) {
+            return;
+        }
+        mState = STATE_OPEN;
+        mBackoffMillis = 0;
+        flushLocked();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onOpen();
+            }
+        });
+    }
+
+    private void onMessage(WebSocket webSocket, Object message) {
+        boolean startDrain;
+        synchronized (this) {
+            if (webSocket != mWebSocket) {
+                return;
+            }
+            while (mInbound.size() >= mInboundCapacity && mOverflowPolicy == OVERFLOW_BLOCK && webSocket == mWebSocket) {
+                // 阻塞 OkHttp 的读线程，socket 缓冲区满后服务端会放慢发送
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (webSocket != mWebSocket) {
+                return;
+            }
+            if (mInbound.size() >= mInboundCapacity) {
+                mDroppedCount.incrementAndGet();
+                if (mOverflowPolicy == OVERFLOW_DROP_NEWEST) {
+                    return;
+                }
+                mInbound.poll();
+            }
+            mInbound.offer(message);
+            startDrain = !mDraining;
+            mDraining = true;
+        }
+        if (startDrain) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * 同一时间只有一个 drain 在执行，消息按收到的顺序回调
+     */
+    private void drain() {
+        while (true) {
+            Object message;
+            synchronized (this) {
+                message = mInbound.poll();
+                if (message == null) {
+                    mDraining = false;
+                    return;
+                }
+                notifyAll();
+            }
+            try {
+                if (message instanceof ByteString) {
+                    mListener.onMessage((ByteString) message);
+                } else {
+                    mListener.onMessage((String) message);
+                }
+            } catch (RuntimeException e) {
+                OkLogger.printStackTrace(e);
+            }
+        }
+    }
+
+    private synchronized void onDisconnected(WebSocket webSocket, final String reason) {
+        if (webSocket != mWebSocket || mState == STATE_CLOSED) {
+            return;
+        }
+        mWebSocket = null;
+        mState = STATE_RECONNECTING;
+        cancelFutures();
+        notifyAll();
+        mBackoffMillis = mBackoffMillis == 0 ? mInitialBackoffMillis : Math.min(mMaxBackoffMillis, mBackoffMillis * 2);
+        // 加上最多一半的随机抖动，避免所有客户端同时重连
+        long delayMillis = mBackoffMillis + (long) (mRandom.nextDouble() * mBackoffMillis / 2);
+        OkLogger.w("websocket disconnected: " + reason + ", reconnect in " + delayMillis + "ms");
+        mReconnectFuture = OkHttpUtils.getInstance().getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onDisconnected(reason);
+            }
+        });
+    }
+
+    private synchronized void reconnect() {
+        mReconnectFuture = null;
+        if (mState != STATE_RECONNECTING) {
+            return;
+        }
+        mReconnectCount.incrementAndGet();
+        connect();
+    }
+
+    @IntDef({OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_NEWEST, OVERFLOW_BLOCK})
+    public @interface OverflowPolicy {
+    }
+
+    @IntDef({STATE_CONNECTING, STATE_OPEN, STATE_RECONNECTING, STATE_CLOSED})
+    public @interface State {
+    }
+
+    /**
+     * 连接和消息回调，在 {@link #setCallbackExecutor(Executor)} 设置的 Executor 执行
+     */
+    public interface Listener {
+        /**
+         * 连接成功，包括每次重连成功
+         */
+        void onOpen();
+
+        /**
+         * 收到文本消息
+         *
+         * @param text
+         */
+        void onMessage(String text);
+
+        /**
+         * 收到二进制消息，和文本消息在同一个队列里按顺序回调
+         *
+         * @param bytes
+         */
+        void onMessage(ByteString bytes);
+
+        /**
+         * 连接断开，之后会自动重连；主动调用 close 时不回调
+         *
+         * @param reason
+         */
+        void onDisconnected(String reason);
+    }
+
+    private final class SocketListener extends WebSocketListener {
+        @Override
+        public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+            WebSocketClient.this.onOpen(webSocket);
+        }
+
+        @Override
+        public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+            WebSocketClient.this.onMessage(webSocket, text);
+        }
+
+        @Override
+        public void onMessage(@NonNull WebSocket webSocket, @NonNull ByteString bytes) {
+            WebSocketClient.this.onMessage(webSocket, bytes);
+        }
+
+        @Override
+        public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+            webSocket.close(NORMAL_CLOSURE, null);
+            onDisconnected(webSocket, "closed by server: " + code + " " + reason);
+        }
+
+        @Override
+        public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, Response response) {
+            onDisconnected(webSocket, String.valueOf(t));
+        }
+    }
+}
@@ -52,7 +52,9 @@ public final class NetChangeReceiver extends BaseBroadcastReceiver {
                 } else {
                     if (System.currentTimeMillis() - mLastTime > MIN_TRIGGER_TIME) {
                         Log.i(TAG, "network disconnected");
-                        mOnNetChangedListener.onNetChanged(false);
+                        if (mOnNetChangedListener != null) {
+                            mOnNetChangedListener.onNetChanged(false);
+                        }
                     }
                     mLastTime = System.currentTimeMillis();
                 }